@@ -1,5 +1,10 @@
 package org.example;
 
+import org.example.protocol.Frame;
+import org.example.protocol.FrameStream;
+import org.example.protocol.Opcode;
+import org.example.protocol.TextCodec;
+
 import java.io.*;
 import java.net.*;
 import java.util.List;
@@ -23,30 +28,28 @@ public class ChatClient {
     public static void main(String[] args) {
 
         try (Socket socket = new Socket(SERVER_ADDRESS, SERVER_PORT);
-             BufferedReader input = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-             PrintWriter output = new PrintWriter(socket.getOutputStream(), true);
+             FrameStream stream = FrameStream.connect(socket, true);
              Scanner scanner = new Scanner(System.in)) {
 
-            output.println("user2");
-            output.println("user2");
+            stream.write(Frame.of(Opcode.LOGIN, "user2"));
+            stream.write(Frame.of(Opcode.BROADCAST, null, "user2"));
 
             Thread listenerThread = new Thread(() -> {
                 try {
-                    String serverMessage;
-                    output.println("/friends");
+                    Frame serverFrame;
+                    stream.write(Frame.of(Opcode.FRIENDS));
 
-                    while ((serverMessage = input.readLine()) != null) {
+                    while ((serverFrame = stream.read()) != null) {
 
-                        if (serverMessage.startsWith("/friends")) {
-                            friends.add(serverMessage.split(" ")[1]);
+                        if (serverFrame.getOpcode() == Opcode.FRIENDS) {
+                            friends.add(serverFrame.getTarget());
 
-                        } else if (serverMessage.startsWith("/active")) {
-                            String[] parts = serverMessage.split(":");
-                            System.out.println(parts[1] + " is online");
-                        } else if (serverMessage.startsWith("/exit")) {
-                            System.out.println(serverMessage.split(":")[1] + " has left the chat");
+                        } else if (serverFrame.getOpcode() == Opcode.ACTIVE) {
+                            System.out.println(serverFrame.getTarget() + " is online");
+                        } else if (serverFrame.getOpcode() == Opcode.EXIT) {
+                            System.out.println(serverFrame.getTarget() + " has left the chat");
                         } else {
-                            System.out.println(serverMessage);
+                            System.out.println(TextCodec.encodeForClient(serverFrame));
                         }
                     }
                 } catch (IOException e) {
@@ -65,7 +68,7 @@ public class ChatClient {
             System.out.println("To send a private message: /msg <recipient_name> <message>");
             while (true) {
                 String userMessage = scanner.nextLine();
-                output.println(userMessage);
+                stream.write(TextCodec.decodeFromClient(userMessage));
 
                 if (userMessage.equalsIgnoreCase("exit")) {
                     System.out.println("Disconnected from the server.");
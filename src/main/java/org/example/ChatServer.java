@@ -2,11 +2,34 @@ package org.example;
 
 import org.example.controller.MessageController;
 import org.example.controller.UserController;
-import org.example.models.Message;
 import org.example.models.User;
+import org.example.persistence.FriendView;
+import org.example.persistence.MessagePipeline;
+import org.example.persistence.MessageRetention;
+import org.example.persistence.Repositories;
+import org.example.persistence.SecondLevelCache;
+import org.example.protocol.EncodedFrame;
+import org.example.protocol.Frame;
+import org.example.protocol.FrameStream;
+import org.example.protocol.Opcode;
+import org.example.server.BroadcastFanout;
+import org.example.server.ClientConnection;
+import org.example.server.CoalescingWriter;
+import org.example.server.NioEventLoopGroup;
+import org.example.server.OutboundQueue;
+import org.example.server.PresenceService;
+import org.example.server.ServerConfig;
+import org.example.server.ServerEngine;
+import org.example.server.ServerMetrics;
+import org.example.util.HibernateUtil;
 
 import java.io.*;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Collection;
+import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
@@ -15,24 +38,72 @@ import java.util.concurrent.ConcurrentHashMap;
  */
 public class ChatServer {
     private static final int PORT = 12345;
-    protected static ConcurrentHashMap<String, ClientHandler> activeClients = new ConcurrentHashMap<>();
+    protected static ConcurrentHashMap<String, ClientConnection> activeClients = new ConcurrentHashMap<>();
 
     /**
      * The main method to start the chat server.
+     * Pass {@code --engine=nio} to serve clients from a few selector loops,
+     * or {@code --engine=virtual} to give each client a virtual thread,
+     * instead of one platform thread per client. Run with
+     * {@code -Djdk.tracePinnedThreads=short} to report virtual threads that
+     * block while pinned to their carrier.
      *
      * @param args command-line arguments
      */
     public static void main(String[] args) {
-        try (ServerSocket serverSocket = new ServerSocket(PORT)) {
-            System.out.println("Chat server started on port " + PORT);
+        ServerConfig.applyArgs(args);
+        Repositories.enableServerComponents();
+        ServerEngine engine = ServerConfig.engine();
+        PresenceService.start();
+        System.out.println("Loaded " + UserController.warmFriendGraph() + " friendships.");
+        if (MessageRetention.start()) {
+            System.out.println("Archiving messages older than " + ServerConfig.get("messageRetentionDays", "") + " days.");
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            MessagePipeline.get().shutdown(ServerConfig.getInt("persistDrainMillis", 10_000));
+            MessageRetention.shutdown();
+            Repositories.messageStore().close();
+            PresenceService.shutdown();
+        }, "chat-shutdown"));
+
+        try (ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+            serverChannel.bind(new InetSocketAddress(PORT));
+            NioEventLoopGroup eventLoops = null;
+            if (engine == ServerEngine.NIO) {
+                int workerThreads = ServerConfig.virtualWorkers() ? 0 : ServerConfig.workerThreads();
+                eventLoops = new NioEventLoopGroup(ServerConfig.ioThreads(), workerThreads);
+            }
+            System.out.println("Chat server started on port " + PORT + " using the " + engine + " engine");
+            ServerMetrics.register("broadcast", BroadcastFanout::summary);
+            ServerMetrics.register("presence", PresenceService::summary);
+            ServerMetrics.register("persist", MessagePipeline.get()::summary);
+            ServerMetrics.register("db", HibernateUtil.getPoolMetrics()::summary);
+            ServerMetrics.register("userCache", Repositories.userCache()::summary);
+            ServerMetrics.register("l2cache", SecondLevelCache::summary);
+            ServerMetrics.register("friendGraph", Repositories.friendGraph()::summary);
+            ServerMetrics.register("retention", MessageRetention::summary);
+            if (Repositories.searchIndex() != null) {
+                ServerMetrics.register("search", Repositories.searchIndex()::summary);
+            }
+            ServerMetrics.startReporter();
 
             while (true) {
-                Socket clientSocket = serverSocket.accept();
-                System.out.println("New client connected: " + clientSocket.getInetAddress());
+                SocketChannel clientChannel = serverChannel.accept();
+                System.out.println("New client connected: " + clientChannel.socket().getInetAddress());
 
-                // Handle the client in a new thread
-                ClientHandler clientHandler = new ClientHandler(clientSocket);
-                new Thread(clientHandler).start();
+                switch (engine) {
+                    case NIO:
+                        eventLoops.register(clientChannel);
+                        break;
+                    case VIRTUAL:
+                    case THREADS:
+                    default:
+                        // Handle the client in a new thread
+                        Thread.Builder threads = engine == ServerEngine.VIRTUAL ? Thread.ofVirtual() : Thread.ofPlatform();
+                        ClientHandler clientHandler = new ClientHandler(clientChannel.socket(), threads);
+                        threads.start(clientHandler);
+                        break;
+                }
             }
         } catch (IOException e) {
             System.err.println("Error starting the server: " + e.getMessage());
@@ -41,37 +112,38 @@ public class ChatServer {
 
     /**
      * Broadcasts a message to all active clients except the sender.
+     * The message is encoded once and queued for the recipients in parallel.
      *
      * @param message the message to be broadcasted
      * @param sender  the sender of the message
      */
     static void broadcastMessage(String message, String sender) {
-        for (ClientHandler client : activeClients.values()) {
-            if (!client.getClientName().equals(sender)) {
-                client.sendMessage(message);
-            }
-        }
+        Frame frame = Frame.of(Opcode.BROADCAST, sender, message);
+        BroadcastFanout.fanOut(activeClients.values(), activeClients.get(sender), frame);
     }
 
     /**
      * Adds a client to the active clients list and sets their status to active.
      *
-     * @param name          the name of the client
-     * @param clientHandler the client handler for the client
+     * @param name             the name of the client
+     * @param clientConnection the connection of the client
      */
-    static void addClient(String name, ClientHandler clientHandler) {
-        activeClients.put(name, clientHandler);
-        UserController.setUserStatus(name, true);
+    static void addClient(String name, ClientConnection clientConnection) {
+        activeClients.put(name, clientConnection);
+        PresenceService.setOnline(name, true);
     }
 
     /**
      * Removes a client from the active clients list and sets their status to inactive.
+     * Nothing happens if the name is now used by a newer connection.
      *
-     * @param name the name of the client
+     * @param name             the name of the client
+     * @param clientConnection the connection of the client
      */
-    static void removeClient(String name) {
-        activeClients.remove(name);
-        UserController.setUserStatus(name, false);
+    static void removeClient(String name, ClientConnection clientConnection) {
+        if (name != null && activeClients.remove(name, clientConnection)) {
+            PresenceService.setOnline(name, false);
+        }
     }
 
     /**
@@ -82,29 +154,200 @@ public class ChatServer {
      * @param sender    the sender of the message
      */
     static void sendPrivateMessage(String recipient, String message, String sender) {
-        ClientHandler recipientHandler = activeClients.get(recipient);
-        if (recipientHandler != null) {
-            recipientHandler.sendMessage("/private " + sender + " " + message);
+        ClientConnection recipientConnection = activeClients.get(recipient);
+        if (recipientConnection != null) {
+            recipientConnection.send(Frame.of(Opcode.PRIVATE, sender, message));
+        }
+    }
+
+    /**
+     * Sends a frame to a client if it is connected. An offline client learns
+     * of the change from the database at its next login.
+     *
+     * @param name  the name of the client
+     * @param frame the frame to be sent
+     */
+    static void sendIfOnline(String name, Frame frame) {
+        ClientConnection connection = activeClients.get(name);
+        if (connection != null) {
+            connection.send(frame);
+        }
+    }
+
+    /**
+     * Returns the usernames of the friends of a client, from the friend graph
+     * once it is loaded, otherwise from the database.
+     *
+     * @param clientName the name of the client
+     * @return the usernames of the friends, or null if they could not be read
+     */
+    static Collection<String> friendNames(String clientName) {
+        User user = Repositories.friendGraph().isReady() ? Repositories.userCache().get(clientName) : null;
+        if (user != null) {
+            return Repositories.friendGraph().friendNamesOf(user.getId());
+        }
+        try {
+            return UserController.getFriends(clientName).keySet();
+        } catch (Exception e) {
+            e.printStackTrace();
+            return null;
         }
     }
+
+    /**
+     * Reads the friends of a client from the database and updates the friend graph with them.
+     *
+     * @param clientName the name of the client
+     * @return the friends of the client, or null if they could not be read
+     */
+    static List<FriendView> refreshFriends(String clientName) {
+        List<FriendView> friends = UserController.getFriendList(clientName);
+        User user = Repositories.userCache().get(clientName);
+        if (friends != null && user != null) {
+            Repositories.friendGraph().replaceFriends(user.getId(), clientName, friends);
+        }
+        return friends;
+    }
+
+    /**
+     * Notifies the online friends of a client that just logged in,
+     * and adds the client to the active clients list.
+     *
+     * @param client the client that logged in
+     */
+    public static void clientJoined(ClientConnection client) {
+        String clientName = client.getClientName();
+        Collection<String> friends = friendNames(clientName);
+        if (friends != null) {
+            EncodedFrame active = EncodedFrame.of(Frame.of(Opcode.ACTIVE, clientName));
+            for (String friend : friends) {
+                ClientConnection friendConnection = activeClients.get(friend);
+                if (friendConnection != null) {
+                    friendConnection.send(active);
+                }
+            }
+        }
+
+        if (clientName != null) {
+            addClient(clientName, client);
+            System.out.println(clientName + " joined the chat.");
+        }
+    }
+
+    /**
+     * Handles one command sent by a logged-in client.
+     *
+     * @param client the client that sent the command
+     * @param frame  the command sent by the client
+     * @return false if the client asked to leave, true otherwise
+     */
+    public static boolean handleCommand(ClientConnection client, Frame frame) {
+        String clientName = client.getClientName();
+        switch (frame.getOpcode()) {
+            case QUIT:
+                return false;
+            case PRIVATE:
+                if (frame.getTarget() != null && frame.getBody() != null) {
+                    String recipient = frame.getTarget();
+                    String privateMessage = frame.getBody();
+                    sendPrivateMessage(recipient, privateMessage, clientName);
+                    User sender = Repositories.userCache().get(clientName);
+                    User recipientUser = Repositories.userCache().get(recipient);
+                    if (sender == null || recipientUser == null) {
+                        client.send(Frame.of(Opcode.NOTICE, null, "Unknown user " + recipient));
+                        break;
+                    }
+                    // the NOTICE is sent from the writer thread, the command loop does not wait for the commit
+                    MessageController.saveMessage(sender.getId(), recipientUser.getId(), privateMessage)
+                            .thenAccept(saved -> {
+                                if (!saved) {
+                                    client.send(Frame.of(Opcode.NOTICE, null, "Your message to " + recipient + " could not be saved."));
+                                }
+                            });
+                } else {
+                    client.send(Frame.of(Opcode.NOTICE, null, "Invalid command. Use /msg <recipient> <message>"));
+                }
+                break;
+            case FRIENDS:
+                // Update the friend list when a new friend is added
+                List<FriendView> friendUser = refreshFriends(clientName);
+                if (friendUser != null) {
+                    for (FriendView friend : friendUser) {
+                        client.send(Frame.friend(friend.getUsername(), PresenceService.isOnline(friend.getUsername())));
+                    }
+                }
+                break;
+            case FRIEND_ACCEPTED:
+                if (frame.getTarget() != null) {
+                    // the client changed the friendship itself, the graph learns it from the database
+                    refreshFriends(clientName);
+                    sendIfOnline(frame.getTarget(), Frame.of(Opcode.FRIEND_ACCEPTED, clientName));
+                }
+                break;
+            case DELETE_FRIEND:
+                if (frame.getTarget() != null) {
+                    refreshFriends(clientName);
+                    sendIfOnline(frame.getTarget(), Frame.of(Opcode.DELETE_FRIEND, clientName));
+                }
+                break;
+            case BROADCAST:
+                // Broadcast to all clients
+                broadcastMessage(frame.getBody(), clientName);
+                break;
+            default:
+                client.send(Frame.of(Opcode.NOTICE, null, "Unsupported command " + frame.getOpcode()));
+                break;
+        }
+        return true;
+    }
+
+    /**
+     * Notifies the online friends of a client that is leaving,
+     * and removes the client from the active clients list.
+     *
+     * @param client the client that is leaving
+     */
+    public static void clientLeft(ClientConnection client) {
+        String clientName = client.getClientName();
+        try {
+            Collection<String> friends = friendNames(clientName);
+            assert friends != null;
+            EncodedFrame exit = EncodedFrame.of(Frame.of(Opcode.EXIT, clientName));
+            for (String friend : friends) {
+                ClientConnection friendConnection = activeClients.get(friend);
+                if (friendConnection != null) {
+                    friendConnection.send(exit);
+                }
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        removeClient(clientName, client);
+    }
 }
 
 /**
- * ClientHandler handles the communication with a single client.
+ * ClientHandler handles the communication with a single client
+ * on its own thread, blocking on the socket streams.
+ * Frames sent to the client are queued and written by a second thread,
+ * so a slow client never blocks the thread that routes a message to it.
  */
-class ClientHandler implements Runnable {
+class ClientHandler implements Runnable, ClientConnection {
     private Socket socket;
-    private BufferedReader input;
-    private PrintWriter output;
+    private final Thread.Builder threads;
+    private volatile FrameStream stream;
+    private final OutboundQueue outbound = OutboundQueue.fromConfig();
     private String clientName;
 
     /**
      * Constructs a new ClientHandler for the specified socket.
      *
-     * @param socket the socket for the client connection
+     * @param socket  the socket for the client connection
+     * @param threads builds the thread that writes to the client
      */
-    public ClientHandler(Socket socket) {
+    public ClientHandler(Socket socket, Thread.Builder threads) {
         this.socket = socket;
+        this.threads = threads;
     }
 
     /**
@@ -112,6 +355,7 @@ class ClientHandler implements Runnable {
      *
      * @return the name of the client
      */
+    @Override
     public String getClientName() {
         return clientName;
     }
@@ -119,113 +363,89 @@ class ClientHandler implements Runnable {
     @Override
     public void run() {
         try {
-            input = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-            output = new PrintWriter(socket.getOutputStream(), true);
+            stream = FrameStream.accept(socket);
+            threads.start(this::writeFrames);
 
-            clientName = input.readLine();
-            ConcurrentHashMap<String, Boolean> friends = null;
-            try {
-                friends = UserController.getFriends(clientName);
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
-            if (friends != null) {
-                for (String friend : friends.keySet()) {
-                    ClientHandler friendHandler = ChatServer.activeClients.get(friend);
-                    if (friendHandler != null) {
-                        friendHandler.sendMessage("/active" + " : " + clientName);
-                    }
-                }
-            }
+            Frame login = stream.read();
+            clientName = login == null ? null : login.getTarget();
+            ChatServer.clientJoined(this);
 
             if (clientName != null) {
-                ChatServer.addClient(clientName, this);
-                System.out.println(clientName + " joined the chat.");
-
-                // Read messages from this client and process them
-                String message;
-                while ((message = input.readLine()) != null) {
-                    if (message.equalsIgnoreCase("exit")) {
+                // Read frames from this client and process them
+                Frame frame;
+                while ((frame = stream.read()) != null) {
+                    if (!ChatServer.handleCommand(this, frame)) {
                         break;
                     }
-
-                    if (message.startsWith("/msg ")) {
-                        // Parse private message
-                        String[] parts = message.split(" ", 3);
-                        if (parts.length >= 3) {
-                            String recipient = parts[1];
-                            String privateMessage = parts[2];
-                            ChatServer.sendPrivateMessage(recipient, privateMessage, clientName);
-                            Message message1 = new Message();
-                            message1.setContent(privateMessage);
-                            User sender = UserController.getUserByUsername(clientName);
-                            User recipientUser = UserController.getUserByUsername(recipient);
-                            message1.setSender(sender);
-                            message1.setRecipient(recipientUser);
-                            MessageController.saveMessage(message1);
-                        } else {
-                            output.println("Invalid command. Use /msg <recipient> <message>");
-                        }
-                    } else if (message.startsWith("/friends")) {
-                        // Update the friend list when a new friend is added
-                        ConcurrentHashMap<String, Boolean> friendUser = null;
-                        try {
-                            friendUser = UserController.getFriends(clientName);
-                        } catch (Exception e) {
-                            e.printStackTrace();
-                        }
-                        if (friendUser != null) {
-                            for (String friend : friendUser.keySet()) {
-                                output.println("/friends" + " " + friend + " " + friendUser.get(friend));
-                            }
-                        }
-                    } else if (message.startsWith("/friendAccepted")) {
-                        String[] parts = message.split(":", 2);
-                        if (parts.length >= 2) {
-                            String friend = parts[1];
-                            ChatServer.activeClients.get(friend).sendMessage("/friendAccepted" + " " + clientName);
-                        }
-                    } else if (message.startsWith("/deleteFriend")) {
-                        String[] parts = message.split(":", 2);
-                        if (parts.length >= 2) {
-                            String friend = parts[1];
-                            ChatServer.activeClients.get(friend).sendMessage("/deleteFriend" + ":" + clientName);
-                        }
-                    } else {
-                        // Broadcast to all clients
-                        ChatServer.broadcastMessage(clientName + ": " + message, clientName);
-                    }
                 }
             }
         } catch (IOException e) {
             System.err.println("Error handling client: " + e.getMessage());
         } finally {
+            ChatServer.clientLeft(this);
+            outbound.close();
             try {
-                ConcurrentHashMap<String, Boolean> friends = UserController.getFriends(clientName);
-                assert friends != null;
-                for (String friend : friends.keySet()) {
-                    ClientHandler friendHandler = ChatServer.activeClients.get(friend);
-                    if (friendHandler != null) {
-                        friendHandler.sendMessage("/exit" + " : " + clientName);
-                    }
-                }
-                ChatServer.removeClient(clientName);
                 socket.close();
             } catch (IOException e) {
                 System.err.println("Error closing client socket: " + e.getMessage());
-            } catch (Exception e) {
-                e.printStackTrace();
             }
             System.out.println(clientName + " disconnected.");
         }
     }
 
     /**
-     * Sends a message to the client.
+     * Writes queued frames to the client until the connection closes,
+     * coalescing frames queued close together into a single flush.
+     */
+    private void writeFrames() {
+        CoalescingWriter writer = CoalescingWriter.fromConfig(outbound);
+        try {
+            List<ByteBuffer> batch;
+            while ((batch = writer.nextBatch()) != null) {
+                stream.writeEncoded(batch);
+            }
+        } catch (IOException e) {
+            System.err.println("Error sending to " + clientName + ": " + e.getMessage());
+            disconnect();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Queues a frame for the client. If the client's queue overflows and the
+     * policy says so, the client is disconnected.
      *
-     * @param message the message to be sent
+     * @param frame the frame to be sent
      */
-    public void sendMessage(String message) {
-        output.println(message);
+    @Override
+    public void send(EncodedFrame frame) {
+        FrameStream stream = this.stream;
+        if (stream == null) {
+            return;
+        }
+        ByteBuffer encoded;
+        try {
+            encoded = frame.forClient(stream.getFormat());
+        } catch (IllegalArgumentException e) {
+            System.err.println("Frame to " + clientName + " not sent: " + e.getMessage());
+            return;
+        }
+        if (!outbound.offer(encoded)) {
+            System.err.println("Outbound queue of " + clientName + " overflowed, disconnecting.");
+            disconnect();
+        }
+    }
+
+    /**
+     * Stops writing and closes the socket, which ends the reading loop.
+     */
+    private void disconnect() {
+        outbound.close();
+        try {
+            socket.close();
+        } catch (IOException e) {
+            System.err.println("Error closing client socket: " + e.getMessage());
+        }
     }
 }
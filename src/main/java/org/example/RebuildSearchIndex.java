@@ -0,0 +1,83 @@
+package org.example;
+
+import org.example.persistence.MessageSearchIndex;
+import org.example.persistence.MessageStore;
+import org.example.persistence.MessageView;
+import org.example.persistence.Repositories;
+import org.example.server.ServerConfig;
+import org.example.util.HibernateUtil;
+import org.example.util.IoThrottle;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Rebuilds the message search index from the whole message history, for a
+ * history saved before the index was turned on or an index that was lost or
+ * damaged. Run it with the server stopped and the server's settings, as
+ * {@code --key=value} arguments or {@code chat.} system properties:
+ * <pre>
+ * mvn compile exec:java -Dexec.mainClass=org.example.RebuildSearchIndex -Dexec.args="--searchIndexDir=search-index"
+ * </pre>
+ * The new index is built beside {@code chat.searchIndexDir} and replaces it
+ * only once complete, so a failed rebuild leaves the old index in place.
+ */
+public class RebuildSearchIndex {
+
+    private static final int BATCH_SIZE = 10_000;
+
+    public static void main(String[] args) throws IOException {
+        ServerConfig.applyArgs(args);
+        // the store is read on its own; the index in place must stay closed until it is replaced
+        System.setProperty("chat.searchIndex", "false");
+        Repositories.enableServerComponents();
+        Path directory = Repositories.searchIndexDirectory().toAbsolutePath();
+        Path rebuilt = directory.resolveSibling(directory.getFileName() + ".rebuild");
+        Path old = directory.resolveSibling(directory.getFileName() + ".old");
+        deleteDirectory(rebuilt);
+        deleteDirectory(old);
+
+        long start = System.nanoTime();
+        MessageStore store = Repositories.messageStore();
+        MessageSearchIndex index = new MessageSearchIndex(rebuilt,
+                ServerConfig.getInt("searchFlushDocs", 100_000), new IoThrottle(0));
+        List<MessageView> batch = new ArrayList<>(BATCH_SIZE);
+        store.scan(message -> {
+            batch.add(message);
+            if (batch.size() == BATCH_SIZE) {
+                index.add(batch);
+                batch.clear();
+            }
+        });
+        index.add(batch);
+        int count = index.docCount();
+        index.flush();
+        index.close();
+        store.close();
+
+        if (Files.exists(directory)) {
+            Files.move(directory, old);
+        }
+        Files.move(rebuilt, directory);
+        deleteDirectory(old);
+        System.out.printf("Indexed %d messages into %s in %.1fs%n", count, directory, (System.nanoTime() - start) / 1e9);
+        HibernateUtil.shutdown();
+        System.exit(0);
+    }
+
+    private static void deleteDirectory(Path directory) throws IOException {
+        if (!Files.exists(directory)) {
+            return;
+        }
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+}
@@ -7,85 +7,56 @@
 package org.example.controller;
 
 import org.example.models.User;
-import org.example.util.HibernateUtil;
-import org.hibernate.Session;
-import org.hibernate.Transaction;
+import org.example.persistence.Repositories;
+import org.example.persistence.SecondLevelCache;
 
 /**
  * FriendController is responsible for handling operations that manage 
- * add and remove friend relationships between User entities. It utilizes 
- * Hibernate sessions and transactions to persist these changes to the database.
+ * add and remove friend relationships between User entities. Both sides
+ * of a friendship are written in one transaction that touches only their
+ * user_friends rows, so the friend lists of the users passed in are not
+ * loaded or changed.
  */
 public class FriendController extends UserController {
 
     /**
-     * Adds a friendship between two users. It updates both the primary 
-     * user's and the friend's friend lists, and commits the changes 
-     * to the database.
+     * Adds a friendship between two users. The user_friends rows of both
+     * sides are inserted in one unit of work; neither user is loaded.
+     * Adding an existing friendship changes nothing.
      *
      * @param user   the user initiating the friendship
      * @param friend the user to be added as a friend
      */
     public static void  addFriend(User user, User friend) {
-
-        Transaction transaction = null;
-        Session session = null;
         try {
-            session = HibernateUtil.getSessionFactory().openSession();
-            transaction = session.beginTransaction();
-
-            user.getFriends().add(friend);
-            friend.getFriends().add(user);
-
-            updateUser(user);
-            updateUser(friend);
-
-            transaction.commit();
-
+            Repositories.users().setFriendship(user.getId(), friend.getId(), true);
+            Repositories.friendGraph().addFriendship(user.getId(), user.getUsername(), friend.getId(), friend.getUsername());
         } catch (Exception e) {
-            if (transaction != null) {
-                transaction.rollback();
-            }
             e.printStackTrace();
         } finally {
-            if (session != null) {
-                session.close();
-            }
+            Repositories.userCache().invalidate(user.getUsername());
+            Repositories.userCache().invalidate(friend.getUsername());
+            SecondLevelCache.evictFriendship(user, friend);
         }
     }
 
     /**
-     * Removes a friendship relationship between two users. It updates both
-     * the primary user's and the friend's friend lists by removing each one
-     * from the other's list, then persists these changes to the database.
+     * Removes a friendship relationship between two users. The user_friends
+     * rows of both sides are deleted in one unit of work; neither user is loaded.
      *
      * @param user   the user initiating the friend removal
      * @param friend the user to be removed as a friend
      */
     public static void deleteFriend(User user, User friend) {
-        Transaction transaction = null;
-        Session session = null;
         try {
-            session = HibernateUtil.getSessionFactory().openSession();
-            transaction = session.beginTransaction();
-
-            user.getFriends().remove(friend);
-            friend.getFriends().remove(user);
-
-            updateUser(user);
-            updateUser(friend);
-
-            transaction.commit();
-
+            Repositories.users().setFriendship(user.getId(), friend.getId(), false);
+            Repositories.friendGraph().removeFriendship(user.getId(), friend.getId());
         } catch (Exception e) {
-            if (transaction != null) {
-                transaction.rollback();
-            }
             e.printStackTrace();
         } finally {
-            if (session != null) {
-                session.close();
-            }
+            Repositories.userCache().invalidate(user.getUsername());
+            Repositories.userCache().invalidate(friend.getUsername());
+            SecondLevelCache.evictFriendship(user, friend);
         }
     }
-}
\ No newline at end of file
+}
@@ -1,13 +1,12 @@
 package org.example.controller;
 
 import org.example.models.FriendRequest;
-import org.example.models.Status;
 import org.example.models.User;
-import org.example.util.HibernateUtil;
-import org.hibernate.Session;
-import org.hibernate.Transaction;
+import org.example.persistence.FriendRequestRepository;
+import org.example.persistence.FriendRequestResult;
+import org.example.persistence.Repositories;
+import org.example.persistence.SecondLevelCache;
 
-import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -16,6 +15,8 @@ import java.util.List;
  */
 public class FriendRequestController {
 
+    private static final FriendRequestRepository friendRequests = Repositories.friendRequests();
+
     /**
      * Sends a friend request from one user to another.
      *
@@ -23,39 +24,26 @@ public class FriendRequestController {
      * @throws Exception if a friend request has already been sent
      */
     public static void sendFriendRequest(FriendRequest friendRequest) throws Exception {
-        Transaction transaction = null;
-        Session session = null;
-        try {
-
-
-            session = HibernateUtil.getSessionFactory().openSession();
-            transaction = session.beginTransaction();
-
-
-
-            List<FriendRequest> f =   session.createQuery("from FriendRequest where sender = :sender and recipient = :recipient", FriendRequest.class)
-                    .setParameter("sender", friendRequest.getSender())
-                    .setParameter("recipient", friendRequest.getRecipient())
-                    .stream().toList();
-            if(!f.isEmpty()){
-                throw new Exception("Friend request already sent");
-            }
-
-            session.persist(friendRequest);
+        FriendRequestResult result = sendFriendRequest(
+                friendRequest.getSender().getId(), friendRequest.getRecipient().getId());
+        if (result == FriendRequestResult.ALREADY_SENT) {
+            throw new Exception("Friend request already sent");
+        }
+    }
 
-            transaction.commit();
+    /**
+     * Sends a friend request from one user to another in a single statement.
+     *
+     * @param senderId    the ID of the user sending the request
+     * @param recipientId the ID of the user receiving the request
+     * @return SENT, ALREADY_SENT if the request was sent before, or FAILED if it could not be stored
+     */
+    public static FriendRequestResult sendFriendRequest(long senderId, long recipientId) {
+        try {
+            return friendRequests.saveIfAbsent(senderId, recipientId);
         } catch (Exception e) {
-            if (e.getMessage().equals("Friend request already sent")) {
-                throw new Exception("Friend request already sent");
-            }
-            if (transaction != null) {
-                transaction.rollback();
-            }
             e.printStackTrace();
-        } finally {
-            if (session != null) {
-                session.close();
-            }
+            return FriendRequestResult.FAILED;
         }
     }
 
@@ -65,24 +53,10 @@ public class FriendRequestController {
      * @param friendRequest the friend request to be deleted
      */
     public static void deleteFriendRequest(FriendRequest friendRequest) {
-        Transaction transaction = null;
-        Session session = null;
         try {
-            session = HibernateUtil.getSessionFactory().openSession();
-            transaction = session.beginTransaction();
-
-            session.remove(friendRequest);
-
-            transaction.commit();
+            friendRequests.delete(friendRequest);
         } catch (Exception e) {
-            if (transaction != null) {
-                transaction.rollback();
-            }
             e.printStackTrace();
-        } finally {
-            if (session != null) {
-                session.close();
-            }
         }
     }
 
@@ -93,23 +67,12 @@ public class FriendRequestController {
      * @return a list of usernames who have sent friend requests
      */
     public static List<String> getFriendRequests(User user) {
-        List<String> friendRequestNames = null;
-        try (Session session = HibernateUtil.getSessionFactory().openSession()) {
-
-            List<FriendRequest>  friendRequests = session.createQuery("from FriendRequest where recipient = :user", FriendRequest.class)
-                    .setParameter("user", user)
-                    .list();
-
-
-            friendRequestNames = new ArrayList<>();
-            for (FriendRequest friendRequest : friendRequests) {
-                friendRequestNames.add(friendRequest.getSender().getUsername());
-            }
-
+        try {
+            return friendRequests.findSenderNames(user);
         } catch (Exception e) {
             e.printStackTrace();
+            return null;
         }
-        return friendRequestNames;
     }
 
     /**
@@ -118,30 +81,44 @@ public class FriendRequestController {
      * @param friendRequest the friend request to be accepted
      */
     public static void acceptFriendRequest(FriendRequest friendRequest) {
-        Transaction transaction = null;
-        Session session = null;
         try {
-            session = HibernateUtil.getSessionFactory().openSession();
-            transaction = session.beginTransaction();
-            if (friendRequest.getIsAccepted() == Status.PENDING) {
-                friendRequest.setAccepted();
-            }
-
-            User user = friendRequest.getSender();
-            User friend = friendRequest.getRecipient();
-            FriendController.addFriend(user, friend);
-
-            session.remove(friendRequest);
-
-            transaction.commit();
+            friendRequests.accept(friendRequest);
+            Repositories.friendGraph().addFriendship(
+                    friendRequest.getSender().getId(), friendRequest.getSender().getUsername(),
+                    friendRequest.getRecipient().getId(), friendRequest.getRecipient().getUsername());
         } catch (Exception e) {
-            if (transaction != null) {
-                transaction.rollback();
+            e.printStackTrace();
+        } finally {
+            Repositories.userCache().invalidate(friendRequest.getSender().getUsername());
+            Repositories.userCache().invalidate(friendRequest.getRecipient().getUsername());
+            SecondLevelCache.evictFriendship(friendRequest.getSender(), friendRequest.getRecipient());
+        }
+    }
+
+    /**
+     * Accepts many friend requests at once: every friendship is created and
+     * every request deleted in one transaction, or none is.
+     *
+     * @param requests the friend requests to be accepted
+     * @return true if the requests were accepted, false if the transaction failed
+     */
+    public static boolean acceptFriendRequests(List<FriendRequest> requests) {
+        try {
+            friendRequests.acceptAll(requests);
+            for (FriendRequest friendRequest : requests) {
+                Repositories.friendGraph().addFriendship(
+                        friendRequest.getSender().getId(), friendRequest.getSender().getUsername(),
+                        friendRequest.getRecipient().getId(), friendRequest.getRecipient().getUsername());
             }
+            return true;
+        } catch (Exception e) {
             e.printStackTrace();
+            return false;
         } finally {
-            if (session != null) {
-                session.close();
+            for (FriendRequest friendRequest : requests) {
+                Repositories.userCache().invalidate(friendRequest.getSender().getUsername());
+                Repositories.userCache().invalidate(friendRequest.getRecipient().getUsername());
+                SecondLevelCache.evictFriendship(friendRequest.getSender(), friendRequest.getRecipient());
             }
         }
     }
@@ -154,17 +131,11 @@ public class FriendRequestController {
      * @return the friend request if found, otherwise null
      */
     public static FriendRequest getFriendRequest(User sender, User recipient) {
-        FriendRequest friendRequest = null;
-        try (Session session = HibernateUtil.getSessionFactory().openSession()) {
-
-            friendRequest = session.createQuery("from FriendRequest where sender = :sender and recipient = :recipient", FriendRequest.class)
-                    .setParameter("sender", sender)
-                    .setParameter("recipient", recipient)
-                    .uniqueResult();
-
+        try {
+            return friendRequests.find(sender, recipient);
         } catch (Exception e) {
             e.printStackTrace();
+            return null;
         }
-        return friendRequest;
     }
-}
\ No newline at end of file
+}
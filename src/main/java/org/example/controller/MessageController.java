@@ -2,46 +2,71 @@ package org.example.controller;
 
 import org.example.models.Message;
 import org.example.models.User;
-import org.example.util.HibernateUtil;
-import org.hibernate.Session;
-import org.hibernate.Transaction;
+import org.example.persistence.MessagePipeline;
+import org.example.persistence.MessageRepository;
+import org.example.persistence.MessageSearchIndex;
+import org.example.persistence.MessageStore;
+import org.example.persistence.MessageView;
+import org.example.persistence.NewMessage;
+import org.example.persistence.Repositories;
+import org.example.persistence.SearchHit;
 
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * MessageController handles the operations related to messages
- * such as saving, updating, deleting messages, and retrieving messages.
+ * such as saving, updating, deleting messages, and retrieving and searching messages.
+ * The history is kept by the configured {@link MessageStore}; updating and
+ * deleting message entities always goes to the database.
+ * Every operation is safe to call from any thread.
  */
 public class MessageController {
 
-    private static Transaction transaction = null;
-    private static Session session = null;
+    private static final MessageRepository messages = Repositories.messages();
+    private static final MessageStore store = Repositories.messageStore();
 
     /**
-     * Saves a message to the database with the current timestamp.
+     * Saves a message with the current timestamp, appending it to the message store.
      *
      * @param message the message to be saved
      */
     public static void saveMessage(Message message) {
         try {
-
-            Date currentDate = new Date();
-            message.setTimestamp(currentDate);
-            session = HibernateUtil.getSessionFactory().openSession();
-            transaction = session.beginTransaction();
-            session.persist(message);
-            transaction.commit();
+            message.setTimestamp(new Date());
+            store.append(List.of(new NewMessage(message.getSender().getId(), message.getRecipient().getId(),
+                    message.getContent(), message.getTimestamp())));
         } catch (Exception e) {
-            if (transaction != null) {
-                transaction.rollback();
-            }
             e.printStackTrace();
-        } finally {
-            session.close();
         }
     }
 
+    /**
+     * Saves a message between two users known by their IDs, with the current timestamp.
+     * The users are not loaded; the message goes through the {@link MessagePipeline},
+     * where it shares a transaction and a JDBC batch with the messages saved around it.
+     * The caller does not wait for the write; it reacts to the returned future instead.
+     *
+     * @param senderId    the ID of the sender
+     * @param recipientId the ID of the recipient
+     * @param content     the content of the message
+     * @return a future completing with true once the message counts as saved, or
+     * with false if it could not be saved; it never completes exceptionally
+     */
+    public static CompletableFuture<Boolean> saveMessage(long senderId, long recipientId, String content) {
+        return MessagePipeline.get().submit(senderId, recipientId, content).handle((result, e) -> {
+            if (e != null) {
+                e.printStackTrace();
+                return false;
+            }
+            return true;
+        });
+    }
+
     /**
      * Updates an existing message in the database.
      *
@@ -49,17 +74,9 @@ public class MessageController {
      */
     public static void updateMessage(Message message) {
         try {
-            session = HibernateUtil.getSessionFactory().openSession();
-            transaction = session.beginTransaction();
-            session.merge(message);
-            transaction.commit();
+            messages.update(message);
         } catch (Exception e) {
-            if (transaction != null) {
-                transaction.rollback();
-            }
             e.printStackTrace();
-        } finally {
-            session.close();
         }
     }
 
@@ -70,17 +87,9 @@ public class MessageController {
      */
     public static void deleteMessage(Message message) {
         try {
-            session = HibernateUtil.getSessionFactory().openSession();
-            transaction = session.beginTransaction();
-            session.remove(message);
-            transaction.commit();
+            messages.delete(message);
         } catch (Exception e) {
-            if (transaction != null) {
-                transaction.rollback();
-            }
             e.printStackTrace();
-        } finally {
-            session.close();
         }
     }
 
@@ -93,63 +102,115 @@ public class MessageController {
      */
     public static int getUnreadMessagesCount(String sender, String recipient) {
         try {
-            session = HibernateUtil.getSessionFactory().openSession();
-            transaction = session.beginTransaction();
             User user = UserController.getUserByUsername(sender);
             User friend = UserController.getUserByUsername(recipient);
-            int count = session.createQuery("from Message where sender = :sender and recipient = :recipient and isRead = false", Message.class)
-                    .setParameter("sender", friend)
-                    .setParameter("recipient", user)
-                    .getResultList().size();
-            transaction.commit();
-            return count;
-
-        } catch (Exception e) {
-            if (transaction != null) {
-                transaction.rollback();
+            if (user == null || friend == null) {
+                return 0;
             }
+            return store.countUnread(friend.getId(), user.getId());
+        } catch (Exception e) {
             e.printStackTrace();
             return 0;
-        } finally {
-            session.close();
         }
     }
 
     /**
-     * Retrieves a list of messages between two users.
+     * Retrieves the count of unread messages a user has from each of their friends, with one query.
      *
-     * @param sender the ID of the sender
-     * @param recipient the ID of the recipient
-     * @return a list of messages between the two users
+     * @param recipientId the ID of the user who received the messages
+     * @return the count of unread messages by sender username; senders without unread messages are left out
      */
-    public static List<Message> getMessages(long sender, long recipient) {
+    public static Map<String, Integer> getUnreadMessagesCounts(long recipientId) {
         try {
-            session = HibernateUtil.getSessionFactory().openSession();
-            transaction = session.beginTransaction();
+            Map<Long, Integer> bySenderId = store.countUnreadBySender(recipientId);
+            Map<String, Integer> counts = new HashMap<>();
+            if (bySenderId.isEmpty()) {
+                return counts;
+            }
+            Map<Long, String> usernames = Repositories.users().findUsernames(bySenderId.keySet());
+            bySenderId.forEach((senderId, count) -> {
+                String username = usernames.get(senderId);
+                if (username != null) {
+                    counts.put(username, count);
+                }
+            });
+            return counts;
+        } catch (Exception e) {
+            e.printStackTrace();
+            return new HashMap<>();
+        }
+    }
 
-            List<Message> messages = session.createQuery("from Message where sender.id = :sender and recipient.id = :recipient or sender.id = :recipient and recipient.id = :sender", Message.class)
-                    .setParameter("sender", sender)
-                    .setParameter("recipient", recipient)
-                    .getResultList();
-            List<Message> messages2 = session.createQuery("from Message where sender.id = :recipient and recipient.id = :sender", Message.class)
-                    .setParameter("sender", sender)
-                    .setParameter("recipient", recipient)
-                    .getResultList();
+    /**
+     * Retrieves a page of the messages between two users: the newest ones
+     * sent before a cursor, oldest first.
+     *
+     * @param userId  the ID of one user
+     * @param otherId the ID of the other user
+     * @param before  the oldest message already shown, or null for the newest messages
+     * @param limit   the largest number of messages returned
+     * @return the page of messages, oldest first
+     */
+    public static List<MessageView> getMessagesPage(long userId, long otherId, MessageView before, int limit) {
+        try {
+            return store.read(userId, otherId, before == null ? Long.MAX_VALUE : before.getSeq(), limit);
+        } catch (Exception e) {
+            e.printStackTrace();
+            return new ArrayList<>();
+        }
+    }
 
-            messages.addAll(messages2);
+    /**
+     * Retrieves a list of messages between two users, including those
+     * retention moved to the message archive.
+     *
+     * @param sender the ID of the sender
+     * @param recipient the ID of the recipient
+     * @return a list of messages between the two users, oldest first
+     */
+    public static List<MessageView> getMessages(long sender, long recipient) {
+        try {
+            return store.read(sender, recipient, Long.MAX_VALUE, Integer.MAX_VALUE);
+        } catch (Exception e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
 
-            messages.sort((m1, m2) -> m1.getTimestamp().compareTo(m2.getTimestamp()));
+    /**
+     * Searches the messages a user sent or received for every word of a query.
+     *
+     * @param userId the ID of the user
+     * @param query  the words to look for
+     * @param limit  the largest number of messages returned
+     * @return the messages found, most relevant first; empty if the search index is off
+     */
+    public static List<SearchHit> searchMessages(long userId, String query, int limit) {
+        try {
+            MessageSearchIndex index = Repositories.searchIndex();
+            return index == null ? new ArrayList<>() : index.search(userId, query, limit);
+        } catch (Exception e) {
+            e.printStackTrace();
+            return new ArrayList<>();
+        }
+    }
 
-            transaction.commit();
-            return messages;
+    /**
+     * Searches the messages between two users for every word of a query.
+     *
+     * @param userId  the ID of one user
+     * @param otherId the ID of the other user
+     * @param query   the words to look for
+     * @param limit   the largest number of messages returned
+     * @return the messages found, most relevant first; empty if the search index is off
+     */
+    public static List<SearchHit> searchConversation(long userId, long otherId, String query, int limit) {
+        try {
+            MessageSearchIndex index = Repositories.searchIndex();
+            return index == null ? new ArrayList<>() : index.searchConversation(userId, otherId, query, limit);
         } catch (Exception e) {
-            if (transaction != null) {
-                transaction.rollback();
-            }
             e.printStackTrace();
-            return null;
-        } finally {
-            session.close();
+            return new ArrayList<>();
         }
     }
 }
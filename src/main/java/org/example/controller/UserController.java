@@ -1,19 +1,22 @@
 package org.example.controller;
 
 import org.example.models.User;
-import org.example.util.HibernateUtil;
-import org.hibernate.Session;
-import org.hibernate.Transaction;
+import org.example.persistence.FriendView;
+import org.example.persistence.Repositories;
+import org.example.persistence.UserRepository;
+
+import java.util.Collection;
+import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.stream.Collectors;
 
 /**
  * UserController handles the operations related to user management
  * such as signup, update, delete, and retrieving user information.
+ * Every operation runs in a session of its own, so it is safe to call from any thread.
  */
 public class UserController {
-    private static Transaction transaction = null;
-    private static Session session = null;
+
+    private static final UserRepository users = Repositories.users();
 
     /**
      * Signs up a new user by saving their information to the database.
@@ -22,22 +25,13 @@ public class UserController {
      */
     public static void signup(User user) {
         try {
-            session = HibernateUtil.getSessionFactory().openSession();
-            transaction = session.beginTransaction();
-            session.persist(user);
-            transaction.commit();
+            users.save(user);
         } catch (Exception e) {
-            if (transaction != null) {
-                transaction.rollback();
-            }
-            if (e.getMessage().contains("UNIQUE KEY")) {
+            if (String.valueOf(e.getMessage()).contains("UNIQUE KEY")) {
                 System.out.println("User already exists");
             } else {
                 e.printStackTrace();
             }
-        } finally {
-
-            session.close();
         }
     }
 
@@ -48,17 +42,11 @@ public class UserController {
      */
     public static void updateUser(User user) {
         try {
-            session = HibernateUtil.getSessionFactory().openSession();
-            transaction = session.beginTransaction();
-            session.merge(user);
-            transaction.commit();
+            users.update(user);
         } catch (Exception e) {
-            if (transaction != null) {
-                transaction.rollback();
-            }
             e.printStackTrace();
         } finally {
-            session.close();
+            Repositories.userCache().invalidate(user.getUsername());
         }
     }
 
@@ -69,17 +57,15 @@ public class UserController {
      */
     public static void deleteUser(User user) {
         try {
-            session = HibernateUtil.getSessionFactory().openSession();
-            transaction = session.beginTransaction();
-            session.remove(user);
-            transaction.commit();
-        } catch (Exception e) {
-            if (transaction != null) {
-                transaction.rollback();
+            users.delete(user);
+            Repositories.friendGraph().removeUser(user.getId());
+            if (Repositories.searchIndex() != null) {
+                Repositories.searchIndex().removeUser(user.getId());
             }
+        } catch (Exception e) {
             e.printStackTrace();
         } finally {
-            session.close();
+            Repositories.userCache().invalidate(user.getUsername());
         }
     }
 
@@ -90,18 +76,12 @@ public class UserController {
      * @return the user if found, otherwise null
      */
     public static User getUserByUsername(String username) {
-        User user = null;
         try {
-            session = HibernateUtil.getSessionFactory().openSession();
-            user = session.createQuery("from User where username = :username", User.class)
-                    .setParameter("username", username)
-                    .uniqueResult();
+            return users.findByUsername(username);
         } catch (Exception e) {
             e.printStackTrace();
-        } finally {
-            session.close();
+            return null;
         }
-        return user;
     }
 
     /**
@@ -112,20 +92,12 @@ public class UserController {
      * @return the user if the credentials match, otherwise null
      */
     public static User Loing(String username, String password) {
-        User user = null;
         try {
-            session = HibernateUtil.getSessionFactory().openSession();
-            user = session.createQuery("from User where username = :username and password = :password", User.class)
-                    .setParameter("username", username)
-                    .setParameter("password", password)
-                    .uniqueResult();
-
+            return users.findByCredentials(username, password);
         } catch (Exception e) {
             e.printStackTrace();
-        } finally {
-            session.close();
+            return null;
         }
-        return user;
     }
 
     /**
@@ -136,35 +108,51 @@ public class UserController {
      * @throws Exception if the user is not found
      */
     public static ConcurrentHashMap<String, Boolean> getFriends(String username) throws Exception {
-        ConcurrentHashMap<String,Boolean> friends = null;
+        List<FriendView> friends;
         try {
-            session = HibernateUtil.getSessionFactory().openSession();
-            User user = session.createQuery("from User where username = :username", User.class)
-                    .setParameter("username", username)
-                    .uniqueResult();
-            if (user == null) {
-               throw new Exception("User not found");
-            }
-            if (user.getFriends() != null ) {
-                friends = (ConcurrentHashMap<String, Boolean>) user.getFriends().stream().collect(Collectors.toConcurrentMap(User::getUsername, User::isActive));
-            }else {
-                friends = new ConcurrentHashMap<>();
-            }
+            friends = users.findFriends(username);
+        } catch (Exception e) {
+            e.printStackTrace();
+            return null;
+        }
+        if (friends == null) {
+            throw new Exception("User not found");
+        }
+        ConcurrentHashMap<String, Boolean> statuses = new ConcurrentHashMap<>();
+        for (FriendView friend : friends) {
+            statuses.put(friend.getUsername(), friend.isOnline());
+        }
+        return statuses;
+    }
 
+    /**
+     * Retrieves the friends of a user with their IDs and active status.
+     *
+     * @param username the username of the user whose friends are to be retrieved
+     * @return the friends of the user, or null if the user is not found or the query failed
+     */
+    public static List<FriendView> getFriendList(String username) {
+        try {
+            return users.findFriends(username);
         } catch (Exception e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
 
-            if (e.getMessage().equals("User not found")) {
-                throw new Exception("User not found");
-            } else {
-                e.printStackTrace();
-            }
-            if (transaction != null) {
-                transaction.rollback();
-            }
-        } finally {
-            session.close();
+    /**
+     * Loads every friendship into the resident friend graph.
+     *
+     * @return the number of friendships loaded, or -1 if loading failed
+     */
+    public static long warmFriendGraph() {
+        try {
+            Repositories.friendGraph().warm(users::forEachFriendEdge);
+            return Repositories.friendGraph().friendshipCount();
+        } catch (Exception e) {
+            e.printStackTrace();
+            return -1;
         }
-        return friends;
     }
 
     /**
@@ -174,26 +162,38 @@ public class UserController {
      * @param status the active status to be set
      */
     public static void setUserStatus(String username, boolean status) {
+        setUsersStatus(List.of(username), status);
+    }
+
+    /**
+     * Sets the active status of many users in one transaction.
+     *
+     * @param usernames the usernames of the users
+     * @param status the active status to be set
+     * @return true if the statuses were written, false if the transaction failed
+     */
+    public static boolean setUsersStatus(Collection<String> usernames, boolean status) {
         try {
-            session = HibernateUtil.getSessionFactory().openSession();
-            transaction = session.beginTransaction();
-            User user = session.createQuery("from User where username = :username", User.class)
-                    .setParameter("username", username)
-                    .uniqueResult();
+            users.setStatus(usernames, status);
+            return true;
+        } catch (Exception e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
 
-            if (user == null) {
-                return;
-            }
-            user.setActive(status);
-            session.merge(user);
-            transaction.commit();
+    /**
+     * Marks every user as inactive. Used at server startup, since the active
+     * flags left by a server that crashed are stale.
+     *
+     * @return the number of users that were marked as active
+     */
+    public static int resetUserStatuses() {
+        try {
+            return users.resetStatuses();
         } catch (Exception e) {
-            if (transaction != null) {
-                transaction.rollback();
-            }
             e.printStackTrace();
-        } finally {
-            session.close();
+            return 0;
         }
     }
 }
@@ -4,8 +4,11 @@ import org.example.controller.FriendRequestController;
 import org.example.controller.MessageController;
 import org.example.controller.UserController;
 import org.example.models.FriendRequest;
-import org.example.models.Message;
 import org.example.models.User;
+import org.example.persistence.MessageView;
+import org.example.protocol.Frame;
+import org.example.protocol.FrameStream;
+import org.example.protocol.Opcode;
 
 import javax.swing.*;
 import javax.swing.event.ChangeEvent;
@@ -15,10 +18,7 @@ import java.awt.event.KeyAdapter;
 import java.awt.event.KeyEvent;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
 import java.net.Socket;
 import java.util.*;
 import java.util.List;
@@ -31,11 +31,11 @@ public class ClientChatGUI extends JFrame implements MessageListener {
 
     private static final String SERVER_ADDRESS = "127.0.0.1";
     private static final int SERVER_PORT = 12345;
+    private static final int HISTORY_PAGE_SIZE = 50;
     private static  java.util.List<String> friends ;
 
     private Socket socket;
-    private BufferedReader input;
-    private PrintWriter output;
+    private FrameStream stream;
 
     /**
      * Handles the event when a new message is received.
@@ -87,6 +87,8 @@ public class ClientChatGUI extends JFrame implements MessageListener {
     private final User user;
     private JPanel connectedUsersPanel;
     private JPanel messagePanel;
+    private long selectedFriendID = -1;
+    private JButton loadEarlierButton;
     JScrollPane messageScrollPane;
     private String selectedUser;
     private HashMap<String,JButton> friendButtons;
@@ -131,41 +133,38 @@ public class ClientChatGUI extends JFrame implements MessageListener {
         new Thread(() -> {
             try {
                 socket = new Socket(SERVER_ADDRESS, SERVER_PORT);
-                input = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-                output = new PrintWriter(socket.getOutputStream(), true);
+                stream = FrameStream.connect(socket, true);
 
-                output.println(user.getUsername());
+                send(Frame.of(Opcode.LOGIN, user.getUsername()));
 
                 Thread listenerThread = new Thread(() -> {
                     try {
-                        String serverMessage;
+                        Frame serverFrame;
                         friends = new java.util.ArrayList<>(List.of());
-                        output.println("/friends");
-
-                        while ((serverMessage = input.readLine()) != null) {
-                            if (serverMessage.startsWith("/friends")) {
-                                friends.add(serverMessage.split(" ")[1]);
-                                for (String friend : friends) {
-                                    System.out.println(friend);
-                                }
-                            } else if (serverMessage.startsWith("/active")) {
-                                    onActiveUsersChanged(serverMessage.split(":")[1], true );
-
-                            } else if (serverMessage.startsWith("/exit")) {
-                                    onActiveUsersChanged(serverMessage.split(":")[1], false);
-
-                            } else if(serverMessage.startsWith("/private")) {
-                                String[] parts = serverMessage.split(" ", 3);
-                                if (parts.length >= 3) {
-                                    String from = parts[1];
-                                    String message = parts[2];
-                                    onMessageReceived(from, message);
-                                }
-
-                            }else if (serverMessage.startsWith("/friendAccepted")) {
-                                String[] parts = serverMessage.split(" ", 2);
-                                if (parts.length >= 2) {
-                                    String friend = parts[1];
+                        send(Frame.of(Opcode.FRIENDS));
+
+                        while ((serverFrame = stream.read()) != null) {
+                            switch (serverFrame.getOpcode()) {
+                                case FRIENDS:
+                                    friends.add(serverFrame.getTarget());
+                                    for (String friend : friends) {
+                                        System.out.println(friend);
+                                    }
+                                    break;
+                                case ACTIVE:
+                                    onActiveUsersChanged(serverFrame.getTarget(), true);
+                                    break;
+                                case EXIT:
+                                    onActiveUsersChanged(serverFrame.getTarget(), false);
+                                    break;
+                                case PRIVATE:
+                                    onMessageReceived(serverFrame.getTarget(), serverFrame.getBody());
+                                    break;
+                                case FRIEND_ACCEPTED: {
+                                    String friend = serverFrame.getTarget();
+                                    if (friend == null) {
+                                        break;
+                                    }
                                     friends.add(friend);
                                     JButton userButton = new JButton(friend);
                                     userButton.setFocusable(false);
@@ -180,12 +179,13 @@ public class ClientChatGUI extends JFrame implements MessageListener {
                                     ActiveUsersPane.add(userButton);
                                     ActiveUsersPane.revalidate();
                                     ActiveUsersPane.repaint();
-
+                                    break;
                                 }
-                            }else if (serverMessage.startsWith("/deleteFriend")) {
-                                String[] parts = serverMessage.split(":", 2);
-                                if (parts.length >= 2) {
-                                    String friend = parts[1];
+                                case DELETE_FRIEND: {
+                                    String friend = serverFrame.getTarget();
+                                    if (friend == null) {
+                                        break;
+                                    }
                                     friends.remove(friend);
                                     JButton friendButton = friendButtons.get(friend);
                                     if (friendButton != null) {
@@ -193,7 +193,10 @@ public class ClientChatGUI extends JFrame implements MessageListener {
                                         ActiveUsersPane.revalidate();
                                         ActiveUsersPane.repaint();
                                     }
+                                    break;
                                 }
+                                default:
+                                    break;
                             }
                         }
                     } catch (IOException e) {
@@ -209,23 +212,33 @@ public class ClientChatGUI extends JFrame implements MessageListener {
 
     }
 
+    /**
+     * Sends a frame to the chat server, if connected.
+     *
+     * @param frame the frame to be sent
+     */
+    private void send(Frame frame) {
+        if (stream == null) {
+            return;
+        }
+        try {
+            stream.write(frame);
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("Error sending to server: " + e.getMessage());
+        }
+    }
+
     /**
      * Closes the connection to the chat server.
      */
     private void closeConnection() {
         try {
-            if (output != null) {
-                output.println("exit");
-            }
-            if (socket != null) {
+            send(Frame.of(Opcode.QUIT));
+            if (stream != null) {
+                stream.close();
+            } else if (socket != null) {
                 socket.close();
             }
-            if (input != null) {
-                input.close();
-            }
-            if (output != null) {
-                output.close();
-            }
         } catch (IOException e) {
             System.err.println("Error closing connection: " + e.getMessage());
         }
@@ -240,9 +253,7 @@ public class ClientChatGUI extends JFrame implements MessageListener {
     private void sendPrivateMessage(String to , String message) {
 
 
-        if (output != null) {
-            output.println("/msg " + to + " " + message);
-        }
+        send(Frame.of(Opcode.PRIVATE, to, message));
 
     }
 
@@ -296,7 +307,7 @@ public class ClientChatGUI extends JFrame implements MessageListener {
                 }
                 User friend = UserController.getUserByUsername(friendName);
                 FriendController.deleteFriend(user, friend);
-                output.println("/deleteFriend" + ":" + friendName);
+                send(Frame.of(Opcode.DELETE_FRIEND, friendName));
                 if (friend == null) {
                     JOptionPane.showMessageDialog(ClientChatGUI.this, "User not found");
                 } else {
@@ -368,7 +379,7 @@ public class ClientChatGUI extends JFrame implements MessageListener {
                         if (friendRequest != null) {
                             FriendRequestController.acceptFriendRequest(friendRequest);
                             JOptionPane.showMessageDialog(frame, "Friend request accepted");
-                            output.println("/friendAccepted "+ ":" + friend.getUsername());
+                            send(Frame.of(Opcode.FRIEND_ACCEPTED, friend.getUsername()));
 
                             // add the friend to list of friends
                                 friends.add(friend.getUsername());
@@ -468,9 +479,10 @@ public class ClientChatGUI extends JFrame implements MessageListener {
 
 
         friendButtons = new HashMap<>();
+        Map<String, Integer> unreadCounts = MessageController.getUnreadMessagesCounts(this.user.getId());
         for (String user : friends) {
 
-            int unreadMessages = MessageController.getUnreadMessagesCount(this.user.getUsername(), user);
+            int unreadMessages = unreadCounts.getOrDefault(user, 0);
 
             JButton userButton = getFriendButtons(user, unreadMessages, ActiveUsersPane);
             friendButtons.put(user, userButton);
@@ -572,26 +584,58 @@ public class ClientChatGUI extends JFrame implements MessageListener {
     }
 
     /**
-     * Retrieves and displays the messages between the current user and the selected user.
+     * Retrieves and displays the newest messages between the current user and the selected user.
      *
      * @param selectedUser the username of the selected user
      */
     private void getSelectedUserMessages(String selectedUser) {
         // get the messages between the current user and the selected user
-        long selectedFriendID = UserController.getUserByUsername(selectedUser) == null ? -1 : UserController.getUserByUsername(selectedUser).getId();
+        User selectedFriend = UserController.getUserByUsername(selectedUser);
+        selectedFriendID = selectedFriend == null ? -1 : selectedFriend.getId();
         // display the messages in the messagePanel
-        List<Message> messages = MessageController.getMessages(selectedFriendID , user.getId());
-        if (messages == null || messages.isEmpty()) {
+        List<MessageView> messages = MessageController.getMessagesPage(user.getId(), selectedFriendID, null, HISTORY_PAGE_SIZE);
+        if (messages.isEmpty()) {
             JOptionPane.showMessageDialog(ClientChatGUI.this, "No messages between you and " + selectedUser);
         }else {
-        for (Message message : messages) {
-            messagePanel.add(createChatMessageComponent(message));
-        }
+            showEarlierMessages(messages);
             SwingUtilities.invokeLater(() -> messageScrollPane.getVerticalScrollBar().setValue(messageScrollPane.getVerticalScrollBar().getMaximum()));
         }
 
     }
 
+    /**
+     * Adds a page of older messages above the messages shown, with a button
+     * loading the page before it if there may be one.
+     *
+     * @param messages the page of messages, oldest first
+     */
+    private void showEarlierMessages(List<MessageView> messages) {
+        if (loadEarlierButton != null) {
+            messagePanel.remove(loadEarlierButton);
+            loadEarlierButton = null;
+        }
+        int index = 0;
+        if (messages.size() == HISTORY_PAGE_SIZE) {
+            MessageView oldest = messages.get(0);
+            loadEarlierButton = new JButton("Load earlier messages");
+            loadEarlierButton.setFocusable(false);
+            loadEarlierButton.setFont(new Font("Inter", Font.PLAIN, 14));
+            loadEarlierButton.setBackground(Utilities.SECONDARY_COLOR);
+            loadEarlierButton.setForeground(Utilities.Text_COLOR);
+            loadEarlierButton.addActionListener(e -> {
+                showEarlierMessages(MessageController.getMessagesPage(user.getId(), selectedFriendID, oldest, HISTORY_PAGE_SIZE));
+                messagePanel.revalidate();
+                messagePanel.repaint();
+            });
+            messagePanel.add(loadEarlierButton, index++);
+        }
+        for (MessageView message : messages) {
+            // the history only holds IDs, the two names are known here
+            String from = message.getSenderId() == user.getId() ? user.getUsername() : selectedUser;
+            messagePanel.add(createChatMessageComponent(message, from), index++);
+        }
+    }
+
     /**
      * Creates and returns the add friend button.
      *
@@ -839,15 +883,16 @@ public class ClientChatGUI extends JFrame implements MessageListener {
      * Creates and returns a chat message component for the specified message.
      *
      * @param message the message
+     * @param from    the username of the sender
      * @return the chat message component
      */
-    private JPanel createChatMessageComponent(Message message) {
+    private JPanel createChatMessageComponent(MessageView message, String from) {
         JPanel messageComponent = new JPanel();
         messageComponent.setLayout(new BoxLayout(messageComponent, BoxLayout.Y_AXIS));
         messageComponent.setBackground(Utilities.SECONDARY_COLOR);
         messageComponent.setBorder(Utilities.addPadding(20, 20, 10, 20));
 
-        JLabel sender = new JLabel(message.getSender().getUsername());
+        JLabel sender = new JLabel(from);
         sender.setFont(new Font("Inter", Font.BOLD, 18));
         sender.setForeground(Utilities.Text_COLOR);
         messageComponent.add(sender);
@@ -0,0 +1,87 @@
+package org.example.models;
+
+import jakarta.persistence.*;
+import org.example.persistence.SnowflakeId;
+
+/**
+ * Conversation represents the exchange of messages between two users.
+ * The pair is stored in canonical order, the lower user ID first, so both
+ * users find the same conversation. It also hands out the sequence numbers
+ * that order its messages.
+ */
+@Entity
+@Table(name = "conversations", uniqueConstraints =
+        @UniqueConstraint(name = "uk_conversations_pair", columnNames = {"user_low_id", "user_high_id"}))
+public class Conversation {
+
+    @Id
+    @SnowflakeId
+    private Long id;
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "user_low_id", nullable = false)
+    private User userLow;
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "user_high_id", nullable = false)
+    private User userHigh;
+
+    // sequence number of the last message, reserved in blocks with UPDATE ... OUTPUT
+    @Column(name = "last_seq", nullable = false)
+    private long lastSeq;
+
+    /**
+     * Constructs a new Conversation between two users, given in any order.
+     *
+     * @param user  one user of the conversation
+     * @param other the other user of the conversation
+     */
+    public Conversation(User user, User other) {
+        boolean userFirst = user.getId() < other.getId();
+        this.userLow = userFirst ? user : other;
+        this.userHigh = userFirst ? other : user;
+        this.lastSeq = 0;
+    }
+
+    /**
+     * Default constructor for Conversation.
+     */
+    public Conversation() {
+    }
+
+    /**
+     * Returns the ID of the conversation.
+     *
+     * @return the ID of the conversation
+     */
+    public Long getId() {
+        return id;
+    }
+
+    /**
+     * Returns the user of the conversation with the lower ID.
+     *
+     * @return the user with the lower ID
+     */
+    public User getUserLow() {
+        return userLow;
+    }
+
+    /**
+     * Returns the user of the conversation with the higher ID.
+     *
+     * @return the user with the higher ID
+     */
+    public User getUserHigh() {
+        return userHigh;
+    }
+
+    /**
+     * Returns the sequence number of the last message of the conversation.
+     *
+     * @return the last sequence number, 0 if there is no message
+     */
+    public long getLastSeq() {
+        return lastSeq;
+    }
+}
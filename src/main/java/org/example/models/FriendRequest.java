@@ -1,17 +1,28 @@
 package org.example.models;
 
 import jakarta.persistence.*;
+import org.example.persistence.SnowflakeId;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.jpa.HibernateHints;
 
 /**
  * FriendRequest represents a friend request between two users.
  * It contains information about the sender, recipient, and the status of the request.
  */
 @Entity
-@Table(name = "friend_requests")
+@Table(name = "friend_requests", uniqueConstraints =
+        @UniqueConstraint(name = "uk_friend_requests_pair", columnNames = {"sender_id", "recipient_id"}))
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
+@NamedQuery(name = "FriendRequest.find", query = "from FriendRequest where sender = :sender and recipient = :recipient",
+        hints = @QueryHint(name = HibernateHints.HINT_CACHEABLE, value = "true"))
+@NamedQuery(name = "FriendRequest.senderNames", query = "select sender.username from FriendRequest where recipient = :user",
+        hints = @QueryHint(name = HibernateHints.HINT_CACHEABLE, value = "true"))
 public class FriendRequest {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @SnowflakeId
     private Long id;
     @ManyToOne
     private User sender;
@@ -2,6 +2,7 @@
 package org.example.models;
 
 import jakarta.persistence.*;
+import org.example.persistence.SnowflakeId;
 
 import java.util.Date;
 
@@ -10,10 +11,15 @@ import java.util.Date;
  * It contains information about the sender, recipient, content, timestamp, and read status of the message.
  */
 @Entity
-@Table(name = "messages")
+@Table(name = "messages", indexes = {
+        // serves the unread counts of a recipient
+        @Index(name = "idx_messages_recipient_unread", columnList = "recipient_id, isRead"),
+        // history reads are range scans on one conversation
+        @Index(name = "idx_messages_conversation_seq", columnList = "conversation_id, seq", unique = true)
+})
 public class Message {
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @SnowflakeId
     private Long id;
 
     private String content;
@@ -26,6 +32,14 @@ public class Message {
     @JoinColumn(name = "recipient_id")
     private User recipient;
 
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "conversation_id", nullable = false)
+    private Conversation conversation;
+
+    // position of the message in its conversation, starting at 1
+    @Column(nullable = false)
+    private long seq;
+
     @Temporal(TemporalType.TIMESTAMP)
     private Date timestamp;
 
@@ -115,6 +129,35 @@ public class Message {
         return id;
     }
 
+    /**
+     * Returns the conversation the message belongs to.
+     *
+     * @return the conversation of the message
+     */
+    public Conversation getConversation() {
+        return conversation;
+    }
+
+    /**
+     * Sets the conversation of the message and its position in it.
+     *
+     * @param conversation the conversation of the message
+     * @param seq          the sequence number of the message in the conversation
+     */
+    public void setConversation(Conversation conversation, long seq) {
+        this.conversation = conversation;
+        this.seq = seq;
+    }
+
+    /**
+     * Returns the position of the message in its conversation.
+     *
+     * @return the sequence number of the message
+     */
+    public long getSeq() {
+        return seq;
+    }
+
     /**
      * Returns the timestamp of the message.
      *
@@ -163,6 +206,7 @@ public class Message {
                 ", content='" + content + '\'' +
                 ", sender=" + sender +
                 ", recipient=" + recipient +
+                ", seq=" + seq +
                 ", timestamp=" + timestamp +
                 ", isRead=" + isRead +
                 '}';
@@ -4,16 +4,29 @@ package org.example.models;
 
 
 import jakarta.persistence.*;
+import org.example.persistence.SnowflakeId;
+import org.hibernate.annotations.BatchSize;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.jpa.HibernateHints;
 
 import java.util.ArrayList;
 import java.util.List;
 
 @Entity
 @Table(name = "users")
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
+@BatchSize(size = 50)
+@NamedQuery(name = "User.byUsername", query = "from User where username = :username",
+        hints = @QueryHint(name = HibernateHints.HINT_CACHEABLE, value = "true"))
+// one row per friend, or a single row of nulls for a user without friends
+@NamedQuery(name = "User.friendViews", query = "select f.id, f.username, f.isOnline from User u " +
+        "left join u.friends f where u.username = :username")
 public class User {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @SnowflakeId
     private Long id;
 
     @Column( unique = true, nullable = false)
@@ -21,7 +34,10 @@ public class User {
 
     private String password;
 
-    @ManyToMany(fetch = FetchType.EAGER)
+    // loaded only when walked; the friends of several users load together in batches
+    @ManyToMany(fetch = FetchType.LAZY)
+    @BatchSize(size = 50)
+    @Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
     @JoinTable(
             // make join columns unique
             uniqueConstraints = @UniqueConstraint(columnNames = {"user_id", "friend_id"}),
@@ -31,10 +47,6 @@ public class User {
     )
     private List<User> friends;
 
-
-    @OneToMany(mappedBy = "sender", cascade = CascadeType.ALL, orphanRemoval = true)
-    private List<Message> messages;
-
     @Column(nullable = false, columnDefinition = "BIT DEFAULT 0")
     private boolean isOnline;
 
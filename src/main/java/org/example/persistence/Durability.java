@@ -0,0 +1,32 @@
+package org.example.persistence;
+
+/**
+ * Durability decides when a message handed to the {@link MessagePipeline} counts as saved.
+ */
+public enum Durability {
+    /**
+     * The message counts as saved once it is queued. Messages still queued
+     * are lost if the server dies without a clean shutdown.
+     */
+    FIRE_AND_FORGET,
+    /**
+     * The message counts as saved once the transaction holding it commits.
+     */
+    ACK_AFTER_COMMIT;
+
+    /**
+     * Returns the durability with the specified name, ignoring case.
+     *
+     * @param name the name of the durability mode
+     * @return the matching durability, or ACK_AFTER_COMMIT if the name is unknown
+     */
+    public static Durability fromName(String name) {
+        for (Durability durability : values()) {
+            if (durability.name().equalsIgnoreCase(name.trim())) {
+                return durability;
+            }
+        }
+        System.err.println("Unknown durability " + name + ", using " + ACK_AFTER_COMMIT);
+        return ACK_AFTER_COMMIT;
+    }
+}
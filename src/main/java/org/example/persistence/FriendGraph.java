@@ -0,0 +1,319 @@
+package org.example.persistence;
+
+import org.example.util.LongHashSet;
+import org.example.util.LongObjectHashMap;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * FriendGraph is a resident copy of the friendships, so the server finds the
+ * friends to notify of a login or logout without querying the database.
+ * Each user ID maps to a primitive set of friend IDs, and each ID with a
+ * friendship to its username, the key of the connected clients.
+ * <p>
+ * The graph is empty until {@link #warm(Consumer)} loads it; until then
+ * it ignores changes and callers read friends from the database instead.
+ */
+public class FriendGraph {
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private LongObjectHashMap<LongHashSet> adjacency = new LongObjectHashMap<>(0);
+    private LongObjectHashMap<String> usernames = new LongObjectHashMap<>(0);
+    private long friendships;
+    private volatile boolean ready;
+
+    private final LongAdder lookups = new LongAdder();
+    private final LongAdder changes = new LongAdder();
+    private volatile long warmMillis;
+
+    /**
+     * Loads every friendship, replacing the current graph. Changes made while
+     * loading are lost, so it runs before the server accepts clients.
+     *
+     * @param edges streams every row of the friend table to a consumer,
+     *              such as {@link UserRepository#forEachFriendEdge}
+     */
+    public void warm(Consumer<UserRepository.FriendEdgeConsumer> edges) {
+        long start = System.nanoTime();
+        LongObjectHashMap<LongHashSet> loadedAdjacency = new LongObjectHashMap<>(1024);
+        LongObjectHashMap<String> loadedUsernames = new LongObjectHashMap<>(1024);
+        long[] loadedEdges = new long[1];
+        edges.accept((userId, friendId, friendUsername) -> {
+            if (link(loadedAdjacency, userId, friendId)) {
+                loadedEdges[0]++;
+            }
+            loadedUsernames.put(friendId, friendUsername);
+        });
+        lock.writeLock().lock();
+        try {
+            adjacency = loadedAdjacency;
+            usernames = loadedUsernames;
+            // user_friends holds both directions of each friendship
+            friendships = loadedEdges[0] / 2;
+            ready = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        warmMillis = (System.nanoTime() - start) / 1_000_000;
+    }
+
+    /**
+     * Returns whether the graph has been loaded.
+     *
+     * @return true once {@link #warm(Consumer)} completed
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * Returns whether two users are friends.
+     *
+     * @param userId   the ID of one user
+     * @param friendId the ID of the other user
+     * @return true if they are friends
+     */
+    public boolean areFriends(long userId, long friendId) {
+        lookups.increment();
+        lock.readLock().lock();
+        try {
+            LongHashSet friends = adjacency.get(userId);
+            return friends != null && friends.contains(friendId);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the IDs of the friends of a user.
+     *
+     * @param userId the ID of the user
+     * @return the IDs of the friends, empty if the user has none
+     */
+    public long[] friendsOf(long userId) {
+        lookups.increment();
+        lock.readLock().lock();
+        try {
+            LongHashSet friends = adjacency.get(userId);
+            return friends == null ? new long[0] : friends.toArray();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the usernames of the friends of a user, the targets of its presence changes.
+     *
+     * @param userId the ID of the user
+     * @return the usernames of the friends, empty if the user has none
+     */
+    public List<String> friendNamesOf(long userId) {
+        lookups.increment();
+        lock.readLock().lock();
+        try {
+            LongHashSet friends = adjacency.get(userId);
+            if (friends == null) {
+                return new ArrayList<>();
+            }
+            long[] ids = friends.toArray();
+            List<String> names = new ArrayList<>(ids.length);
+            for (long id : ids) {
+                String name = usernames.get(id);
+                if (name != null) {
+                    names.add(name);
+                }
+            }
+            return names;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Records a new friendship on both sides.
+     *
+     * @param userId         the ID of one user
+     * @param username       the username of that user
+     * @param friendId       the ID of the other user
+     * @param friendUsername the username of the other user
+     */
+    public void addFriendship(long userId, String username, long friendId, String friendUsername) {
+        if (!ready) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            usernames.put(userId, username);
+            usernames.put(friendId, friendUsername);
+            if (link(adjacency, userId, friendId) | link(adjacency, friendId, userId)) {
+                friendships++;
+            }
+            changes.increment();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Records the end of a friendship on both sides.
+     *
+     * @param userId   the ID of one user
+     * @param friendId the ID of the other user
+     */
+    public void removeFriendship(long userId, long friendId) {
+        if (!ready) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            if (unlink(userId, friendId) | unlink(friendId, userId)) {
+                friendships--;
+            }
+            changes.increment();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Replaces the friends of a user with a list read from the database,
+     * fixing the other side of every friendship that was added or removed.
+     * Used when another process, such as a client, changed the friendships.
+     *
+     * @param userId   the ID of the user
+     * @param username the username of the user
+     * @param friends  the current friends of the user
+     */
+    public void replaceFriends(long userId, String username, List<FriendView> friends) {
+        if (!ready) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            usernames.put(userId, username);
+            LongHashSet current = new LongHashSet(friends.size());
+            for (FriendView friend : friends) {
+                current.add(friend.getFriendId());
+                usernames.put(friend.getFriendId(), friend.getUsername());
+                if (link(adjacency, userId, friend.getFriendId()) | link(adjacency, friend.getFriendId(), userId)) {
+                    friendships++;
+                }
+            }
+            LongHashSet previous = adjacency.get(userId);
+            if (previous != null) {
+                for (long friendId : previous.toArray()) {
+                    if (!current.contains(friendId) && (unlink(userId, friendId) | unlink(friendId, userId))) {
+                        friendships--;
+                    }
+                }
+            }
+            changes.increment();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes a deleted user and every friendship it had.
+     *
+     * @param userId the ID of the user
+     */
+    public void removeUser(long userId) {
+        if (!ready) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            LongHashSet friends = adjacency.remove(userId);
+            if (friends != null) {
+                for (long friendId : friends.toArray()) {
+                    unlink(friendId, userId);
+                    friendships--;
+                }
+            }
+            usernames.remove(userId);
+            changes.increment();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the number of friendships, each counted once.
+     *
+     * @return the number of friendships
+     */
+    public long friendshipCount() {
+        lock.readLock().lock();
+        try {
+            return friendships;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the bytes taken by the graph on a 64-bit JVM with compressed
+     * references, counting the usernames as Latin-1 strings.
+     *
+     * @return the estimated heap footprint
+     */
+    public long footprintBytes() {
+        lock.readLock().lock();
+        try {
+            long[] bytes = {adjacency.footprintBytes() + usernames.footprintBytes()};
+            adjacency.forEach((userId, friends) -> bytes[0] += friends.footprintBytes());
+            // String object plus its byte array
+            usernames.forEach((userId, name) -> bytes[0] += 24 + 16 + ((name.length() + 7) & ~7));
+            return bytes[0];
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns a one-line summary of the graph.
+     *
+     * @return the summary
+     */
+    public String summary() {
+        int users;
+        lock.readLock().lock();
+        try {
+            users = adjacency.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+        return "ready=" + ready +
+                " users=" + users +
+                " friendships=" + friendshipCount() +
+                " footprintKB=" + footprintBytes() / 1024 +
+                " lookups=" + lookups.sum() +
+                " changes=" + changes.sum() +
+                " warmMillis=" + warmMillis;
+    }
+
+    private static boolean link(LongObjectHashMap<LongHashSet> adjacency, long userId, long friendId) {
+        LongHashSet friends = adjacency.get(userId);
+        if (friends == null) {
+            friends = new LongHashSet();
+            adjacency.put(userId, friends);
+        }
+        return friends.add(friendId);
+    }
+
+    private boolean unlink(long userId, long friendId) {
+        LongHashSet friends = adjacency.get(userId);
+        if (friends == null || !friends.remove(friendId)) {
+            return false;
+        }
+        if (friends.size() == 0) {
+            adjacency.remove(userId);
+        }
+        return true;
+    }
+}
@@ -0,0 +1,64 @@
+package org.example.persistence;
+
+import org.example.models.FriendRequest;
+import org.example.models.User;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * FriendRequestRepository stores the friend requests waiting for an answer.
+ */
+public interface FriendRequestRepository {
+
+    /**
+     * Inserts a pending friend request unless the sender already sent one to
+     * the recipient, in one statement. The unique (sender_id, recipient_id)
+     * constraint settles concurrent sends of the same request.
+     *
+     * @param senderId    the ID of the user sending the request
+     * @param recipientId the ID of the user receiving the request
+     * @return SENT if the request was inserted, ALREADY_SENT if one already existed
+     */
+    FriendRequestResult saveIfAbsent(long senderId, long recipientId);
+
+    /**
+     * Deletes a friend request.
+     *
+     * @param friendRequest the friend request to be deleted
+     */
+    void delete(FriendRequest friendRequest);
+
+    /**
+     * Finds the friend request a user sent to another.
+     *
+     * @param sender    the user who sent the request
+     * @param recipient the user who received the request
+     * @return the friend request, or null if there is none
+     */
+    FriendRequest find(User sender, User recipient);
+
+    /**
+     * Returns the usernames of the users who sent a friend request to a user.
+     *
+     * @param recipient the user who received the requests
+     * @return the usernames of the senders
+     */
+    List<String> findSenderNames(User recipient);
+
+    /**
+     * Makes the sender and recipient of a request friends and deletes the
+     * request, in one transaction of two statements.
+     *
+     * @param friendRequest the friend request to be accepted
+     */
+    void accept(FriendRequest friendRequest);
+
+    /**
+     * Makes the sender and recipient of each request friends and deletes the
+     * requests, all in one transaction.
+     *
+     * @param friendRequests the friend requests to be accepted
+     */
+    void acceptAll(Collection<FriendRequest> friendRequests);
+}
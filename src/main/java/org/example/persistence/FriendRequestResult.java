@@ -0,0 +1,19 @@
+package org.example.persistence;
+
+/**
+ * FriendRequestResult tells what became of a friend request being sent.
+ */
+public enum FriendRequestResult {
+    /**
+     * The request was stored.
+     */
+    SENT,
+    /**
+     * The sender had already sent a request to the recipient; nothing was stored.
+     */
+    ALREADY_SENT,
+    /**
+     * The request could not be stored, for example because the database was unreachable.
+     */
+    FAILED
+}
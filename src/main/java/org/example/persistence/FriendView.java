@@ -0,0 +1,52 @@
+package org.example.persistence;
+
+/**
+ * FriendView is a read-only copy of a friend for display: its ID, username
+ * and active status, read without loading the friend or its own friends.
+ */
+public class FriendView {
+
+    private final long friendId;
+    private final String username;
+    private final boolean online;
+
+    /**
+     * Constructs a new FriendView.
+     *
+     * @param friendId the ID of the friend
+     * @param username the username of the friend
+     * @param online   whether the friend is active
+     */
+    public FriendView(long friendId, String username, boolean online) {
+        this.friendId = friendId;
+        this.username = username;
+        this.online = online;
+    }
+
+    /**
+     * Returns the ID of the friend.
+     *
+     * @return the ID of the friend
+     */
+    public long getFriendId() {
+        return friendId;
+    }
+
+    /**
+     * Returns the username of the friend.
+     *
+     * @return the username of the friend
+     */
+    public String getUsername() {
+        return username;
+    }
+
+    /**
+     * Returns whether the friend is active.
+     *
+     * @return whether the friend is active
+     */
+    public boolean isOnline() {
+        return online;
+    }
+}
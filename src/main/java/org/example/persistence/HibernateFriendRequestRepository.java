@@ -0,0 +1,122 @@
+package org.example.persistence;
+
+import jakarta.persistence.PersistenceException;
+import org.example.models.FriendRequest;
+import org.example.models.Status;
+import org.example.models.User;
+import org.hibernate.exception.ConstraintViolationException;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * HibernateFriendRequestRepository is the {@link FriendRequestRepository} backed by Hibernate.
+ */
+public class HibernateFriendRequestRepository implements FriendRequestRepository {
+
+    // SQL Server accepts at most 2100 parameters per statement
+    private static final int MAX_IN_LIST = 1000;
+    private static final String UNIQUE_PAIR = "uk_friend_requests_pair";
+    // the check and the insert are one statement; the unique pair catches what the check misses
+    private static final String INSERT_IF_ABSENT =
+            "insert into friend_requests (id, isAccepted, sender_id, recipient_id) " +
+                    "select :id, :status, :sender, :recipient where not exists " +
+                    "(select 1 from friend_requests where sender_id = :sender and recipient_id = :recipient)";
+
+    private final TransactionTemplate template;
+
+    /**
+     * Constructs a new HibernateFriendRequestRepository running its work through the specified template.
+     *
+     * @param template the template running each unit of work
+     */
+    public HibernateFriendRequestRepository(TransactionTemplate template) {
+        this.template = template;
+    }
+
+    @Override
+    public FriendRequestResult saveIfAbsent(long senderId, long recipientId) {
+        try {
+            int inserted = template.execute(session -> TransactionTemplate.nativeMutation(session, INSERT_IF_ABSENT)
+                    // invalidates the cached request queries only, not the whole query cache
+                    .addSynchronizedEntityClass(FriendRequest.class)
+                    .setParameter("id", SnowflakeIdGenerator.nextId())
+                    .setParameter("status", Status.PENDING.name())
+                    .setParameter("sender", senderId)
+                    .setParameter("recipient", recipientId)
+                    .executeUpdate());
+            return inserted > 0 ? FriendRequestResult.SENT : FriendRequestResult.ALREADY_SENT;
+        } catch (PersistenceException e) {
+            // a concurrent send inserted the same pair between the check and the insert
+            if (violates(e, UNIQUE_PAIR)) {
+                return FriendRequestResult.ALREADY_SENT;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Returns whether an exception, or one of its causes, is the violation of a constraint.
+     */
+    private static boolean violates(Throwable e, String constraintName) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ConstraintViolationException violation) {
+                String name = violation.getConstraintName();
+                // the name is not parsed out of every driver message, fall back to the message itself
+                return name != null ? name.equalsIgnoreCase(constraintName)
+                        : String.valueOf(violation.getMessage()).contains(constraintName);
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void delete(FriendRequest friendRequest) {
+        template.executeWithoutResult(session -> session.remove(session.merge(friendRequest)));
+    }
+
+    @Override
+    public FriendRequest find(User sender, User recipient) {
+        return template.read(session -> session.createNamedQuery("FriendRequest.find", FriendRequest.class)
+                .setParameter("sender", sender)
+                .setParameter("recipient", recipient)
+                .uniqueResult());
+    }
+
+    @Override
+    public List<String> findSenderNames(User recipient) {
+        return template.read(session -> session.createNamedQuery("FriendRequest.senderNames", String.class)
+                .setParameter("user", recipient)
+                .list());
+    }
+
+    @Override
+    public void accept(FriendRequest friendRequest) {
+        acceptAll(List.of(friendRequest));
+    }
+
+    @Override
+    public void acceptAll(Collection<FriendRequest> friendRequests) {
+        if (friendRequests.isEmpty()) {
+            return;
+        }
+        List<Long> ids = new ArrayList<>(friendRequests.size());
+        long[] senderIds = new long[friendRequests.size()];
+        long[] recipientIds = new long[friendRequests.size()];
+        for (FriendRequest friendRequest : friendRequests) {
+            senderIds[ids.size()] = friendRequest.getSender().getId();
+            recipientIds[ids.size()] = friendRequest.getRecipient().getId();
+            ids.add(friendRequest.getId());
+        }
+        template.executeWithoutResult(session -> {
+            // only the user_friends rows and the requests are written, no user is loaded
+            HibernateUserRepository.addFriendships(session, senderIds, recipientIds);
+            for (int from = 0; from < ids.size(); from += MAX_IN_LIST) {
+                session.createMutationQuery("delete from FriendRequest where id in (:ids)")
+                        .setParameterList("ids", ids.subList(from, Math.min(ids.size(), from + MAX_IN_LIST)))
+                        .executeUpdate();
+            }
+        });
+    }
+}
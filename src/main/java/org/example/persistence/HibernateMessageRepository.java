@@ -0,0 +1,325 @@
+package org.example.persistence;
+
+import jakarta.persistence.PersistenceException;
+import org.example.models.Conversation;
+import org.example.models.Message;
+import org.example.models.User;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.Session;
+import org.hibernate.query.SelectionQuery;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * HibernateMessageRepository is the {@link MessageRepository} backed by Hibernate.
+ */
+public class HibernateMessageRepository implements MessageRepository {
+
+    // reserves a block of sequence numbers, returning the last one; the row stays locked until commit
+    private static final String RESERVE_SEQ =
+            "update conversations set last_seq = last_seq + ? output inserted.last_seq where id = ?";
+    private static final int CONVERSATION_CACHE_SIZE = 100_000;
+    private static final int SCROLL_FETCH_SIZE = 1_000;
+
+    private final TransactionTemplate template;
+    // conversation IDs by user pair; a conversation is never re-keyed, so entries never go stale
+    private final ReentrantLock conversationIdsLock = new ReentrantLock();
+    private final Map<UserPair, Long> conversationIds = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<UserPair, Long> eldest) {
+            return size() > CONVERSATION_CACHE_SIZE;
+        }
+    };
+
+    /**
+     * Constructs a new HibernateMessageRepository running its work through the specified template.
+     *
+     * @param template the template running each unit of work
+     */
+    public HibernateMessageRepository(TransactionTemplate template) {
+        this.template = template;
+    }
+
+    @Override
+    public void save(Message message) {
+        long conversationId = conversationId(message.getSender().getId(), message.getRecipient().getId());
+        template.executeWithoutResult(session -> {
+            message.setConversation(session.getReference(Conversation.class, conversationId),
+                    reserveSeq(session, conversationId, 1));
+            session.persist(message);
+        });
+    }
+
+    @Override
+    public List<MessageView> saveAll(List<NewMessage> messages) {
+        List<MessageView> saved = new ArrayList<>(messages.size());
+        if (messages.isEmpty()) {
+            return saved;
+        }
+        // resolved before the transaction, so creating a conversation never holds the sequence locks
+        Map<Long, List<NewMessage>> byConversation = new LinkedHashMap<>();
+        for (NewMessage newMessage : messages) {
+            byConversation.computeIfAbsent(
+                    conversationId(newMessage.getSenderId(), newMessage.getRecipientId()),
+                    id -> new ArrayList<>()).add(newMessage);
+        }
+        template.executeWithoutResult(session -> {
+            session.setJdbcBatchSize(messages.size());
+            for (Map.Entry<Long, List<NewMessage>> entry : byConversation.entrySet()) {
+                List<NewMessage> batch = entry.getValue();
+                long seq = reserveSeq(session, entry.getKey(), batch.size()) - batch.size();
+                // references are proxies holding only the ID, no SELECT is issued for them
+                Conversation conversation = session.getReference(Conversation.class, entry.getKey());
+                for (NewMessage newMessage : batch) {
+                    Message message = new Message(
+                            session.getReference(User.class, newMessage.getSenderId()),
+                            session.getReference(User.class, newMessage.getRecipientId()),
+                            newMessage.getContent());
+                    message.setTimestamp(newMessage.getTimestamp());
+                    message.setConversation(conversation, ++seq);
+                    session.persist(message);
+                    saved.add(new MessageView(message.getId(), newMessage.getSenderId(), newMessage.getRecipientId(),
+                            newMessage.getContent(), newMessage.getTimestamp(), false, seq));
+                }
+            }
+        });
+        return saved;
+    }
+
+    @Override
+    public void update(Message message) {
+        template.executeWithoutResult(session -> session.merge(message));
+    }
+
+    @Override
+    public void delete(Message message) {
+        template.executeWithoutResult(session -> session.remove(session.merge(message)));
+    }
+
+    @Override
+    public int countUnread(long senderId, long recipientId) {
+        return template.read(session -> session.createQuery(
+                        "select count(*) from Message where sender.id = :sender and recipient.id = :recipient and isRead = false", Long.class)
+                .setParameter("sender", senderId)
+                .setParameter("recipient", recipientId)
+                .uniqueResult()
+                .intValue());
+    }
+
+    @Override
+    public Map<Long, Integer> countUnreadBySender(long recipientId) {
+        return template.read(session -> {
+            Map<Long, Integer> counts = new HashMap<>();
+            for (Object[] row : session.createQuery(
+                            "select m.sender.id, count(*) from Message m where m.recipient.id = :recipient and m.isRead = false group by m.sender.id", Object[].class)
+                    .setParameter("recipient", recipientId)
+                    .list()) {
+                counts.put((Long) row[0], ((Long) row[1]).intValue());
+            }
+            return counts;
+        });
+    }
+
+    @Override
+    public int markRead(long senderId, long recipientId) {
+        Long conversationId = findConversationId(senderId, recipientId);
+        if (conversationId == null) {
+            return 0;
+        }
+        return template.execute(session -> session.createMutationQuery(
+                        "update Message m set m.isRead = true where m.conversation.id = :conversation " +
+                                "and m.recipient.id = :recipient and m.isRead = false")
+                .setParameter("conversation", conversationId)
+                .setParameter("recipient", recipientId)
+                .executeUpdate());
+    }
+
+    @Override
+    public List<Message> findConversation(long userId, long otherId) {
+        Long conversationId = findConversationId(userId, otherId);
+        if (conversationId == null) {
+            return new ArrayList<>();
+        }
+        return template.read(session -> session.createQuery(
+                        "from Message m where m.conversation.id = :conversation order by m.seq", Message.class)
+                .setParameter("conversation", conversationId)
+                .getResultList());
+    }
+
+    @Override
+    public List<MessageView> findConversationPage(long userId, long otherId, long beforeSeq, int limit) {
+        Long conversationId = findConversationId(userId, otherId);
+        if (conversationId == null) {
+            return new ArrayList<>();
+        }
+        List<MessageView> page = template.read(session -> new ArrayList<>(session.createQuery(
+                        "select new org.example.persistence.MessageView(" +
+                                "m.id, m.sender.id, m.recipient.id, m.content, m.timestamp, m.isRead, m.seq) " +
+                                "from Message m where m.conversation.id = :conversation and m.seq < :seq " +
+                                "order by m.seq desc", MessageView.class)
+                .setParameter("conversation", conversationId)
+                .setParameter("seq", beforeSeq)
+                .setMaxResults(limit)
+                .getResultList()));
+        Collections.reverse(page);
+        return page;
+    }
+
+    @Override
+    public int forEachMessageSentBefore(long cutoffMillis, Consumer<MessageView> consumer) {
+        return forEachMessage("where m.id < :cutoffId and m.timestamp < :cutoffTime", cutoffMillis, consumer);
+    }
+
+    @Override
+    public int forEachMessage(Consumer<MessageView> consumer) {
+        return forEachMessage("", 0, consumer);
+    }
+
+    @Override
+    public int deleteSentBefore(long cutoffMillis, int limit) {
+        // the primary key is the ID, so each delete is a short range at its start; the
+        // legacy rows below every Snowflake ID are only deleted once they are old enough
+        return template.execute(session -> TransactionTemplate.nativeMutation(session,
+                        "delete top (:limit) from messages where id < :cutoffId and timestamp < :cutoffTime")
+                .addSynchronizedEntityClass(Message.class)
+                .setParameter("limit", limit)
+                .setParameter("cutoffId", SnowflakeIdGenerator.firstIdAt(cutoffMillis))
+                .setParameter("cutoffTime", new Date(cutoffMillis))
+                .executeUpdate());
+    }
+
+    /**
+     * Streams the messages matching a condition in conversation order.
+     *
+     * @param condition    the where clause, naming the time as {@code :cutoffId} and {@code :cutoffTime}, or empty
+     * @param cutoffMillis the time bound to the condition
+     */
+    private int forEachMessage(String condition, long cutoffMillis, Consumer<MessageView> consumer) {
+        return template.read(session -> {
+            int count = 0;
+            SelectionQuery<MessageView> query = session.createSelectionQuery(
+                            "select new org.example.persistence.MessageView(" +
+                                    "m.id, m.sender.id, m.recipient.id, m.content, m.timestamp, m.isRead, m.seq) " +
+                                    "from Message m join m.conversation c " + condition +
+                                    " order by c.userLow.id, c.userHigh.id, m.seq", MessageView.class)
+                    .setFetchSize(SCROLL_FETCH_SIZE);
+            if (!condition.isEmpty()) {
+                query.setParameter("cutoffId", SnowflakeIdGenerator.firstIdAt(cutoffMillis))
+                        .setParameter("cutoffTime", new Date(cutoffMillis));
+            }
+            try (ScrollableResults<MessageView> messages = query.scroll(ScrollMode.FORWARD_ONLY)) {
+                while (messages.next()) {
+                    consumer.accept(messages.get());
+                    count++;
+                }
+            }
+            return count;
+        });
+    }
+
+    /**
+     * Returns the ID of the conversation between two users, creating it on first use.
+     * Two threads creating the same conversation race on its unique pair; the loser
+     * reads the winner's row.
+     */
+    private long conversationId(long userId, long otherId) {
+        Long id = findConversationId(userId, otherId);
+        if (id != null) {
+            return id;
+        }
+        UserPair pair = UserPair.of(userId, otherId);
+        try {
+            id = template.execute(session -> {
+                Conversation conversation = new Conversation(
+                        session.getReference(User.class, pair.low()),
+                        session.getReference(User.class, pair.high()));
+                session.persist(conversation);
+                return conversation.getId();
+            });
+        } catch (PersistenceException e) {
+            id = findConversationId(userId, otherId);
+            if (id == null) {
+                throw e;
+            }
+        }
+        cacheConversationId(pair, id);
+        return id;
+    }
+
+    /**
+     * Returns the ID of the conversation between two users.
+     *
+     * @return the ID of the conversation, or null if the users never exchanged a message
+     */
+    private Long findConversationId(long userId, long otherId) {
+        UserPair pair = UserPair.of(userId, otherId);
+        conversationIdsLock.lock();
+        try {
+            Long id = conversationIds.get(pair);
+            if (id != null) {
+                return id;
+            }
+        } finally {
+            conversationIdsLock.unlock();
+        }
+        Long id = template.read(session -> session.createQuery(
+                        "select c.id from Conversation c where c.userLow.id = :low and c.userHigh.id = :high", Long.class)
+                .setParameter("low", pair.low())
+                .setParameter("high", pair.high())
+                .uniqueResult());
+        if (id != null) {
+            cacheConversationId(pair, id);
+        }
+        return id;
+    }
+
+    private void cacheConversationId(UserPair pair, long id) {
+        conversationIdsLock.lock();
+        try {
+            conversationIds.put(pair, id);
+        } finally {
+            conversationIdsLock.unlock();
+        }
+    }
+
+    /**
+     * Reserves sequence numbers for messages of a conversation. Concurrent writers
+     * to the same conversation wait for each other on its row until commit.
+     *
+     * @return the last reserved sequence number
+     */
+    private static long reserveSeq(Session session, long conversationId, int count) {
+        return session.doReturningWork(connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(RESERVE_SEQ)) {
+                statement.setLong(1, count);
+                statement.setLong(2, conversationId);
+                try (ResultSet result = statement.executeQuery()) {
+                    if (!result.next()) {
+                        throw new IllegalStateException("Conversation " + conversationId + " does not exist");
+                    }
+                    return result.getLong(1);
+                }
+            }
+        });
+    }
+
+    /**
+     * The two users of a conversation in canonical order, the lower ID first.
+     */
+    private record UserPair(long low, long high) {
+        static UserPair of(long userId, long otherId) {
+            return userId < otherId ? new UserPair(userId, otherId) : new UserPair(otherId, userId);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package org.example.persistence;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * HibernateMessageStore is the {@link MessageStore} kept in the messages
+ * table, through a {@link MessageRepository}. With an archive, reads that go
+ * past the oldest message left in the table carry on into the messages
+ * {@link MessageRetention} moved to the archive. Archived messages are no
+ * longer counted as unread nor marked read.
+ */
+public class HibernateMessageStore implements MessageStore {
+
+    private final MessageRepository messages;
+    private final MessageArchive archive;
+
+    /**
+     * Constructs a new HibernateMessageStore without an archive.
+     *
+     * @param messages the repository holding the messages
+     */
+    public HibernateMessageStore(MessageRepository messages) {
+        this(messages, null);
+    }
+
+    /**
+     * Constructs a new HibernateMessageStore.
+     *
+     * @param messages the repository holding the messages
+     * @param archive  the archive of the older messages, or null if there is none
+     */
+    public HibernateMessageStore(MessageRepository messages, MessageArchive archive) {
+        this.messages = messages;
+        this.archive = archive;
+    }
+
+    @Override
+    public List<MessageView> append(List<NewMessage> newMessages) {
+        return messages.saveAll(newMessages);
+    }
+
+    @Override
+    public List<MessageView> read(long userId, long otherId, long beforeSeq, int limit) {
+        List<MessageView> page = messages.findConversationPage(userId, otherId, beforeSeq, limit);
+        if (archive == null || page.size() >= limit) {
+            return page;
+        }
+        List<MessageView> archived = archive.read(userId, otherId, beforeSeq, limit);
+        if (archived.isEmpty()) {
+            return page;
+        }
+        // a message being archived can be in both for a moment
+        TreeMap<Long, MessageView> newest = new TreeMap<>();
+        for (MessageView message : archived) {
+            newest.put(message.getSeq(), message);
+        }
+        for (MessageView message : page) {
+            newest.put(message.getSeq(), message);
+        }
+        while (newest.size() > limit) {
+            newest.pollFirstEntry();
+        }
+        return new ArrayList<>(newest.values());
+    }
+
+    @Override
+    public int markRead(long readerId, long otherId) {
+        return messages.markRead(otherId, readerId);
+    }
+
+    @Override
+    public int countUnread(long senderId, long recipientId) {
+        return messages.countUnread(senderId, recipientId);
+    }
+
+    @Override
+    public Map<Long, Integer> countUnreadBySender(long recipientId) {
+        return messages.countUnreadBySender(recipientId);
+    }
+
+    @Override
+    public void scan(Consumer<MessageView> consumer) {
+        // the archive holds the older messages of every conversation; a retention run
+        // that stopped before its deletes leaves some of them in the table as well.
+        // Retention archives the messages below both an ID and a time, so a row below
+        // the newest archived ID and time was archived
+        AtomicLong lastArchivedId = new AtomicLong(Long.MIN_VALUE);
+        AtomicLong lastArchivedTime = new AtomicLong(Long.MIN_VALUE);
+        if (archive != null) {
+            archive.forEach(message -> {
+                lastArchivedId.accumulateAndGet(message.getId(), Math::max);
+                if (message.getTimestamp() != null) {
+                    lastArchivedTime.accumulateAndGet(message.getTimestamp().getTime(), Math::max);
+                }
+                consumer.accept(message);
+            });
+        }
+        messages.forEachMessage(message -> {
+            if (message.getId() > lastArchivedId.get() || message.getTimestamp() == null
+                    || message.getTimestamp().getTime() > lastArchivedTime.get()) {
+                consumer.accept(message);
+            }
+        });
+    }
+
+    @Override
+    public void close() {
+        // the session factory is shared with the other repositories and outlives the store
+        if (archive != null) {
+            archive.close();
+        }
+    }
+}
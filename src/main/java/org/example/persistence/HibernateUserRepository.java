@@ -0,0 +1,221 @@
+package org.example.persistence;
+
+import org.example.models.User;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.Session;
+import org.hibernate.query.NativeQuery;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * HibernateUserRepository is the {@link UserRepository} backed by Hibernate.
+ */
+public class HibernateUserRepository implements UserRepository {
+
+    // SQL Server accepts at most 2100 parameters per statement
+    private static final int MAX_IN_LIST = 1000;
+    private static final int FRIEND_EDGE_FETCH_SIZE = 5000;
+    // no cache region depends on it; the friend lists are evicted from their collection region
+    private static final String FRIENDS_TABLE = "user_friends";
+    // each friendship binds its two IDs twice, staying under the 2100 parameter limit
+    private static final int MAX_FRIENDSHIPS_PER_INSERT = 500;
+
+    private final TransactionTemplate template;
+
+    /**
+     * Constructs a new HibernateUserRepository running its work through the specified template.
+     *
+     * @param template the template running each unit of work
+     */
+    public HibernateUserRepository(TransactionTemplate template) {
+        this.template = template;
+    }
+
+    @Override
+    public void save(User user) {
+        template.executeWithoutResult(session -> session.persist(user));
+    }
+
+    @Override
+    public User update(User user) {
+        return template.execute(session -> session.merge(user));
+    }
+
+    @Override
+    public void delete(User user) {
+        template.executeWithoutResult(session -> {
+            // the conversations of the user refer to it, so they go first together with their messages
+            session.createMutationQuery("delete from Message m where m.conversation.id in " +
+                            "(select c.id from Conversation c where c.userLow.id = :user or c.userHigh.id = :user)")
+                    .setParameter("user", user.getId())
+                    .executeUpdate();
+            session.createMutationQuery("delete from Conversation c where c.userLow.id = :user or c.userHigh.id = :user")
+                    .setParameter("user", user.getId())
+                    .executeUpdate();
+            // the user's own rows would go with it, the rows naming it as a friend would not
+            TransactionTemplate.nativeMutation(session,
+                            "delete from user_friends where user_id = :user or friend_id = :user")
+                    .addSynchronizedQuerySpace(FRIENDS_TABLE)
+                    .setParameter("user", user.getId())
+                    .executeUpdate();
+            // nothing cascades from a user, so removing it loads nothing more
+            User managed = session.get(User.class, user.getId());
+            if (managed != null) {
+                session.remove(managed);
+            }
+        });
+    }
+
+    @Override
+    public User findByUsername(String username) {
+        return template.read(session -> session.createNamedQuery("User.byUsername", User.class)
+                .setParameter("username", username)
+                .uniqueResult());
+    }
+
+    @Override
+    public User findByCredentials(String username, String password) {
+        return template.read(session -> session.createQuery("from User where username = :username and password = :password", User.class)
+                .setParameter("username", username)
+                .setParameter("password", password)
+                .uniqueResult());
+    }
+
+    @Override
+    public Map<Long, String> findUsernames(Collection<Long> ids) {
+        List<Long> list = new ArrayList<>(ids);
+        return template.read(session -> {
+            Map<Long, String> usernames = new HashMap<>();
+            for (int from = 0; from < list.size(); from += MAX_IN_LIST) {
+                for (Object[] row : session.createQuery("select id, username from User where id in (:ids)", Object[].class)
+                        .setParameterList("ids", list.subList(from, Math.min(list.size(), from + MAX_IN_LIST)))
+                        .list()) {
+                    usernames.put((Long) row[0], (String) row[1]);
+                }
+            }
+            return usernames;
+        });
+    }
+
+    @Override
+    public List<FriendView> findFriends(String username) {
+        return template.read(session -> {
+            List<Object[]> rows = session.createNamedQuery("User.friendViews", Object[].class)
+                    .setParameter("username", username)
+                    .list();
+            if (rows.isEmpty()) {
+                return null;
+            }
+            List<FriendView> friends = new ArrayList<>(rows.size());
+            for (Object[] row : rows) {
+                if (row[0] != null) {
+                    friends.add(new FriendView((Long) row[0], (String) row[1], (Boolean) row[2]));
+                }
+            }
+            return friends;
+        });
+    }
+
+    @Override
+    public void setFriendship(long userId, long friendId, boolean friends) {
+        template.executeWithoutResult(session -> setFriendship(session, userId, friendId, friends));
+    }
+
+    /**
+     * Adds or removes a friendship on both sides within the session's transaction,
+     * writing only the two user_friends rows. Neither user is loaded; the cached
+     * friend lists are evicted by the caller through {@link SecondLevelCache}.
+     */
+    static void setFriendship(Session session, long userId, long friendId, boolean friends) {
+        if (friends) {
+            addFriendships(session, new long[]{userId}, new long[]{friendId});
+        } else {
+            TransactionTemplate.nativeMutation(session, "delete from user_friends " +
+                            "where user_id = :user and friend_id = :friend or user_id = :friend and friend_id = :user")
+                    .addSynchronizedQuerySpace(FRIENDS_TABLE)
+                    .setParameter("user", userId)
+                    .setParameter("friend", friendId)
+                    .executeUpdate();
+        }
+    }
+
+    /**
+     * Adds friendships on both sides within the session's transaction, skipping
+     * the rows that already exist, in one statement per {@value #MAX_FRIENDSHIPS_PER_INSERT} friendships.
+     *
+     * @param userIds   the ID of the first user of each friendship
+     * @param friendIds the ID of the second user of each friendship, at the same index
+     */
+    static void addFriendships(Session session, long[] userIds, long[] friendIds) {
+        for (int from = 0; from < userIds.length; from += MAX_FRIENDSHIPS_PER_INSERT) {
+            int to = Math.min(userIds.length, from + MAX_FRIENDSHIPS_PER_INSERT);
+            StringBuilder rows = new StringBuilder();
+            for (int i = from; i < to; i++) {
+                rows.append(i == from ? "" : ", ")
+                        .append("(:u").append(i).append(", :f").append(i).append("), ")
+                        .append("(:f").append(i).append(", :u").append(i).append(")");
+            }
+            NativeQuery<?> insert = TransactionTemplate.nativeMutation(session,
+                            "insert into user_friends (user_id, friend_id) " +
+                            "select distinct v.user_id, v.friend_id from (values " + rows + ") v (user_id, friend_id) " +
+                            "where not exists (select 1 from user_friends f where f.user_id = v.user_id and f.friend_id = v.friend_id)")
+                    .addSynchronizedQuerySpace(FRIENDS_TABLE);
+            for (int i = from; i < to; i++) {
+                insert.setParameter("u" + i, userIds[i]).setParameter("f" + i, friendIds[i]);
+            }
+            insert.executeUpdate();
+        }
+    }
+
+    @Override
+    public void forEachFriendEdge(FriendEdgeConsumer consumer) {
+        template.read(session -> {
+            try (ScrollableResults<Object[]> rows = session.createNativeQuery(
+                            "select uf.user_id, uf.friend_id, u.username from user_friends uf " +
+                                    "join users u on u.id = uf.friend_id", Object[].class)
+                    .setFetchSize(FRIEND_EDGE_FETCH_SIZE)
+                    .scroll(ScrollMode.FORWARD_ONLY)) {
+                while (rows.next()) {
+                    Object[] row = rows.get();
+                    consumer.accept(((Number) row[0]).longValue(), ((Number) row[1]).longValue(), (String) row[2]);
+                }
+            }
+            return null;
+        });
+    }
+
+    @Override
+    public int setStatus(Collection<String> usernames, boolean status) {
+        if (usernames.isEmpty()) {
+            return 0;
+        }
+        List<String> names = new ArrayList<>(usernames);
+        List<Long> ids = template.execute(session -> {
+            List<Long> updated = new ArrayList<>();
+            for (int from = 0; from < names.size(); from += MAX_IN_LIST) {
+                // an HQL update would evict every cached user on each presence flush, so
+                // the update returns the IDs it changed and only those users are evicted
+                updated.addAll(session.createNativeQuery(
+                                "update users set isOnline = :status output inserted.id where username in (:usernames)", Long.class)
+                        .setParameter("status", status)
+                        .setParameterList("usernames", names.subList(from, Math.min(names.size(), from + MAX_IN_LIST)))
+                        .list());
+            }
+            return updated;
+        });
+        // after the commit, so a read in between cannot cache the old flag again
+        SecondLevelCache.evictUsers(ids);
+        return ids.size();
+    }
+
+    @Override
+    public int resetStatuses() {
+        return template.execute(session -> session.createMutationQuery("update User set isOnline = false where isOnline = true")
+                .executeUpdate());
+    }
+}
@@ -0,0 +1,73 @@
+package org.example.persistence;
+
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * IndexedMessageStore adds the messages appended to a store to the
+ * {@link MessageSearchIndex}, and passes everything else through. The index
+ * is derived from the history, so a message that fails to be indexed is still
+ * saved; the failure is reported and the index can be rebuilt.
+ */
+public class IndexedMessageStore implements MessageStore {
+
+    private final MessageStore store;
+    private final MessageSearchIndex index;
+
+    /**
+     * Constructs a new IndexedMessageStore.
+     *
+     * @param store the store holding the messages
+     * @param index the index the appended messages are added to
+     */
+    public IndexedMessageStore(MessageStore store, MessageSearchIndex index) {
+        this.store = store;
+        this.index = index;
+    }
+
+    @Override
+    public List<MessageView> append(List<NewMessage> messages) {
+        List<MessageView> saved = store.append(messages);
+        try {
+            index.add(saved);
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+        return saved;
+    }
+
+    @Override
+    public List<MessageView> read(long userId, long otherId, long beforeSeq, int limit) {
+        return store.read(userId, otherId, beforeSeq, limit);
+    }
+
+    @Override
+    public int markRead(long readerId, long otherId) {
+        return store.markRead(readerId, otherId);
+    }
+
+    @Override
+    public int countUnread(long senderId, long recipientId) {
+        return store.countUnread(senderId, recipientId);
+    }
+
+    @Override
+    public Map<Long, Integer> countUnreadBySender(long recipientId) {
+        return store.countUnreadBySender(recipientId);
+    }
+
+    @Override
+    public void scan(Consumer<MessageView> consumer) {
+        store.scan(consumer);
+    }
+
+    @Override
+    public void close() {
+        try {
+            store.close();
+        } finally {
+            index.close();
+        }
+    }
+}
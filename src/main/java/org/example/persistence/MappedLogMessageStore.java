@@ -0,0 +1,525 @@
+package org.example.persistence;
+
+import org.example.util.LongObjectHashMap;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * MappedLogMessageStore is a {@link MessageStore} kept in an append-only log
+ * of memory-mapped segment files, needing no database. Every message and
+ * every read receipt is a record appended to the newest segment; a full
+ * segment is left as is and a new one is started.
+ * <p>
+ * An index in memory holds, for each conversation, the position of each of
+ * its messages in the log, so a range read goes straight to its records.
+ * The index is rebuilt by scanning the log on open. A record carries a CRC,
+ * so a record torn by a crash ends the log instead of being read back.
+ * <p>
+ * Records are written through the mapping; they survive a crash of the
+ * process, and survive a crash of the machine only with {@code fsync} set.
+ * The files are owned by one process: the store does not see records
+ * appended by another process after it opened them.
+ */
+public class MappedLogMessageStore implements MessageStore {
+
+    private static final String SUFFIX = ".log";
+    private static final byte MESSAGE = 1;
+    private static final byte READ = 2;
+    // length, CRC of the rest of the record, type
+    private static final int HEADER_BYTES = 4 + 4 + 1;
+    // ID, sender, recipient, seq, timestamp, content length
+    private static final int MESSAGE_BYTES = HEADER_BYTES + 5 * 8 + 4;
+    // reader, other user, last seq read
+    private static final int READ_BYTES = HEADER_BYTES + 3 * 8;
+
+    private final Path directory;
+    private final int segmentBytes;
+    private final boolean fsync;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final List<Segment> segments = new ArrayList<>();
+    private final Map<ConversationKey, ConversationIndex> conversations = new HashMap<>();
+    // the conversations of each user, for the unread counts of a recipient
+    private final LongObjectHashMap<List<ConversationIndex>> conversationsByUser = new LongObjectHashMap<>(1024);
+    private boolean closed;
+
+    private final LongAdder appended = new LongAdder();
+    private final LongAdder reads = new LongAdder();
+
+    /**
+     * Opens the log in a directory, creating the directory if needed, and
+     * rebuilds the index from the segments found there.
+     *
+     * @param directory    the directory holding the segment files
+     * @param segmentBytes the size of each segment file
+     * @param fsync        whether each append waits for its records to reach the disk
+     * @throws IOException if the directory or a segment cannot be opened
+     */
+    public MappedLogMessageStore(Path directory, int segmentBytes, boolean fsync) throws IOException {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.fsync = fsync;
+        Files.createDirectories(directory);
+        List<Path> files;
+        try (Stream<Path> listing = Files.list(directory)) {
+            files = listing.filter(path -> path.getFileName().toString().endsWith(SUFFIX)).sorted().toList();
+        }
+        for (Path file : files) {
+            Segment segment = Segment.open(file, segments.size(), Math.max(segmentBytes, (int) Files.size(file)));
+            segments.add(segment);
+            recover(segment);
+        }
+        if (segments.isEmpty()) {
+            roll();
+        }
+    }
+
+    @Override
+    public List<MessageView> append(List<NewMessage> messages) {
+        List<MessageView> appendedMessages = new ArrayList<>(messages.size());
+        lock.writeLock().lock();
+        try {
+            checkOpen();
+            for (NewMessage message : messages) {
+                byte[] content = message.getContent().getBytes(StandardCharsets.UTF_8);
+                ConversationIndex conversation = conversation(message.getSenderId(), message.getRecipientId());
+                Segment segment = reserve(MESSAGE_BYTES + content.length);
+                int position = segment.position;
+                MappedByteBuffer buffer = segment.buffer;
+                long id = SnowflakeIdGenerator.nextId();
+                long seq = conversation.count + 1;
+                buffer.put(position + HEADER_BYTES - 1, MESSAGE)
+                        .putLong(position + HEADER_BYTES, id)
+                        .putLong(position + HEADER_BYTES + 8, message.getSenderId())
+                        .putLong(position + HEADER_BYTES + 16, message.getRecipientId())
+                        .putLong(position + HEADER_BYTES + 24, seq)
+                        .putLong(position + HEADER_BYTES + 32, message.getTimestamp().getTime())
+                        .putInt(position + HEADER_BYTES + 40, content.length)
+                        .put(position + MESSAGE_BYTES, content);
+                seal(segment, MESSAGE_BYTES + content.length);
+                conversation.add(segment.index, position, message.getSenderId() == conversation.key.high());
+                appendedMessages.add(new MessageView(id, message.getSenderId(), message.getRecipientId(),
+                        message.getContent(), message.getTimestamp(), false, seq));
+            }
+            force(active());
+            appended.add(messages.size());
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return appendedMessages;
+    }
+
+    @Override
+    public List<MessageView> read(long userId, long otherId, long beforeSeq, int limit) {
+        reads.increment();
+        lock.readLock().lock();
+        try {
+            checkOpen();
+            ConversationIndex conversation = conversations.get(ConversationKey.of(userId, otherId));
+            List<MessageView> page = new ArrayList<>();
+            if (conversation == null) {
+                return page;
+            }
+            // seq n is at index n - 1
+            int end = (int) Math.min(conversation.count, beforeSeq - 1);
+            for (int i = Math.max(0, end - limit); i < end; i++) {
+                page.add(decode(conversation, i));
+            }
+            return page;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public int markRead(long readerId, long otherId) {
+        lock.writeLock().lock();
+        try {
+            checkOpen();
+            ConversationIndex conversation = conversations.get(ConversationKey.of(readerId, otherId));
+            if (conversation == null) {
+                return 0;
+            }
+            int unread = conversation.countUnread(readerId);
+            if (unread == 0) {
+                return 0;
+            }
+            Segment segment = reserve(READ_BYTES);
+            int position = segment.position;
+            segment.buffer.put(position + HEADER_BYTES - 1, READ)
+                    .putLong(position + HEADER_BYTES, readerId)
+                    .putLong(position + HEADER_BYTES + 8, otherId)
+                    .putLong(position + HEADER_BYTES + 16, conversation.count);
+            seal(segment, READ_BYTES);
+            conversation.markRead(readerId, conversation.count);
+            force(segment);
+            return unread;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public int countUnread(long senderId, long recipientId) {
+        lock.readLock().lock();
+        try {
+            ConversationIndex conversation = conversations.get(ConversationKey.of(senderId, recipientId));
+            return conversation == null ? 0 : conversation.countUnread(recipientId);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Map<Long, Integer> countUnreadBySender(long recipientId) {
+        lock.readLock().lock();
+        try {
+            Map<Long, Integer> counts = new HashMap<>();
+            List<ConversationIndex> ofRecipient = conversationsByUser.get(recipientId);
+            if (ofRecipient != null) {
+                for (ConversationIndex conversation : ofRecipient) {
+                    int unread = conversation.countUnread(recipientId);
+                    if (unread > 0) {
+                        counts.put(conversation.key.other(recipientId), unread);
+                    }
+                }
+            }
+            return counts;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void scan(Consumer<MessageView> consumer) {
+        lock.readLock().lock();
+        try {
+            checkOpen();
+            for (ConversationIndex conversation : conversations.values()) {
+                for (int i = 0; i < conversation.count; i++) {
+                    consumer.accept(decode(conversation, i));
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        lock.writeLock().lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            for (Segment segment : segments) {
+                segment.buffer.force();
+                segment.channel.close();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the number of bytes of records in the log.
+     *
+     * @return the size of the log
+     */
+    public long sizeBytes() {
+        lock.readLock().lock();
+        try {
+            long bytes = 0;
+            for (Segment segment : segments) {
+                bytes += segment.position;
+            }
+            return bytes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns a one-line summary of the store.
+     *
+     * @return the summary
+     */
+    public String summary() {
+        int segmentCount;
+        int conversationCount;
+        lock.readLock().lock();
+        try {
+            segmentCount = segments.size();
+            conversationCount = conversations.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+        return "segments=" + segmentCount +
+                " conversations=" + conversationCount +
+                " sizeKB=" + sizeBytes() / 1024 +
+                " appended=" + appended.sum() +
+                " reads=" + reads.sum() +
+                " fsync=" + fsync;
+    }
+
+    /**
+     * Reads the valid records of a segment into the index and moves its
+     * position to the end of them.
+     */
+    private void recover(Segment segment) {
+        MappedByteBuffer buffer = segment.buffer;
+        int position = 0;
+        while (position + HEADER_BYTES <= buffer.capacity()) {
+            int length = buffer.getInt(position);
+            if (length < HEADER_BYTES || position + length > buffer.capacity()
+                    || buffer.getInt(position + 4) != crc(segment, position, length)) {
+                break;
+            }
+            if (buffer.get(position + HEADER_BYTES - 1) == MESSAGE) {
+                long senderId = buffer.getLong(position + HEADER_BYTES + 8);
+                ConversationIndex conversation = conversation(senderId, buffer.getLong(position + HEADER_BYTES + 16));
+                conversation.add(segment.index, position, senderId == conversation.key.high());
+            } else {
+                long readerId = buffer.getLong(position + HEADER_BYTES);
+                ConversationIndex conversation = conversation(readerId, buffer.getLong(position + HEADER_BYTES + 8));
+                conversation.markRead(readerId, buffer.getLong(position + HEADER_BYTES + 16));
+            }
+            position += length;
+        }
+        segment.position = position;
+        segment.forced = position;
+    }
+
+    private MessageView decode(ConversationIndex conversation, int index) {
+        Segment segment = segments.get(conversation.segmentOf(index));
+        MappedByteBuffer buffer = segment.buffer;
+        int position = conversation.positionOf(index);
+        long senderId = buffer.getLong(position + HEADER_BYTES + 8);
+        long recipientId = buffer.getLong(position + HEADER_BYTES + 16);
+        long seq = buffer.getLong(position + HEADER_BYTES + 24);
+        byte[] content = new byte[buffer.getInt(position + HEADER_BYTES + 40)];
+        buffer.get(position + MESSAGE_BYTES, content);
+        return new MessageView(buffer.getLong(position + HEADER_BYTES), senderId, recipientId,
+                new String(content, StandardCharsets.UTF_8), new Date(buffer.getLong(position + HEADER_BYTES + 32)),
+                seq <= conversation.readBy(recipientId), seq);
+    }
+
+    private ConversationIndex conversation(long userId, long otherId) {
+        ConversationKey key = ConversationKey.of(userId, otherId);
+        ConversationIndex conversation = conversations.get(key);
+        if (conversation == null) {
+            conversation = new ConversationIndex(key);
+            conversations.put(key, conversation);
+            byUser(key.low()).add(conversation);
+            if (key.high() != key.low()) {
+                byUser(key.high()).add(conversation);
+            }
+        }
+        return conversation;
+    }
+
+    private List<ConversationIndex> byUser(long userId) {
+        List<ConversationIndex> ofUser = conversationsByUser.get(userId);
+        if (ofUser == null) {
+            ofUser = new ArrayList<>(4);
+            conversationsByUser.put(userId, ofUser);
+        }
+        return ofUser;
+    }
+
+    /**
+     * Returns the segment with room for a record, starting a new one when the newest is full.
+     */
+    private Segment reserve(int length) {
+        // a segment always ends with a zero length, which ends its scan on recovery
+        if (length + 4 > segmentBytes) {
+            throw new IllegalArgumentException("Record of " + length + " bytes does not fit in a segment");
+        }
+        Segment segment = active();
+        if (segment.position + length + 4 > segment.buffer.capacity()) {
+            force(segment);
+            segment = roll();
+        }
+        return segment;
+    }
+
+    /**
+     * Writes the length and CRC of the record at the segment's position, ends
+     * the segment's records after it, then moves past it.
+     */
+    private static void seal(Segment segment, int length) {
+        MappedByteBuffer buffer = segment.buffer;
+        int position = segment.position;
+        buffer.putInt(position, length);
+        buffer.putInt(position + 4, crc(segment, position, length));
+        buffer.putInt(position + length, 0);
+        segment.position = position + length;
+    }
+
+    private static int crc(Segment segment, int position, int length) {
+        // the view is reused, a slice per record made recovery mostly garbage collection
+        ByteBuffer view = segment.crcView;
+        CRC32C crc = segment.crc;
+        crc.reset();
+        crc.update(view.limit(position + 4).position(position));
+        crc.update(view.limit(position + length).position(position + 8));
+        return (int) crc.getValue();
+    }
+
+    private void force(Segment segment) {
+        if (fsync && segment.position > segment.forced) {
+            segment.buffer.force(segment.forced, segment.position - segment.forced);
+            segment.forced = segment.position;
+        }
+    }
+
+    private Segment active() {
+        return segments.get(segments.size() - 1);
+    }
+
+    private Segment roll() {
+        try {
+            Path file = directory.resolve(String.format("%020d%s", segments.size(), SUFFIX));
+            Segment segment = Segment.open(file, segments.size(), segmentBytes);
+            segments.add(segment);
+            return segment;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("Message store is closed");
+        }
+    }
+
+    /**
+     * A segment file mapped in full; its position is the end of its records,
+     * and the records before {@code forced} are known to be on disk.
+     */
+    private static final class Segment {
+        final int index;
+        final FileChannel channel;
+        final MappedByteBuffer buffer;
+        final ByteBuffer crcView;
+        final CRC32C crc = new CRC32C();
+        int position;
+        int forced;
+
+        private Segment(int index, FileChannel channel, MappedByteBuffer buffer) {
+            this.index = index;
+            this.channel = channel;
+            this.buffer = buffer;
+            this.crcView = buffer.duplicate();
+        }
+
+        static Segment open(Path file, int index, int bytes) throws IOException {
+            FileChannel channel = FileChannel.open(file,
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            // mapping past the end grows the file, filled with zeros
+            return new Segment(index, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, bytes));
+        }
+    }
+
+    /**
+     * The two users of a conversation in canonical order, the lower ID first.
+     */
+    private record ConversationKey(long low, long high) {
+        static ConversationKey of(long userId, long otherId) {
+            return userId < otherId ? new ConversationKey(userId, otherId) : new ConversationKey(otherId, userId);
+        }
+
+        long other(long userId) {
+            return userId == low ? high : low;
+        }
+
+        @Override
+        public int hashCode() {
+            // the default 31 * low + high puts the pairs of neighbouring IDs in few buckets
+            long hash = (low * 0x9E3779B97F4A7C15L ^ high) * 0xBF58476D1CE4E5B9L;
+            return (int) (hash ^ (hash >>> 32));
+        }
+    }
+
+    /**
+     * The positions of the messages of one conversation in seq order, and how
+     * far each user has read. Each entry packs the segment, the position in
+     * it, and whether the higher user sent the message.
+     */
+    private static final class ConversationIndex {
+        final ConversationKey key;
+        long[] entries = new long[8];
+        int count;
+        long readByLow;
+        long readByHigh;
+
+        ConversationIndex(ConversationKey key) {
+            this.key = key;
+        }
+
+        void add(int segment, int position, boolean sentByHigh) {
+            if (count == entries.length) {
+                entries = Arrays.copyOf(entries, count * 2);
+            }
+            entries[count++] = (long) segment << 33 | (long) position << 1 | (sentByHigh ? 1 : 0);
+        }
+
+        int segmentOf(int index) {
+            return (int) (entries[index] >>> 33);
+        }
+
+        int positionOf(int index) {
+            return (int) (entries[index] >>> 1 & 0xFFFFFFFFL);
+        }
+
+        long readBy(long userId) {
+            return userId == key.low() ? readByLow : readByHigh;
+        }
+
+        void markRead(long userId, long seq) {
+            if (userId == key.low()) {
+                readByLow = Math.max(readByLow, seq);
+            } else {
+                readByHigh = Math.max(readByHigh, seq);
+            }
+        }
+
+        /**
+         * Counts the messages a user received after the last one it read,
+         * walking back from the newest message.
+         */
+        int countUnread(long recipientId) {
+            boolean recipientIsHigh = recipientId == key.high() && key.high() != key.low();
+            int unread = 0;
+            for (int i = count - 1; i >= readBy(recipientId); i--) {
+                boolean sentByHigh = (entries[i] & 1) == 1;
+                if (sentByHigh != recipientIsHigh) {
+                    unread++;
+                }
+            }
+            return unread;
+        }
+    }
+}
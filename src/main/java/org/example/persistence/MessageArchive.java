@@ -0,0 +1,1029 @@
+package org.example.persistence;
+
+import org.example.util.IoThrottle;
+import org.example.util.LongHashSet;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * MessageArchive keeps the messages moved out of the messages table in
+ * immutable segment files on local disk. A segment holds its messages sorted
+ * by conversation, and each conversation's by sequence number, packed into
+ * blocks of about 16 KB compressed with Deflate. It ends with a table of its
+ * blocks and a directory of its conversations; only those are kept in memory,
+ * and a read inflates just the blocks of the range it asks for.
+ * <p>
+ * A segment is written to a temporary file and renamed into place once it is
+ * complete and on disk, so a crash never leaves half a segment behind. Segments
+ * are not changed afterwards; {@link #compact} replaces the smallest ones with
+ * one merged segment, leaving out the conversations of deleted users.
+ * A message archived twice, by a crash between archiving it and deleting it
+ * from the table, is read back once.
+ * <p>
+ * One process writes the archive. Others, like the desktop client, open it with
+ * {@link #openReadOnly}: they see the segments written and merged since by
+ * looking at the directory again whenever it has changed.
+ */
+public class MessageArchive {
+
+    private static final String SUFFIX = ".archive";
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+    private static final int MAGIC = 0x4D534741;
+    private static final int BLOCK_BYTES = 16 * 1024;
+    private static final int BLOCK_CACHE_SIZE = 1024;
+    // seq, ID, sender, recipient, timestamp, read, content length
+    private static final int RECORD_BYTES = 5 * 8 + 1 + 4;
+    private static final long NO_TIMESTAMP = Long.MIN_VALUE;
+    // low user, high user and seq of the block's first message, then its
+    // offset, compressed length, length, and the CRC of the compressed bytes
+    private static final int BLOCK_ENTRY_BYTES = 3 * 8 + 8 + 4 + 4 + 4;
+    // low user, high user, first block, last block, first seq, last seq
+    private static final int CONVERSATION_ENTRY_BYTES = 8 + 8 + 4 + 4 + 8 + 8;
+    // table offset, block count, conversation count, CRC of the tables, magic
+    private static final int FOOTER_BYTES = 8 + 4 + 4 + 4 + 4;
+
+    private final Path directory;
+    private final boolean readOnly;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    // one merge at a time; held through the merge's I/O, so not the read-write lock
+    private final ReentrantLock compactLock = new ReentrantLock();
+    // oldest first
+    private final List<Segment> segments = new ArrayList<>();
+    private long nextNumber;
+    private boolean closed;
+    // the modification time of the directory when a read-only archive last listed it
+    private volatile FileTime listedModified;
+    private final ReentrantLock blockCacheLock = new ReentrantLock();
+    // inflated blocks by segment number and block; segment numbers are never reused
+    private final Map<BlockKey, byte[]> blockCache = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<BlockKey, byte[]> eldest) {
+            return size() > BLOCK_CACHE_SIZE;
+        }
+    };
+
+    private final LongAdder reads = new LongAdder();
+    private final LongAdder blockLoads = new LongAdder();
+    private final LongAdder compactions = new LongAdder();
+
+    /**
+     * Opens the archive in a directory, creating the directory if needed. Segments
+     * left unfinished by a crash are deleted.
+     *
+     * @param directory the directory holding the segment files
+     * @throws IOException if the directory or a segment cannot be read
+     */
+    public MessageArchive(Path directory) throws IOException {
+        this(directory, false);
+    }
+
+    private MessageArchive(Path directory, boolean readOnly) throws IOException {
+        this.directory = directory;
+        this.readOnly = readOnly;
+        if (readOnly) {
+            listedModified = Files.getLastModifiedTime(directory);
+        } else {
+            Files.createDirectories(directory);
+        }
+        for (Path file : list()) {
+            String name = file.getFileName().toString();
+            if (name.endsWith(TEMPORARY_SUFFIX)) {
+                if (!readOnly) {
+                    Files.delete(file);
+                }
+            } else if (name.endsWith(SUFFIX)) {
+                Segment segment = openSegment(file);
+                if (segment != null) {
+                    segments.add(segment);
+                    nextNumber = Math.max(nextNumber, segment.number + 1);
+                }
+            }
+        }
+    }
+
+    /**
+     * Opens the archive another process writes, to read it. Segments being
+     * written are left alone, and the segments committed and merged away by the
+     * writer are picked up at the next read.
+     *
+     * @param directory the directory holding the segment files
+     * @return the archive
+     * @throws IOException if the directory or a segment cannot be read
+     */
+    public static MessageArchive openReadOnly(Path directory) throws IOException {
+        return new MessageArchive(directory, true);
+    }
+
+    /**
+     * Starts a new segment. Messages are added to it in conversation order and
+     * become readable when it is committed.
+     *
+     * @param throttle the throttle the segment's writes are held to
+     * @return the writer of the segment
+     * @throws IOException if the segment file cannot be created
+     */
+    public Writer newSegment(IoThrottle throttle) throws IOException {
+        long number;
+        lock.writeLock().lock();
+        try {
+            checkWritable();
+            number = nextNumber++;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return new Writer(number, throttle);
+    }
+
+    /**
+     * Reads a range of an archived conversation: the newest messages before a
+     * sequence number, oldest first.
+     *
+     * @param userId    the ID of one user
+     * @param otherId   the ID of the other user
+     * @param beforeSeq the sequence number the range ends before, or {@link Long#MAX_VALUE} for the newest messages
+     * @param limit     the largest number of messages returned
+     * @return the messages of the range, oldest first
+     */
+    public List<MessageView> read(long userId, long otherId, long beforeSeq, int limit) {
+        reads.increment();
+        refresh();
+        long low = Math.min(userId, otherId);
+        long high = Math.max(userId, otherId);
+        // a message archived twice is in two segments under the same seq
+        TreeMap<Long, MessageView> newest = new TreeMap<>();
+        lock.readLock().lock();
+        try {
+            checkOpen();
+            List<Segment> holding = new ArrayList<>();
+            List<Integer> conversations = new ArrayList<>();
+            for (Segment segment : segments) {
+                int conversation = segment.find(low, high);
+                if (conversation >= 0 && segment.firstSeq[conversation] < beforeSeq) {
+                    holding.add(segment);
+                    conversations.add(conversation);
+                }
+            }
+            // the segments with the newest messages of the conversation first, so
+            // the others are skipped once they cannot make the page
+            Integer[] order = new Integer[holding.size()];
+            for (int i = 0; i < order.length; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, Comparator.comparingLong(i -> -holding.get(i).lastSeq[conversations.get(i)]));
+            for (int i : order) {
+                Segment segment = holding.get(i);
+                int conversation = conversations.get(i);
+                if (newest.size() >= limit && segment.lastSeq[conversation] < newest.firstKey()) {
+                    break;
+                }
+                int taken = 0;
+                int block = segment.lastBlockBefore(conversation, low, high, beforeSeq);
+                for (; block >= segment.firstBlock[conversation] && taken < limit; block--) {
+                    List<MessageView> matching = matching(block(segment, block, true), low, high, beforeSeq);
+                    for (int m = matching.size() - 1; m >= 0 && taken < limit; m--) {
+                        newest.putIfAbsent(matching.get(m).getSeq(), matching.get(m));
+                        taken++;
+                    }
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        while (newest.size() > limit) {
+            newest.pollFirstEntry();
+        }
+        return new ArrayList<>(newest.values());
+    }
+
+    /**
+     * Passes every archived message to a consumer, segment by segment. A message
+     * archived twice is passed twice.
+     *
+     * @param consumer the consumer receiving each message
+     */
+    public void forEach(Consumer<MessageView> consumer) {
+        refresh();
+        lock.readLock().lock();
+        try {
+            checkOpen();
+            for (Segment segment : segments) {
+                for (int block = 0; block < segment.blockOffset.length; block++) {
+                    ByteBuffer records = ByteBuffer.wrap(block(segment, block, false));
+                    while (records.hasRemaining()) {
+                        consumer.accept(decode(records));
+                    }
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Merges the smallest segments into one once there are more than a number
+     * of them, so reads look into few files. The conversations of users that no
+     * longer exist are left out of the merged segment.
+     *
+     * @param maxSegments   the number of segments kept without merging
+     * @param existingUsers returns which of the given user IDs still exist
+     * @param throttle      the throttle the merge's reads and writes are held to
+     * @return the number of segments merged, 0 if there were few enough
+     * @throws IOException if a segment cannot be read or written
+     */
+    public int compact(int maxSegments, Function<Collection<Long>, Collection<Long>> existingUsers,
+                       IoThrottle throttle) throws IOException {
+        compactLock.lock();
+        try {
+            return merge(maxSegments, existingUsers, throttle);
+        } finally {
+            compactLock.unlock();
+        }
+    }
+
+    private int merge(int maxSegments, Function<Collection<Long>, Collection<Long>> existingUsers,
+                      IoThrottle throttle) throws IOException {
+        List<Segment> merged;
+        lock.readLock().lock();
+        try {
+            checkWritable();
+            if (segments.size() <= Math.max(1, maxSegments)) {
+                return 0;
+            }
+            merged = new ArrayList<>(segments);
+        } finally {
+            lock.readLock().unlock();
+        }
+        merged.sort(Comparator.comparingLong(segment -> segment.size));
+        merged = new ArrayList<>(merged.subList(0, Math.max(2, merged.size() - Math.max(1, maxSegments) + 1)));
+        // the newest copy of a message archived twice wins
+        merged.sort(Comparator.comparingLong((Segment segment) -> segment.number).reversed());
+
+        LongHashSet users = new LongHashSet();
+        for (Segment segment : merged) {
+            for (int i = 0; i < segment.low.length; i++) {
+                users.add(segment.low[i]);
+                users.add(segment.high[i]);
+            }
+        }
+        List<Long> ids = new ArrayList<>(users.size());
+        for (long id : users.toArray()) {
+            ids.add(id);
+        }
+        LongHashSet existing = new LongHashSet(users.size());
+        for (long id : existingUsers.apply(ids)) {
+            existing.add(id);
+        }
+
+        List<Cursor> cursors = new ArrayList<>();
+        for (Segment segment : merged) {
+            Cursor cursor = new Cursor(segment, throttle);
+            if (cursor.next()) {
+                cursors.add(cursor);
+            }
+        }
+        try (Writer writer = newSegment(throttle)) {
+            while (!cursors.isEmpty()) {
+                Cursor first = cursors.get(0);
+                for (Cursor cursor : cursors) {
+                    if (cursor.compareTo(first) < 0) {
+                        first = cursor;
+                    }
+                }
+                MessageView message = first.message();
+                long low = first.low;
+                long high = first.high;
+                long seq = first.seq;
+                if (existing.contains(low) && existing.contains(high)) {
+                    writer.add(message);
+                }
+                for (int i = cursors.size() - 1; i >= 0; i--) {
+                    Cursor cursor = cursors.get(i);
+                    if (cursor.low == low && cursor.high == high && cursor.seq == seq && !cursor.next()) {
+                        cursors.remove(i);
+                    }
+                }
+            }
+            writer.commit();
+        }
+
+        lock.writeLock().lock();
+        try {
+            segments.removeAll(merged);
+            for (Segment segment : merged) {
+                segment.channel.close();
+                Files.delete(segment.file);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        compactions.increment();
+        return merged.size();
+    }
+
+    /**
+     * Returns the number of segments.
+     *
+     * @return the number of segments
+     */
+    public int segmentCount() {
+        lock.readLock().lock();
+        try {
+            return segments.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the size of the segment files.
+     *
+     * @return the size of the archive in bytes
+     */
+    public long sizeBytes() {
+        lock.readLock().lock();
+        try {
+            long size = 0;
+            for (Segment segment : segments) {
+                size += segment.size;
+            }
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Closes the segment files. Reads and new segments are not accepted afterwards.
+     */
+    public void close() {
+        lock.writeLock().lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            for (Segment segment : segments) {
+                segment.channel.close();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns a one-line summary of the archive.
+     *
+     * @return the summary
+     */
+    public String summary() {
+        return "segments=" + segmentCount() +
+                " bytes=" + sizeBytes() +
+                " reads=" + reads.sum() +
+                " blockLoads=" + blockLoads.sum() +
+                " compactions=" + compactions.sum();
+    }
+
+    /**
+     * Returns the inflated records of a block, from the cache if it is there.
+     * Merges pass {@code cache} false, so a pass over whole segments does not
+     * push out the blocks readers are using.
+     */
+    private byte[] block(Segment segment, int block, boolean cache) {
+        BlockKey key = new BlockKey(segment.number, block);
+        if (cache) {
+            blockCacheLock.lock();
+            try {
+                byte[] records = blockCache.get(key);
+                if (records != null) {
+                    return records;
+                }
+            } finally {
+                blockCacheLock.unlock();
+            }
+        }
+        blockLoads.increment();
+        byte[] records = segment.inflate(block);
+        if (cache) {
+            blockCacheLock.lock();
+            try {
+                blockCache.put(key, records);
+            } finally {
+                blockCacheLock.unlock();
+            }
+        }
+        return records;
+    }
+
+    /**
+     * Returns the messages of a block in one conversation before a sequence number, oldest first.
+     */
+    private static List<MessageView> matching(byte[] records, long low, long high, long beforeSeq) {
+        List<MessageView> matching = new ArrayList<>();
+        ByteBuffer buffer = ByteBuffer.wrap(records);
+        while (buffer.hasRemaining()) {
+            int position = buffer.position();
+            long seq = buffer.getLong(position);
+            long senderId = buffer.getLong(position + 16);
+            long recipientId = buffer.getLong(position + 24);
+            int length = buffer.getInt(position + 41);
+            if (Math.min(senderId, recipientId) == low && Math.max(senderId, recipientId) == high && seq < beforeSeq) {
+                matching.add(decode(buffer));
+            } else {
+                buffer.position(position + RECORD_BYTES + Math.max(0, length));
+            }
+        }
+        return matching;
+    }
+
+    /**
+     * Decodes the record at the buffer's position and moves past it.
+     */
+    private static MessageView decode(ByteBuffer buffer) {
+        long seq = buffer.getLong();
+        long id = buffer.getLong();
+        long senderId = buffer.getLong();
+        long recipientId = buffer.getLong();
+        long timestamp = buffer.getLong();
+        boolean read = buffer.get() != 0;
+        int length = buffer.getInt();
+        String content = null;
+        if (length >= 0) {
+            content = new String(buffer.array(), buffer.position(), length, StandardCharsets.UTF_8);
+            buffer.position(buffer.position() + length);
+        }
+        return new MessageView(id, senderId, recipientId, content,
+                timestamp == NO_TIMESTAMP ? null : new Date(timestamp), read, seq);
+    }
+
+    private static int compare(long low, long high, long seq, long otherLow, long otherHigh, long otherSeq) {
+        int order = Long.compare(low, otherLow);
+        if (order == 0) {
+            order = Long.compare(high, otherHigh);
+        }
+        return order != 0 ? order : Long.compare(seq, otherSeq);
+    }
+
+    private Path fileOf(long number) {
+        return directory.resolve(String.format("%020d%s", number, SUFFIX));
+    }
+
+    private void forceDirectory() {
+        // makes the rename durable; some platforms cannot open a directory, and
+        // there the rename is as durable as the file system makes it anyway
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // not supported here
+        }
+    }
+
+    /**
+     * Brings the segments of a read-only archive up to date with its directory.
+     * The writer commits and removes segments by renaming and deleting files,
+     * both of which change the directory's modification time. A segment deleted
+     * while it is read stays readable through its open channel.
+     */
+    private void refresh() {
+        if (!readOnly) {
+            return;
+        }
+        try {
+            FileTime modified = Files.getLastModifiedTime(directory);
+            if (modified.equals(listedModified)) {
+                return;
+            }
+            lock.writeLock().lock();
+            try {
+                checkOpen();
+                if (modified.equals(listedModified)) {
+                    return;
+                }
+                // taken before listing, so a change during the listing is seen next time
+                listedModified = modified;
+                Map<Long, Segment> open = new TreeMap<>();
+                for (Segment segment : segments) {
+                    open.put(segment.number, segment);
+                }
+                List<Segment> listed = new ArrayList<>();
+                for (Path file : list()) {
+                    String name = file.getFileName().toString();
+                    if (name.endsWith(SUFFIX)) {
+                        Segment segment = open.remove(numberOf(name));
+                        segment = segment != null ? segment : openSegment(file);
+                        if (segment != null) {
+                            listed.add(segment);
+                        }
+                    }
+                }
+                for (Segment gone : open.values()) {
+                    gone.channel.close();
+                }
+                segments.clear();
+                segments.addAll(listed);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Returns the files of the directory in name order, which is the order of their numbers.
+     */
+    private List<Path> list() throws IOException {
+        try (Stream<Path> listing = Files.list(directory)) {
+            return listing.sorted().toList();
+        }
+    }
+
+    /**
+     * Opens a segment file, or returns null if the writer merged it away since it was listed.
+     */
+    private static Segment openSegment(Path file) throws IOException {
+        try {
+            return Segment.open(file, numberOf(file.getFileName().toString()));
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    private static long numberOf(String name) {
+        return Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+    }
+
+    private void checkWritable() {
+        checkOpen();
+        if (readOnly) {
+            throw new IllegalStateException("Message archive is read-only");
+        }
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("Message archive is closed");
+        }
+    }
+
+    /**
+     * Writer fills a new segment. Messages are added in the order of their
+     * conversation's low user, high user and sequence number, each block is
+     * compressed and written as it fills, and {@link #commit()} writes the
+     * tables and puts the segment in place. Closing a writer that was not
+     * committed deletes its file.
+     */
+    public final class Writer implements Closeable {
+
+        private final long number;
+        private final Path temporary;
+        private final FileChannel channel;
+        private final OutputStream out;
+        private final IoThrottle throttle;
+        private final Deflater deflater = new Deflater();
+        private final ByteArrayOutputStream block = new ByteArrayOutputStream(BLOCK_BYTES + 1024);
+        private final DataOutputStream blockData = new DataOutputStream(block);
+        private final ByteArrayOutputStream blocks = new ByteArrayOutputStream();
+        private final DataOutputStream blockTable = new DataOutputStream(blocks);
+        private final ByteArrayOutputStream conversations = new ByteArrayOutputStream();
+        private final DataOutputStream conversationTable = new DataOutputStream(conversations);
+        private long offset;
+        private int blockCount;
+        private int conversationCount;
+        private int count;
+        private boolean done;
+
+        // the last message added, and where its conversation started
+        private long low;
+        private long high;
+        private long seq;
+        private int firstBlock;
+        private int lastBlock;
+        private long firstSeq;
+
+        private Writer(long number, IoThrottle throttle) throws IOException {
+            this.number = number;
+            this.temporary = directory.resolve(String.format("%020d%s%s", number, SUFFIX, TEMPORARY_SUFFIX));
+            this.channel = FileChannel.open(temporary, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+            this.out = new BufferedOutputStream(Channels.newOutputStream(channel), BLOCK_BYTES);
+            this.throttle = throttle;
+        }
+
+        /**
+         * Adds a message after the previous one.
+         *
+         * @param message the message to be added
+         * @throws IllegalArgumentException if the message does not come after the previous one
+         * @throws IOException              if a full block cannot be written
+         */
+        public void add(MessageView message) throws IOException {
+            long messageLow = Math.min(message.getSenderId(), message.getRecipientId());
+            long messageHigh = Math.max(message.getSenderId(), message.getRecipientId());
+            if (count > 0 && compare(messageLow, messageHigh, message.getSeq(), low, high, seq) <= 0) {
+                throw new IllegalArgumentException("Messages must be added in conversation and sequence order");
+            }
+            if (block.size() == 0) {
+                blockTable.writeLong(messageLow);
+                blockTable.writeLong(messageHigh);
+                blockTable.writeLong(message.getSeq());
+            }
+            if (count == 0 || messageLow != low || messageHigh != high) {
+                if (count > 0) {
+                    endConversation();
+                }
+                firstBlock = blockCount;
+                firstSeq = message.getSeq();
+            }
+            low = messageLow;
+            high = messageHigh;
+            seq = message.getSeq();
+            lastBlock = blockCount;
+            count++;
+
+            blockData.writeLong(message.getSeq());
+            blockData.writeLong(message.getId());
+            blockData.writeLong(message.getSenderId());
+            blockData.writeLong(message.getRecipientId());
+            blockData.writeLong(message.getTimestamp() == null ? NO_TIMESTAMP : message.getTimestamp().getTime());
+            blockData.writeBoolean(message.isRead());
+            if (message.getContent() == null) {
+                blockData.writeInt(-1);
+            } else {
+                byte[] content = message.getContent().getBytes(StandardCharsets.UTF_8);
+                blockData.writeInt(content.length);
+                blockData.write(content);
+            }
+            if (block.size() >= BLOCK_BYTES) {
+                writeBlock();
+            }
+        }
+
+        /**
+         * Returns the number of messages added.
+         *
+         * @return the number of messages
+         */
+        public int count() {
+            return count;
+        }
+
+        /**
+         * Writes the rest of the segment, forces it to disk and makes it readable.
+         * A segment without messages is deleted instead.
+         *
+         * @return the number of messages in the segment
+         * @throws IOException if the segment cannot be written
+         */
+        public int commit() throws IOException {
+            if (count == 0) {
+                close();
+                return 0;
+            }
+            endConversation();
+            if (block.size() > 0) {
+                writeBlock();
+            }
+            byte[] tables = blocks.toByteArray();
+            CRC32C crc = new CRC32C();
+            crc.update(tables);
+            DataOutputStream tail = new DataOutputStream(out);
+            tail.write(tables);
+            tables = conversations.toByteArray();
+            crc.update(tables);
+            tail.write(tables);
+            tail.writeLong(offset);
+            tail.writeInt(blockCount);
+            tail.writeInt(conversationCount);
+            tail.writeInt((int) crc.getValue());
+            tail.writeInt(MAGIC);
+            tail.flush();
+            channel.force(true);
+            out.close();
+            deflater.end();
+            done = true;
+
+            Path file = fileOf(number);
+            Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE);
+            forceDirectory();
+            Segment segment = Segment.open(file, number);
+            lock.writeLock().lock();
+            try {
+                segments.add(segment);
+                segments.sort(Comparator.comparingLong(added -> added.number));
+            } finally {
+                lock.writeLock().unlock();
+            }
+            return count;
+        }
+
+        /**
+         * Deletes the segment if it was not committed.
+         *
+         * @throws IOException if the file cannot be deleted
+         */
+        @Override
+        public void close() throws IOException {
+            if (done) {
+                return;
+            }
+            done = true;
+            deflater.end();
+            out.close();
+            Files.deleteIfExists(temporary);
+        }
+
+        private void endConversation() throws IOException {
+            conversationTable.writeLong(low);
+            conversationTable.writeLong(high);
+            conversationTable.writeInt(firstBlock);
+            conversationTable.writeInt(lastBlock);
+            conversationTable.writeLong(firstSeq);
+            conversationTable.writeLong(seq);
+            conversationCount++;
+        }
+
+        private void writeBlock() throws IOException {
+            byte[] records = block.toByteArray();
+            deflater.reset();
+            deflater.setInput(records);
+            deflater.finish();
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(records.length / 2);
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                compressed.write(buffer, 0, deflater.deflate(buffer));
+            }
+            byte[] bytes = compressed.toByteArray();
+            CRC32C crc = new CRC32C();
+            crc.update(bytes);
+            throttle.acquire(bytes.length);
+            out.write(bytes);
+
+            // the first message's key was written when the block was started
+            blockTable.writeLong(offset);
+            blockTable.writeInt(bytes.length);
+            blockTable.writeInt(records.length);
+            blockTable.writeInt((int) crc.getValue());
+            offset += bytes.length;
+            blockCount++;
+            block.reset();
+        }
+    }
+
+    /**
+     * A segment file with its tables; the blocks stay on disk.
+     */
+    private static final class Segment {
+        final long number;
+        final Path file;
+        final FileChannel channel;
+        final long size;
+        final long[] blockOffset;
+        final int[] blockLength;
+        final int[] blockRecordsLength;
+        final int[] blockCrc;
+        final long[] blockLow;
+        final long[] blockHigh;
+        final long[] blockSeq;
+        final long[] low;
+        final long[] high;
+        final int[] firstBlock;
+        final int[] lastBlock;
+        final long[] firstSeq;
+        final long[] lastSeq;
+
+        private Segment(long number, Path file, FileChannel channel, long size, int blockCount, int conversationCount) {
+            this.number = number;
+            this.file = file;
+            this.channel = channel;
+            this.size = size;
+            this.blockOffset = new long[blockCount];
+            this.blockLength = new int[blockCount];
+            this.blockRecordsLength = new int[blockCount];
+            this.blockCrc = new int[blockCount];
+            this.blockLow = new long[blockCount];
+            this.blockHigh = new long[blockCount];
+            this.blockSeq = new long[blockCount];
+            this.low = new long[conversationCount];
+            this.high = new long[conversationCount];
+            this.firstBlock = new int[conversationCount];
+            this.lastBlock = new int[conversationCount];
+            this.firstSeq = new long[conversationCount];
+            this.lastSeq = new long[conversationCount];
+        }
+
+        static Segment open(Path file, long number) throws IOException {
+            FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+            try {
+                long size = channel.size();
+                if (size < FOOTER_BYTES) {
+                    throw new IOException("Archive segment " + file + " is truncated");
+                }
+                ByteBuffer footer = read(channel, size - FOOTER_BYTES, FOOTER_BYTES);
+                long tableOffset = footer.getLong();
+                int blockCount = footer.getInt();
+                int conversationCount = footer.getInt();
+                int crc = footer.getInt();
+                if (footer.getInt() != MAGIC || blockCount < 0 || conversationCount < 0
+                        || tableOffset + (long) blockCount * BLOCK_ENTRY_BYTES
+                        + (long) conversationCount * CONVERSATION_ENTRY_BYTES != size - FOOTER_BYTES) {
+                    throw new IOException("Archive segment " + file + " is not valid");
+                }
+                ByteBuffer tables = read(channel, tableOffset, (int) (size - FOOTER_BYTES - tableOffset));
+                CRC32C check = new CRC32C();
+                check.update(tables.duplicate());
+                if ((int) check.getValue() != crc) {
+                    throw new IOException("Archive segment " + file + " has corrupt tables");
+                }
+                Segment segment = new Segment(number, file, channel, size, blockCount, conversationCount);
+                for (int i = 0; i < blockCount; i++) {
+                    segment.blockLow[i] = tables.getLong();
+                    segment.blockHigh[i] = tables.getLong();
+                    segment.blockSeq[i] = tables.getLong();
+                    segment.blockOffset[i] = tables.getLong();
+                    segment.blockLength[i] = tables.getInt();
+                    segment.blockRecordsLength[i] = tables.getInt();
+                    segment.blockCrc[i] = tables.getInt();
+                }
+                for (int i = 0; i < conversationCount; i++) {
+                    segment.low[i] = tables.getLong();
+                    segment.high[i] = tables.getLong();
+                    segment.firstBlock[i] = tables.getInt();
+                    segment.lastBlock[i] = tables.getInt();
+                    segment.firstSeq[i] = tables.getLong();
+                    segment.lastSeq[i] = tables.getLong();
+                }
+                return segment;
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        /**
+         * Returns the index of a conversation in the directory, or -1 if the segment does not hold it.
+         */
+        int find(long userLow, long userHigh) {
+            int from = 0;
+            int to = low.length - 1;
+            while (from <= to) {
+                int middle = (from + to) >>> 1;
+                int order = compare(low[middle], high[middle], 0, userLow, userHigh, 0);
+                if (order < 0) {
+                    from = middle + 1;
+                } else if (order > 0) {
+                    to = middle - 1;
+                } else {
+                    return middle;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Returns the last block of a conversation starting before a sequence number,
+         * the one holding the newest message before it.
+         */
+        int lastBlockBefore(int conversation, long userLow, long userHigh, long beforeSeq) {
+            int from = firstBlock[conversation];
+            int to = lastBlock[conversation];
+            // the first block always qualifies: it starts with the conversation or before it
+            while (from < to) {
+                int middle = (from + to + 1) >>> 1;
+                if (compare(blockLow[middle], blockHigh[middle], blockSeq[middle], userLow, userHigh, beforeSeq) < 0) {
+                    from = middle;
+                } else {
+                    to = middle - 1;
+                }
+            }
+            return from;
+        }
+
+        byte[] inflate(int block) {
+            Inflater inflater = new Inflater();
+            try {
+                ByteBuffer compressed = read(channel, blockOffset[block], blockLength[block]);
+                CRC32C crc = new CRC32C();
+                crc.update(compressed.duplicate());
+                if ((int) crc.getValue() != blockCrc[block]) {
+                    throw new IOException("Block " + block + " of archive segment " + file + " is corrupt");
+                }
+                inflater.setInput(compressed);
+                byte[] records = new byte[blockRecordsLength[block]];
+                int length = 0;
+                while (length < records.length && !inflater.finished()) {
+                    length += inflater.inflate(records, length, records.length - length);
+                }
+                return records;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } catch (DataFormatException e) {
+                throw new UncheckedIOException(new IOException("Block " + block + " of archive segment " + file + " is corrupt", e));
+            } finally {
+                inflater.end();
+            }
+        }
+
+        private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(length);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, position + buffer.position()) < 0) {
+                    throw new IOException("Unexpected end of archive segment");
+                }
+            }
+            return buffer.flip();
+        }
+    }
+
+    /**
+     * Walks the messages of a segment in order, one block at a time, for a merge.
+     */
+    private final class Cursor implements Comparable<Cursor> {
+        final Segment segment;
+        final IoThrottle throttle;
+        int block = -1;
+        ByteBuffer records = ByteBuffer.allocate(0);
+        // the key of the current message
+        long low;
+        long high;
+        long seq;
+
+        Cursor(Segment segment, IoThrottle throttle) {
+            this.segment = segment;
+            this.throttle = throttle;
+        }
+
+        /**
+         * Moves to the next message.
+         *
+         * @return false if there is none
+         */
+        boolean next() {
+            if (block >= 0) {
+                // skips the current message
+                records.position(records.position() + RECORD_BYTES + Math.max(0, records.getInt(records.position() + 41)));
+            }
+            while (!records.hasRemaining()) {
+                if (++block == segment.blockOffset.length) {
+                    return false;
+                }
+                throttle.acquire(segment.blockLength[block]);
+                records = ByteBuffer.wrap(block(segment, block, false));
+            }
+            int position = records.position();
+            long senderId = records.getLong(position + 16);
+            long recipientId = records.getLong(position + 24);
+            low = Math.min(senderId, recipientId);
+            high = Math.max(senderId, recipientId);
+            seq = records.getLong(position);
+            return true;
+        }
+
+        MessageView message() {
+            return decode(records.duplicate());
+        }
+
+        @Override
+        public int compareTo(Cursor other) {
+            return compare(low, high, seq, other.low, other.high, other.seq);
+        }
+    }
+
+    private record BlockKey(long segment, int block) {
+    }
+}
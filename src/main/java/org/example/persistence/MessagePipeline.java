@@ -0,0 +1,207 @@
+package org.example.persistence;
+
+import org.example.server.ServerConfig;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * MessagePipeline persists chat messages off the sender's thread.
+ * Messages wait in a bounded queue and a single writer appends them to the
+ * {@link MessageStore} in batches of up to {@code chat.persistBatchSize};
+ * in the database that is one JDBC batch and one commit per batch, so a busy
+ * server pays one round trip for many messages.
+ * A full queue blocks the sender until the writer catches up.
+ * Under {@link Durability#FIRE_AND_FORGET} the sender has already been told a
+ * message is saved when it is queued, so a later failure is counted as lost
+ * and reported by {@link #summary()}.
+ */
+public class MessagePipeline {
+
+    private static final MessagePipeline instance = new MessagePipeline(
+            ServerConfig.getInt("persistQueueCapacity", 10_000),
+            ServerConfig.getInt("persistBatchSize", 200),
+            Durability.fromName(ServerConfig.get("persistDurability", Durability.ACK_AFTER_COMMIT.name())));
+
+    private final BlockingQueue<PendingMessage> queue;
+    private final int batchSize;
+    private final Durability durability;
+    private final Thread writer;
+    private volatile boolean shutdown;
+
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder committed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder lost = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder commitNanos = new LongAdder();
+
+    /**
+     * Constructs a new MessagePipeline and starts its writer.
+     *
+     * @param capacity   the number of messages the queue holds
+     * @param batchSize  the largest number of messages written in one transaction
+     * @param durability when a submitted message counts as saved
+     */
+    public MessagePipeline(int capacity, int batchSize, Durability durability) {
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, capacity));
+        this.batchSize = Math.max(1, batchSize);
+        this.durability = durability;
+        this.writer = new Thread(this::writeBatches, "chat-persist");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Returns the pipeline configured by the {@code chat.persist*} settings.
+     *
+     * @return the shared pipeline
+     */
+    public static MessagePipeline get() {
+        return instance;
+    }
+
+    /**
+     * Queues a message to be saved with the current timestamp.
+     *
+     * @param senderId    the ID of the sender
+     * @param recipientId the ID of the recipient
+     * @param content     the content of the message
+     * @return a future completing when the message counts as saved under the
+     * configured durability; it completes exceptionally if the insert fails
+     */
+    public CompletableFuture<Void> submit(long senderId, long recipientId, String content) {
+        PendingMessage message = new PendingMessage(new NewMessage(senderId, recipientId, content, new Date()));
+        if (shutdown) {
+            message.done.completeExceptionally(new IllegalStateException("Message pipeline is shut down"));
+            return message.done;
+        }
+        try {
+            queue.put(message);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            message.done.completeExceptionally(e);
+            return message.done;
+        }
+        // the writer may have seen the queue empty and stopped since the check above;
+        // if it did not take the message, it never will
+        if (shutdown && queue.remove(message)) {
+            message.done.completeExceptionally(new IllegalStateException("Message pipeline is shut down"));
+            return message.done;
+        }
+        submitted.increment();
+        return durability == Durability.FIRE_AND_FORGET ? CompletableFuture.completedFuture(null) : message.done;
+    }
+
+    private void writeBatches() {
+        List<PendingMessage> batch = new ArrayList<>(batchSize);
+        List<NewMessage> messages = new ArrayList<>(batchSize);
+        while (!shutdown || !queue.isEmpty()) {
+            try {
+                PendingMessage first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, batchSize - 1);
+                for (PendingMessage message : batch) {
+                    messages.add(message.message);
+                }
+                write(batch, messages);
+            } catch (InterruptedException e) {
+                // keep going, shutdown() only stops the writer once the queue is empty
+            } finally {
+                batch.clear();
+                messages.clear();
+            }
+        }
+        // a message put while the writer stopped
+        PendingMessage message;
+        while ((message = queue.poll()) != null) {
+            fail(message, new IllegalStateException("Message pipeline is shut down"));
+        }
+    }
+
+    private void write(List<PendingMessage> batch, List<NewMessage> messages) {
+        long start = System.nanoTime();
+        try {
+            Repositories.messageStore().append(messages);
+        } catch (Exception e) {
+            e.printStackTrace();
+            failed.add(batch.size());
+            for (PendingMessage message : batch) {
+                fail(message, e);
+            }
+            return;
+        }
+        batches.increment();
+        committed.add(batch.size());
+        commitNanos.add(System.nanoTime() - start);
+        for (PendingMessage message : batch) {
+            message.done.complete(null);
+        }
+    }
+
+    // fails a message the writer has taken; once acknowledged, nobody waits on its future
+    private void fail(PendingMessage message, Throwable cause) {
+        if (durability == Durability.FIRE_AND_FORGET) {
+            lost.increment();
+        }
+        message.done.completeExceptionally(cause);
+    }
+
+    /**
+     * Stops accepting messages and waits for the queued ones to be written.
+     * A message submitted while the pipeline stops is either written or its
+     * future fails; none is left waiting.
+     *
+     * @param timeoutMillis how long to wait for the queue to drain
+     * @return true if every queued message was written
+     */
+    public boolean shutdown(long timeoutMillis) {
+        shutdown = true;
+        try {
+            writer.join(timeoutMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (writer.isAlive()) {
+            System.err.println("Message pipeline did not drain, " + queue.size() + " messages not saved.");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns a one-line summary of the pipeline.
+     *
+     * @return the summary
+     */
+    public String summary() {
+        long batchCount = batches.sum();
+        return "durability=" + durability +
+                " queued=" + queue.size() +
+                " submitted=" + submitted.sum() +
+                " committed=" + committed.sum() +
+                " failed=" + failed.sum() +
+                " lost=" + lost.sum() +
+                " batches=" + batchCount +
+                " avgBatch=" + (batchCount == 0 ? 0 : committed.sum() / batchCount) +
+                " avgCommitMicros=" + (batchCount == 0 ? 0 : commitNanos.sum() / batchCount / 1000);
+    }
+
+    private static final class PendingMessage {
+        final NewMessage message;
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        PendingMessage(NewMessage message) {
+            this.message = message;
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package org.example.persistence;
+
+import org.example.models.Message;
+
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * MessageRepository stores the messages exchanged between users.
+ */
+public interface MessageRepository {
+
+    /**
+     * Inserts a new message, assigning it the next sequence number of its conversation.
+     *
+     * @param message the message to be inserted
+     */
+    void save(Message message);
+
+    /**
+     * Inserts new messages in one transaction, referring to their users by ID
+     * without loading them. The inserts are sent as one JDBC batch, after one
+     * statement per conversation reserving their sequence numbers.
+     *
+     * @param messages the messages to be inserted
+     * @return the messages as inserted, with their IDs and sequence numbers
+     */
+    List<MessageView> saveAll(List<NewMessage> messages);
+
+    /**
+     * Writes the state of a message.
+     *
+     * @param message the message to be written
+     */
+    void update(Message message);
+
+    /**
+     * Deletes a message.
+     *
+     * @param message the message to be deleted
+     */
+    void delete(Message message);
+
+    /**
+     * Counts the unread messages a user received from another.
+     *
+     * @param senderId    the ID of the sender
+     * @param recipientId the ID of the recipient
+     * @return the number of unread messages
+     */
+    int countUnread(long senderId, long recipientId);
+
+    /**
+     * Counts the unread messages of a user in all of their conversations at once.
+     *
+     * @param recipientId the ID of the recipient
+     * @return the number of unread messages by sender ID; senders without unread messages are left out
+     */
+    Map<Long, Integer> countUnreadBySender(long recipientId);
+
+    /**
+     * Marks the messages a user received from another as read.
+     *
+     * @param senderId    the ID of the sender
+     * @param recipientId the ID of the recipient
+     * @return the number of messages that were unread
+     */
+    int markRead(long senderId, long recipientId);
+
+    /**
+     * Returns the messages exchanged by two users, in conversation order.
+     *
+     * @param userId  the ID of one user
+     * @param otherId the ID of the other user
+     * @return the messages of the conversation
+     */
+    List<Message> findConversation(long userId, long otherId);
+
+    /**
+     * Returns a page of the messages exchanged by two users: the newest ones sent
+     * before a cursor, oldest first. Messages are ordered by their sequence number
+     * in the conversation.
+     *
+     * @param userId    the ID of one user
+     * @param otherId   the ID of the other user
+     * @param beforeSeq the sequence number of the cursor, or {@link Long#MAX_VALUE} for the newest messages
+     * @param limit     the largest number of messages returned
+     * @return the page of messages, oldest first
+     */
+    List<MessageView> findConversationPage(long userId, long otherId, long beforeSeq, int limit);
+
+    /**
+     * Passes every message sent before a time to a consumer, streaming them from
+     * one query sorted by the conversation's lower user ID, its higher user ID and
+     * the sequence number. Snowflake IDs start with their creation time, so the
+     * query reads a range at the start of the primary key; the messages kept at
+     * their IDENTITY IDs by the V010 migration sit below every Snowflake ID, so
+     * each message in the range is also checked by its timestamp.
+     *
+     * @param cutoffMillis the time the messages were sent before, in milliseconds since 1970
+     * @param consumer     the consumer receiving each message
+     * @return the number of messages passed
+     */
+    int forEachMessageSentBefore(long cutoffMillis, Consumer<MessageView> consumer);
+
+    /**
+     * Passes every message to a consumer, streaming them in the order of
+     * {@link #forEachMessageSentBefore}.
+     *
+     * @param consumer the consumer receiving each message
+     * @return the number of messages passed
+     */
+    int forEachMessage(Consumer<MessageView> consumer);
+
+    /**
+     * Deletes up to a number of the messages sent before a time, as selected by
+     * {@link #forEachMessageSentBefore}, in a transaction of its own, so a large
+     * delete can be spread over many short ones.
+     *
+     * @param cutoffMillis the time the messages were sent before, in milliseconds since 1970
+     * @param limit        the largest number of messages deleted
+     * @return the number of messages deleted
+     */
+    int deleteSentBefore(long cutoffMillis, int limit);
+}
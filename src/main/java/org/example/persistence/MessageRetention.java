@@ -0,0 +1,161 @@
+package org.example.persistence;
+
+import org.example.server.ServerConfig;
+import org.example.util.IoThrottle;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * MessageRetention moves the messages older than {@code chat.messageRetentionDays}
+ * out of the messages table into the {@link MessageArchive}, so the table and its
+ * indexes only hold the recent history. It runs in the background every
+ * {@code chat.archiveIntervalMinutes}: a run streams the old messages into a new
+ * archive segment, deletes them from the table in short transactions, then merges
+ * archive segments once there are more than {@code chat.archiveMaxSegments}.
+ * The reads and writes of a run are held to {@code chat.archiveBytesPerSecond}.
+ * <p>
+ * Snowflake IDs start with their creation time, so the old messages are a
+ * range at the start of the primary key, and a message saved during a run
+ * always falls after it. The messages that kept their IDENTITY IDs in the V010
+ * migration sit below that range whatever their age, so they are selected by
+ * their timestamp as well. A message is deleted from the table only once the
+ * segment holding it is on disk.
+ */
+public class MessageRetention {
+
+    private static final long DAY_MILLIS = TimeUnit.DAYS.toMillis(1);
+    private static final int DELETE_BATCH_SIZE = 2_000;
+    // what moving a message costs the throttle besides its content
+    private static final int MESSAGE_BYTES = 64;
+
+    private static final LongAdder runs = new LongAdder();
+    private static final LongAdder failures = new LongAdder();
+    private static final LongAdder archived = new LongAdder();
+    private static final LongAdder deleted = new LongAdder();
+
+    private static volatile int retentionDays;
+    private static volatile long lastRunMillis;
+    private static final AtomicReference<ScheduledExecutorService> runner = new AtomicReference<>();
+    private static volatile IoThrottle throttle = new IoThrottle(0);
+
+    /**
+     * Starts the background runs if {@code chat.messageRetentionDays} is above zero
+     * and the message history is kept in the database.
+     *
+     * @return true if retention was started
+     */
+    public static boolean start() {
+        retentionDays = ServerConfig.getInt("messageRetentionDays", 0);
+        if (retentionDays <= 0 || Repositories.messageArchive() == null || runner.get() != null) {
+            return false;
+        }
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "chat-retention");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+        if (!runner.compareAndSet(null, executor)) {
+            // another start won
+            executor.shutdown();
+            return false;
+        }
+        throttle = new IoThrottle(ServerConfig.getInt("archiveBytesPerSecond", 4 * 1024 * 1024));
+        long interval = Math.max(1, ServerConfig.getInt("archiveIntervalMinutes", 60));
+        executor.scheduleWithFixedDelay(MessageRetention::run, 1, interval, TimeUnit.MINUTES);
+        return true;
+    }
+
+    /**
+     * Archives the messages past the retention age and merges archive segments.
+     * Failures are reported and leave the messages in the table for the next run.
+     */
+    public static void run() {
+        MessageArchive archive = Repositories.messageArchive();
+        long start = System.nanoTime();
+        runs.increment();
+        try {
+            long cutoffMillis = System.currentTimeMillis() - retentionDays * DAY_MILLIS;
+            if (archive(archive, cutoffMillis) > 0) {
+                int count;
+                do {
+                    count = Repositories.messages().deleteSentBefore(cutoffMillis, DELETE_BATCH_SIZE);
+                    deleted.add(count);
+                    throttle.acquire((long) count * MESSAGE_BYTES);
+                } while (count == DELETE_BATCH_SIZE && !Thread.currentThread().isInterrupted());
+            }
+            archive.compact(ServerConfig.getInt("archiveMaxSegments", 16),
+                    ids -> Repositories.users().findUsernames(ids).keySet(), throttle);
+        } catch (IOException | RuntimeException e) {
+            failures.increment();
+            e.printStackTrace();
+        }
+        lastRunMillis = (System.nanoTime() - start) / 1_000_000;
+    }
+
+    /**
+     * Stops the background runs, interrupting a run in progress.
+     */
+    public static void shutdown() {
+        ScheduledExecutorService executor = runner.getAndSet(null);
+        if (executor == null) {
+            return;
+        }
+        executor.shutdownNow();
+        try {
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Returns a one-line summary of retention.
+     *
+     * @return the summary
+     */
+    public static String summary() {
+        MessageArchive archive = Repositories.messageArchive();
+        if (archive == null) {
+            return "disabled";
+        }
+        return "retentionDays=" + retentionDays +
+                " runs=" + runs.sum() +
+                " failures=" + failures.sum() +
+                " archived=" + archived.sum() +
+                " deleted=" + deleted.sum() +
+                " lastRunMillis=" + lastRunMillis +
+                " throttledMillis=" + throttle.sleptMillis() +
+                " " + archive.summary();
+    }
+
+    /**
+     * Writes the messages sent before a time to a new archive segment.
+     *
+     * @return the number of messages archived
+     */
+    private static int archive(MessageArchive archive, long cutoffMillis) throws IOException {
+        try (MessageArchive.Writer writer = archive.newSegment(throttle)) {
+            Repositories.messages().forEachMessageSentBefore(cutoffMillis, message -> {
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new IllegalStateException("Retention was stopped");
+                }
+                throttle.acquire(MESSAGE_BYTES + (message.getContent() == null ? 0 : message.getContent().length()));
+                try {
+                    writer.add(message);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            int count = writer.commit();
+            archived.add(count);
+            return count;
+        }
+    }
+}
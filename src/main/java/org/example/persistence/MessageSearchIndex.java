@@ -0,0 +1,1563 @@
+package org.example.persistence;
+
+import org.example.util.IoThrottle;
+import org.example.util.LongHashSet;
+import org.example.util.LongObjectHashMap;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * MessageSearchIndex is an inverted index over the content of chat messages,
+ * kept in files of its own and updated as messages are saved. The words of a
+ * message are its runs of letters and digits, lowercased; a query finds the
+ * messages holding all of its words, best BM25 score first and newest first
+ * on a tie. Every message is also indexed under each of its users, so a
+ * search is scoped by adding its user, or the two users of a conversation,
+ * to the terms the message must hold.
+ * <p>
+ * New messages are written to a log and forced to disk, and only then added to
+ * a segment in memory, so every message a search can find is replayed when the
+ * index is opened after a crash. Every {@code flushDocs}
+ * messages the memory segment is frozen and written out as an immutable segment
+ * file by a background thread, which also merges runs of small segment files
+ * so a search opens few of them. A segment file holds the posting list of each
+ * word in blocks of 128 entries behind a skip table, its sorted dictionary,
+ * the only part kept on the heap, and the fields and content of its messages.
+ * The manifest names the segment files in use and is replaced atomically.
+ * <p>
+ * Messages are numbered in the order they are indexed, and each segment holds
+ * a range of numbers, so merging segments concatenates their posting lists.
+ * Nothing is removed from a segment: the messages of deleted users are left
+ * out of the results instead.
+ * <p>
+ * Only one index at a time may have a directory open: it holds an exclusive
+ * lock on the directory's lock file until it is closed.
+ */
+public class MessageSearchIndex {
+
+    private static final String MANIFEST = "index.manifest";
+    private static final String LOCK_FILE = "index.lock";
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String LOG_SUFFIX = ".wal";
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+    private static final int MAGIC = 0x4D534958;
+    private static final int END = Integer.MAX_VALUE;
+    private static final int MAX_WORD_CHARS = 32;
+    private static final int BLOCK_SIZE = 128;
+    private static final int MERGE_FACTOR = 10;
+    private static final long MAX_SEGMENT_BYTES = 1L << 30;
+    private static final long NO_TIMESTAMP = Long.MIN_VALUE;
+    // BM25 term frequency saturation and length normalization
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+    // user terms start with a byte no word holds, then the user ID
+    private static final byte USER_TERM = 0;
+    // message ID, sender, recipient, seq, timestamp, content offset, content length, words
+    private static final int DOC_BYTES = 6 * 8 + 4 + 4;
+    // dictionary, doc table and content offsets, term count, doc base, doc count, words, dictionary CRC, magic
+    private static final int FOOTER_BYTES = 3 * 8 + 3 * 4 + 8 + 4 + 4;
+    // length, CRC of the rest, doc, message ID, sender, recipient, seq, timestamp, content length
+    private static final int LOG_RECORD_BYTES = 4 + 4 + 4 + 5 * 8 + 4;
+
+    private final Path directory;
+    private final FileLock directoryLock;
+    private final int flushDocs;
+    private final IoThrottle mergeThrottle;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    // by doc base; only the background thread adds or replaces them
+    private final List<DiskSegment> segments = new ArrayList<>();
+    // frozen memory segments waiting to be written, oldest first
+    private final List<MemorySegment> flushing = new ArrayList<>();
+    private MemorySegment active;
+    private final LongHashSet deletedUsers = new LongHashSet();
+    private final AtomicLong nextSegmentNumber = new AtomicLong(1);
+    private final ExecutorService background;
+    private boolean closed;
+
+    private final LongAdder indexed = new LongAdder();
+    private final LongAdder searches = new LongAdder();
+    private final LongAdder searchNanos = new LongAdder();
+    private final LongAdder flushes = new LongAdder();
+    private final LongAdder merges = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+
+    /**
+     * Opens the index in a directory, creating it if needed. Messages logged but
+     * not yet written to a segment file when the process stopped are written now.
+     *
+     * @param directory     the directory holding the index files
+     * @param flushDocs     the number of messages kept in memory before they are written to a segment file
+     * @param mergeThrottle the throttle merges are held to
+     * @throws IOException if the index cannot be read, its files do not match its manifest,
+     *                     or another index has the directory open
+     */
+    public MessageSearchIndex(Path directory, int flushDocs, IoThrottle mergeThrottle) throws IOException {
+        this.directory = directory;
+        this.flushDocs = Math.max(1, flushDocs);
+        this.mergeThrottle = mergeThrottle;
+        Files.createDirectories(directory);
+        this.directoryLock = lockDirectory(directory);
+        try {
+            recover();
+        } catch (IOException | RuntimeException e) {
+            directoryLock.channel().close();
+            throw e;
+        }
+        background = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "chat-search-index");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+    }
+
+    /**
+     * Opens the segment files named by the manifest, deletes the files no
+     * manifest names, and writes the messages of the logs left by the last
+     * process to a segment file.
+     */
+    private void recover() throws IOException {
+        int docCount = 0;
+        Set<Long> inUse = new HashSet<>();
+        Path manifest = directory.resolve(MANIFEST);
+        if (Files.exists(manifest)) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(manifest)))) {
+                if (in.readInt() != MAGIC) {
+                    throw new IOException("Search index manifest " + manifest + " is not valid");
+                }
+                docCount = in.readInt();
+                for (int count = in.readInt(); count > 0; count--) {
+                    inUse.add(in.readLong());
+                }
+                for (int count = in.readInt(); count > 0; count--) {
+                    deletedUsers.add(in.readLong());
+                }
+            }
+        }
+        List<Path> files;
+        try (Stream<Path> listing = Files.list(directory)) {
+            files = listing.sorted().toList();
+        }
+        List<Path> logs = new ArrayList<>();
+        for (Path file : files) {
+            String name = file.getFileName().toString();
+            if (name.endsWith(TEMPORARY_SUFFIX)) {
+                Files.delete(file);
+            } else if (name.endsWith(SEGMENT_SUFFIX)) {
+                long number = Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+                nextSegmentNumber.set(Math.max(nextSegmentNumber.get(), number + 1));
+                if (inUse.contains(number)) {
+                    segments.add(DiskSegment.open(file, number));
+                } else {
+                    // written by a flush or merge that did not reach the manifest
+                    Files.delete(file);
+                }
+            } else if (name.endsWith(LOG_SUFFIX)) {
+                logs.add(file);
+            }
+        }
+        segments.sort(Comparator.comparingInt(segment -> segment.docBase));
+        int end = 0;
+        for (DiskSegment segment : segments) {
+            if (segment.docBase != end) {
+                break;
+            }
+            end += segment.docCount;
+        }
+        if (segments.size() != inUse.size() || end != docCount) {
+            for (DiskSegment segment : segments) {
+                segment.channel.close();
+            }
+            throw new IOException("Search index in " + directory + " does not match its manifest; rebuild it");
+        }
+
+        MemorySegment recovered = new MemorySegment(docCount, null, null);
+        for (Path log : logs) {
+            replay(log, recovered);
+        }
+        if (recovered.size() > 0) {
+            segments.add(write(recovered));
+            writeManifest();
+        }
+        for (Path log : logs) {
+            Files.delete(log);
+        }
+        active = newMemorySegment(end());
+    }
+
+    /**
+     * Takes the exclusive lock on a directory's lock file, which is held until the index is closed.
+     */
+    private static FileLock lockDirectory(Path directory) throws IOException {
+        FileChannel channel = FileChannel.open(directory.resolve(LOCK_FILE), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE);
+        try {
+            FileLock lock = channel.tryLock();
+            if (lock != null) {
+                return lock;
+            }
+        } catch (OverlappingFileLockException e) {
+            // held by another index in this process
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        channel.close();
+        throw new IOException("Search index in " + directory + " is open in another index or process");
+    }
+
+    /**
+     * Indexes saved messages. They are logged to disk and searchable when the
+     * method returns; if logging fails, none of them is indexed.
+     *
+     * @param messages the messages, as returned by {@link MessageStore#append}
+     */
+    public void add(List<MessageView> messages) {
+        if (messages.isEmpty()) {
+            return;
+        }
+        boolean frozen = false;
+        lock.writeLock().lock();
+        try {
+            checkOpen();
+            int doc = active.end();
+            for (MessageView message : messages) {
+                active.log(message, doc++);
+            }
+            // a search must never find a message the log would lose in a crash
+            active.writeLog();
+            for (MessageView message : messages) {
+                active.add(message);
+            }
+            indexed.add(messages.size());
+            if (active.size() >= flushDocs) {
+                flushing.add(active);
+                active = newMemorySegment(active.end());
+                frozen = true;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        if (frozen) {
+            background.execute(() -> flushPending(true));
+        }
+    }
+
+    /**
+     * Finds the messages of a user, sent or received, holding every word of a query.
+     *
+     * @param userId the ID of the user
+     * @param query  the words to look for
+     * @param limit  the largest number of messages returned
+     * @return the messages found, best first
+     */
+    public List<SearchHit> search(long userId, String query, int limit) {
+        return search(new Term[]{Term.user(userId)}, query, limit);
+    }
+
+    /**
+     * Finds the messages of a conversation holding every word of a query.
+     *
+     * @param userId  the ID of one user
+     * @param otherId the ID of the other user
+     * @param query   the words to look for
+     * @param limit   the largest number of messages returned
+     * @return the messages found, best first
+     */
+    public List<SearchHit> searchConversation(long userId, long otherId, String query, int limit) {
+        Term[] scope = userId == otherId
+                ? new Term[]{Term.user(userId)} : new Term[]{Term.user(userId), Term.user(otherId)};
+        return search(scope, query, limit);
+    }
+
+    /**
+     * Leaves the messages of a user out of every result from now on.
+     *
+     * @param userId the ID of the deleted user
+     */
+    public void removeUser(long userId) {
+        lock.writeLock().lock();
+        try {
+            checkOpen();
+            if (deletedUsers.add(userId)) {
+                writeManifest();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Writes the messages held in memory to a segment file and waits for it,
+     * and for the merges it leads to.
+     */
+    public void flush() {
+        lock.writeLock().lock();
+        try {
+            checkOpen();
+            if (active.size() > 0) {
+                flushing.add(active);
+                active = newMemorySegment(active.end());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        try {
+            background.submit(() -> flushPending(true)).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Returns the number of messages indexed.
+     *
+     * @return the number of messages
+     */
+    public int docCount() {
+        lock.readLock().lock();
+        try {
+            return active.end();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Writes the messages held in memory to a segment file and closes the
+     * index, releasing its directory.
+     */
+    public void close() {
+        background.shutdown();
+        try {
+            background.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        lock.writeLock().lock();
+        try {
+            if (closed) {
+                return;
+            }
+            if (active.size() > 0) {
+                flushing.add(active);
+                active = new MemorySegment(active.end(), null, null);
+            } else {
+                active.deleteLog();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        flushPending(false);
+        lock.writeLock().lock();
+        try {
+            closed = true;
+            for (DiskSegment segment : segments) {
+                segment.channel.close();
+            }
+            for (MemorySegment segment : flushing) {
+                // left for the next open to replay
+                segment.closeLog();
+            }
+            directoryLock.channel().close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns a one-line summary of the index.
+     *
+     * @return the summary
+     */
+    public String summary() {
+        int segmentCount;
+        int flushingCount;
+        int memoryDocs;
+        long bytes = 0;
+        lock.readLock().lock();
+        try {
+            segmentCount = segments.size();
+            flushingCount = flushing.size();
+            memoryDocs = active.size();
+            for (DiskSegment segment : segments) {
+                bytes += segment.size;
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        long searchCount = searches.sum();
+        return "indexed=" + indexed.sum() +
+                " segments=" + segmentCount +
+                " flushing=" + flushingCount +
+                " memoryDocs=" + memoryDocs +
+                " bytes=" + bytes +
+                " searches=" + searchCount +
+                " avgSearchMicros=" + (searchCount == 0 ? 0 : searchNanos.sum() / searchCount / 1000) +
+                " flushes=" + flushes.sum() +
+                " merges=" + merges.sum() +
+                " failures=" + failures.sum();
+    }
+
+    private List<SearchHit> search(Term[] scope, String query, int limit) {
+        long start = System.nanoTime();
+        Set<String> words = new LinkedHashSet<>();
+        tokenize(query, words::add);
+        List<SearchHit> hits = new ArrayList<>();
+        if (words.isEmpty() || limit <= 0) {
+            return hits;
+        }
+        Term[] terms = new Term[words.size()];
+        int t = 0;
+        for (String word : words) {
+            terms[t++] = Term.word(word);
+        }
+        // the worst candidate kept is at the head
+        PriorityQueue<Candidate> top = new PriorityQueue<>(limit + 1,
+                Comparator.comparingDouble(Candidate::score).thenComparingLong(Candidate::messageId));
+        lock.readLock().lock();
+        try {
+            checkOpen();
+            List<Segment> all = new ArrayList<>(segments);
+            all.addAll(flushing);
+            all.add(active);
+            long docs = 0;
+            long totalWords = 0;
+            for (Segment segment : all) {
+                docs += segment.docCount();
+                totalWords += segment.wordCount();
+            }
+            double[] idf = new double[terms.length];
+            for (int i = 0; i < terms.length; i++) {
+                long frequency = 0;
+                for (Segment segment : all) {
+                    frequency += segment.docFrequency(terms[i]);
+                }
+                if (frequency == 0) {
+                    return hits;
+                }
+                idf[i] = Math.log(1 + (docs - frequency + 0.5) / (frequency + 0.5));
+            }
+            double averageWords = Math.max(1, (double) totalWords / Math.max(1, docs));
+            for (Segment segment : all) {
+                searchSegment(segment, scope, terms, idf, averageWords, limit, top);
+            }
+            while (!top.isEmpty()) {
+                Candidate candidate = top.poll();
+                hits.add(candidate.segment().hit(candidate.doc(), candidate.score()));
+            }
+        } finally {
+            lock.readLock().unlock();
+            searches.increment();
+            searchNanos.add(System.nanoTime() - start);
+        }
+        Collections.reverse(hits);
+        return hits;
+    }
+
+    /**
+     * Scores the messages of a segment in the scope holding every term,
+     * walking their posting lists together from the shortest.
+     */
+    private void searchSegment(Segment segment, Term[] scope, Term[] terms, double[] idf, double averageWords,
+                               int limit, PriorityQueue<Candidate> top) {
+        PostingCursor[] termCursors = new PostingCursor[terms.length];
+        PostingCursor[] cursors = new PostingCursor[terms.length + scope.length];
+        for (int i = 0; i < terms.length; i++) {
+            termCursors[i] = cursors[i] = segment.postings(terms[i]);
+            if (cursors[i] == null) {
+                return;
+            }
+        }
+        for (int i = 0; i < scope.length; i++) {
+            cursors[terms.length + i] = segment.postings(scope[i]);
+            if (cursors[terms.length + i] == null) {
+                return;
+            }
+        }
+        Arrays.sort(cursors, Comparator.comparingInt(PostingCursor::count));
+        PostingCursor lead = cursors[0];
+        int doc = lead.advance(0);
+        candidates:
+        while (doc != END) {
+            for (int i = 1; i < cursors.length; i++) {
+                int found = cursors[i].advance(doc);
+                if (found != doc) {
+                    doc = found == END ? END : lead.advance(found);
+                    continue candidates;
+                }
+            }
+            if (deletedUsers.size() == 0
+                    || !deletedUsers.contains(segment.senderId(doc)) && !deletedUsers.contains(segment.recipientId(doc))) {
+                double norm = K1 * (1 - B + B * segment.words(doc) / averageWords);
+                double score = 0;
+                for (int i = 0; i < terms.length; i++) {
+                    int frequency = termCursors[i].frequency();
+                    score += idf[i] * frequency * (K1 + 1) / (frequency + norm);
+                }
+                Candidate candidate = new Candidate(segment, doc, score, segment.messageId(doc));
+                if (top.size() < limit) {
+                    top.add(candidate);
+                } else if (top.comparator().compare(candidate, top.peek()) > 0) {
+                    top.poll();
+                    top.add(candidate);
+                }
+            }
+            doc = lead.advance(doc + 1);
+        }
+    }
+
+    /**
+     * Writes the frozen memory segments to segment files, oldest first, then
+     * merges segment files if asked to. A failure leaves the rest for the next
+     * call, so the segment files always cover a range of messages without gaps.
+     */
+    private void flushPending(boolean merge) {
+        while (true) {
+            MemorySegment frozen;
+            lock.readLock().lock();
+            try {
+                frozen = flushing.isEmpty() ? null : flushing.get(0);
+            } finally {
+                lock.readLock().unlock();
+            }
+            if (frozen == null) {
+                break;
+            }
+            try {
+                DiskSegment segment = write(frozen);
+                lock.writeLock().lock();
+                try {
+                    segments.add(segment);
+                    flushing.remove(0);
+                    writeManifest();
+                } finally {
+                    lock.writeLock().unlock();
+                }
+                frozen.deleteLog();
+                flushes.increment();
+            } catch (IOException | RuntimeException e) {
+                failures.increment();
+                e.printStackTrace();
+                return;
+            }
+        }
+        if (merge) {
+            try {
+                mergeSegments();
+            } catch (IOException | RuntimeException e) {
+                failures.increment();
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Merges runs of adjacent segment files while there are {@link #MERGE_FACTOR}
+     * or more, picking the run that is smallest in bytes, until every run would
+     * make a file over {@link #MAX_SEGMENT_BYTES}.
+     */
+    private void mergeSegments() throws IOException {
+        while (true) {
+            List<DiskSegment> run;
+            lock.readLock().lock();
+            try {
+                if (segments.size() < MERGE_FACTOR) {
+                    return;
+                }
+                int best = -1;
+                long bestBytes = MAX_SEGMENT_BYTES + 1;
+                for (int from = 0; from + MERGE_FACTOR <= segments.size(); from++) {
+                    long bytes = 0;
+                    for (int i = from; i < from + MERGE_FACTOR; i++) {
+                        bytes += segments.get(i).size;
+                    }
+                    if (bytes < bestBytes) {
+                        best = from;
+                        bestBytes = bytes;
+                    }
+                }
+                if (best < 0) {
+                    return;
+                }
+                run = new ArrayList<>(segments.subList(best, best + MERGE_FACTOR));
+            } finally {
+                lock.readLock().unlock();
+            }
+            DiskSegment merged = merge(run);
+            lock.writeLock().lock();
+            try {
+                int at = segments.indexOf(run.get(0));
+                segments.subList(at, at + run.size()).clear();
+                segments.add(at, merged);
+                writeManifest();
+            } finally {
+                lock.writeLock().unlock();
+            }
+            for (DiskSegment segment : run) {
+                segment.channel.close();
+                try {
+                    Files.delete(segment.file);
+                } catch (IOException e) {
+                    // a file still mapped cannot be deleted on every platform; the next open deletes it
+                }
+            }
+            merges.increment();
+        }
+    }
+
+    private DiskSegment write(MemorySegment memory) throws IOException {
+        List<Map.Entry<byte[], Postings>> terms = new ArrayList<>(memory.postings.size() + memory.userPostings.size());
+        for (Map.Entry<String, Postings> entry : memory.postings.entrySet()) {
+            terms.add(Map.entry(entry.getKey().getBytes(StandardCharsets.UTF_8), entry.getValue()));
+        }
+        memory.userPostings.forEach((userId, postings) -> terms.add(Map.entry(Term.userBytes(userId), postings)));
+        terms.sort((a, b) -> Arrays.compareUnsigned(a.getKey(), b.getKey()));
+        try (SegmentWriter writer = new SegmentWriter(memory.docBase, null)) {
+            for (Map.Entry<byte[], Postings> term : terms) {
+                Postings postings = term.getValue();
+                writer.writePostings(term.getKey(), postings.docs, postings.frequencies, postings.count);
+            }
+            writer.endPostings();
+            for (StoredDoc doc : memory.docs) {
+                writer.addDoc(doc.messageId(), doc.senderId(), doc.recipientId(), doc.seq(), doc.timestamp(),
+                        doc.content().length, doc.words());
+            }
+            writer.endDocs();
+            for (StoredDoc doc : memory.docs) {
+                writer.out.write(doc.content());
+            }
+            return writer.commit();
+        }
+    }
+
+    private DiskSegment merge(List<DiskSegment> run) throws IOException {
+        try (SegmentWriter writer = new SegmentWriter(run.get(0).docBase, mergeThrottle)) {
+            int[] next = new int[run.size()];
+            while (true) {
+                int first = -1;
+                for (int s = 0; s < run.size(); s++) {
+                    if (next[s] < run.get(s).termCount() && (first < 0
+                            || run.get(s).compareTerms(next[s], run.get(first), next[first]) < 0)) {
+                        first = s;
+                    }
+                }
+                if (first < 0) {
+                    break;
+                }
+                DiskSegment holder = run.get(first);
+                int termIndex = next[first];
+                int count = 0;
+                for (int s = 0; s < run.size(); s++) {
+                    if (next[s] < run.get(s).termCount() && run.get(s).compareTerms(next[s], holder, termIndex) == 0) {
+                        count += run.get(s).docFrequency[next[s]];
+                    }
+                }
+                int[] docs = new int[count];
+                int[] frequencies = new int[count];
+                int filled = 0;
+                byte[] term = holder.term(termIndex);
+                // the runs hold consecutive ranges of docs, so their lists follow each other
+                for (int s = 0; s < run.size(); s++) {
+                    DiskSegment segment = run.get(s);
+                    if (next[s] < segment.termCount() && segment.compareTerms(next[s], holder, termIndex) == 0) {
+                        DiskCursor cursor = new DiskCursor(segment.map, segment.postingPosition[next[s]]);
+                        for (int doc = cursor.advance(0); doc != END; doc = cursor.advance(doc + 1)) {
+                            docs[filled] = doc;
+                            frequencies[filled++] = cursor.frequency();
+                        }
+                        next[s]++;
+                    }
+                }
+                writer.writePostings(term, docs, frequencies, count);
+            }
+            writer.endPostings();
+            for (DiskSegment segment : run) {
+                for (int doc = segment.docBase; doc < segment.docBase + segment.docCount; doc++) {
+                    int position = segment.docPosition(doc);
+                    ByteBuffer map = segment.map;
+                    writer.addDoc(map.getLong(position), map.getLong(position + 8), map.getLong(position + 16),
+                            map.getLong(position + 24), map.getLong(position + 32), map.getInt(position + 48),
+                            map.getInt(position + 52));
+                }
+            }
+            writer.endDocs();
+            byte[] buffer = new byte[64 * 1024];
+            for (DiskSegment segment : run) {
+                for (int position = segment.contentOffset; position < segment.footerOffset; position += buffer.length) {
+                    int length = Math.min(buffer.length, segment.footerOffset - position);
+                    segment.map.get(position, buffer, 0, length);
+                    mergeThrottle.acquire(length);
+                    writer.out.write(buffer, 0, length);
+                }
+            }
+            return writer.commit();
+        }
+    }
+
+    /**
+     * Replays the records of a log not yet in a segment file. A torn record,
+     * or a gap in the doc numbers, ends the replay.
+     */
+    private static void replay(Path file, MemorySegment into) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file));
+        while (buffer.remaining() >= LOG_RECORD_BYTES) {
+            int position = buffer.position();
+            int length = buffer.getInt(position);
+            if (length < LOG_RECORD_BYTES || length > buffer.remaining()) {
+                break;
+            }
+            CRC32C crc = new CRC32C();
+            crc.update(buffer.array(), position + 8, length - 8);
+            if ((int) crc.getValue() != buffer.getInt(position + 4)) {
+                break;
+            }
+            int doc = buffer.getInt(position + 8);
+            if (doc > into.end()) {
+                break;
+            }
+            if (doc == into.end()) {
+                long timestamp = buffer.getLong(position + 44);
+                into.add(new MessageView(buffer.getLong(position + 12), buffer.getLong(position + 20),
+                        buffer.getLong(position + 28),
+                        new String(buffer.array(), position + LOG_RECORD_BYTES, length - LOG_RECORD_BYTES, StandardCharsets.UTF_8),
+                        timestamp == NO_TIMESTAMP ? null : new Date(timestamp), false, buffer.getLong(position + 36)));
+            }
+            buffer.position(position + length);
+        }
+    }
+
+    private void writeManifest() throws IOException {
+        Path temporary = directory.resolve(MANIFEST + TEMPORARY_SUFFIX);
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+            out.writeInt(MAGIC);
+            out.writeInt(end());
+            out.writeInt(segments.size());
+            for (DiskSegment segment : segments) {
+                out.writeLong(segment.number);
+            }
+            long[] deleted = deletedUsers.toArray();
+            out.writeInt(deleted.length);
+            for (long userId : deleted) {
+                out.writeLong(userId);
+            }
+            out.flush();
+            channel.force(true);
+        }
+        Files.move(temporary, directory.resolve(MANIFEST), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Returns the doc number after the last one in a segment file.
+     */
+    private int end() {
+        if (segments.isEmpty()) {
+            return flushing.isEmpty() ? (active == null ? 0 : active.docBase) : flushing.get(0).docBase;
+        }
+        DiskSegment last = segments.get(segments.size() - 1);
+        return last.docBase + last.docCount;
+    }
+
+    private MemorySegment newMemorySegment(int docBase) throws IOException {
+        Path file = directory.resolve(String.format("%020d%s", docBase, LOG_SUFFIX));
+        return new MemorySegment(docBase, file, FileChannel.open(file,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE));
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("Search index is closed");
+        }
+    }
+
+    /**
+     * Passes each word of a text to a consumer.
+     *
+     * @return the number of words
+     */
+    private static int tokenize(String text, Consumer<String> consumer) {
+        if (text == null) {
+            return 0;
+        }
+        int words = 0;
+        int start = -1;
+        for (int i = 0; i <= text.length(); ) {
+            int codePoint = i < text.length() ? text.codePointAt(i) : ' ';
+            if (Character.isLetterOrDigit(codePoint)) {
+                if (start < 0) {
+                    start = i;
+                }
+            } else if (start >= 0) {
+                int end = Math.min(i, start + MAX_WORD_CHARS);
+                if (Character.isHighSurrogate(text.charAt(end - 1)) && end < i) {
+                    end--;
+                }
+                consumer.accept(text.substring(start, end).toLowerCase(Locale.ROOT));
+                start = -1;
+                words++;
+            }
+            i += Character.charCount(codePoint);
+        }
+        return words;
+    }
+
+    /**
+     * A word, or the term of a user, with its bytes in the dictionaries of segment files.
+     */
+    private record Term(String word, long userId, byte[] bytes) {
+
+        static Term word(String word) {
+            return new Term(word, 0, word.getBytes(StandardCharsets.UTF_8));
+        }
+
+        static Term user(long userId) {
+            return new Term(null, userId, userBytes(userId));
+        }
+
+        static byte[] userBytes(long userId) {
+            return ByteBuffer.allocate(9).put(USER_TERM).putLong(userId).array();
+        }
+    }
+
+    private record Candidate(Segment segment, int doc, double score, long messageId) {
+    }
+
+    private record StoredDoc(long messageId, long senderId, long recipientId, long seq, long timestamp,
+                             byte[] content, int words) {
+    }
+
+    /**
+     * What a search needs of a segment, in memory or in a file.
+     */
+    private interface Segment {
+        int docCount();
+
+        long wordCount();
+
+        int docFrequency(Term term);
+
+        /**
+         * Returns the posting list of a term, or null if no message of the segment holds it.
+         */
+        PostingCursor postings(Term term);
+
+        int words(int doc);
+
+        long messageId(int doc);
+
+        long senderId(int doc);
+
+        long recipientId(int doc);
+
+        SearchHit hit(int doc, double score);
+    }
+
+    /**
+     * Walks a posting list forward: the docs holding a term, in order.
+     */
+    private abstract static class PostingCursor {
+        int doc = -1;
+
+        abstract int count();
+
+        /**
+         * Moves to the first doc at or after a target.
+         *
+         * @return that doc, or {@link #END} if there is none
+         */
+        abstract int advance(int target);
+
+        /**
+         * Returns the number of times the term occurs in the current doc.
+         */
+        abstract int frequency();
+    }
+
+    /**
+     * The posting list of a term in a memory segment.
+     */
+    private static final class Postings {
+        int[] docs = new int[2];
+        int[] frequencies = new int[2];
+        int count;
+
+        /**
+         * Counts an occurrence of the term in a doc, the last one added or a new one.
+         */
+        void add(int doc) {
+            if (count > 0 && docs[count - 1] == doc) {
+                frequencies[count - 1]++;
+                return;
+            }
+            if (count == docs.length) {
+                docs = Arrays.copyOf(docs, count * 2);
+                frequencies = Arrays.copyOf(frequencies, count * 2);
+            }
+            docs[count] = doc;
+            frequencies[count++] = 1;
+        }
+    }
+
+    private static final class MemoryCursor extends PostingCursor {
+        final Postings postings;
+        final int count;
+        int index = -1;
+
+        MemoryCursor(Postings postings) {
+            this.postings = postings;
+            // entries added after the search started are not its to see
+            this.count = postings.count;
+        }
+
+        @Override
+        int count() {
+            return count;
+        }
+
+        @Override
+        int advance(int target) {
+            if (doc >= target) {
+                return doc;
+            }
+            do {
+                index++;
+            } while (index < count && postings.docs[index] < target);
+            return doc = index < count ? postings.docs[index] : END;
+        }
+
+        @Override
+        int frequency() {
+            return postings.frequencies[index];
+        }
+    }
+
+    /**
+     * The newest messages, indexed on the heap and logged to a file until
+     * they are written to a segment file.
+     */
+    private static final class MemorySegment implements Segment {
+        final int docBase;
+        final Path logFile;
+        final FileChannel log;
+        final Map<String, Postings> postings = new HashMap<>();
+        final LongObjectHashMap<Postings> userPostings = new LongObjectHashMap<>(1024);
+        final List<StoredDoc> docs = new ArrayList<>();
+        long words;
+        ByteBuffer pendingLog = ByteBuffer.allocate(16 * 1024);
+
+        MemorySegment(int docBase, Path logFile, FileChannel log) {
+            this.docBase = docBase;
+            this.logFile = logFile;
+            this.log = log;
+        }
+
+        int size() {
+            return docs.size();
+        }
+
+        int end() {
+            return docBase + docs.size();
+        }
+
+        void add(MessageView message) {
+            int doc = end();
+            int length = tokenize(message.getContent(), word -> postings.computeIfAbsent(word, key -> new Postings()).add(doc));
+            addUser(message.getSenderId(), doc);
+            addUser(message.getRecipientId(), doc);
+            byte[] content = message.getContent() == null ? new byte[0] : message.getContent().getBytes(StandardCharsets.UTF_8);
+            docs.add(new StoredDoc(message.getId(), message.getSenderId(), message.getRecipientId(), message.getSeq(),
+                    message.getTimestamp() == null ? NO_TIMESTAMP : message.getTimestamp().getTime(), content, length));
+            words += length;
+        }
+
+        private void addUser(long userId, int doc) {
+            Postings list = userPostings.get(userId);
+            if (list == null) {
+                list = new Postings();
+                userPostings.put(userId, list);
+            }
+            list.add(doc);
+        }
+
+        /**
+         * Adds the record of a message to the log buffer under its doc number.
+         */
+        void log(MessageView message, int doc) {
+            byte[] content = message.getContent() == null ? new byte[0] : message.getContent().getBytes(StandardCharsets.UTF_8);
+            int length = LOG_RECORD_BYTES + content.length;
+            if (pendingLog.remaining() < length) {
+                ByteBuffer larger = ByteBuffer.allocate(Math.max(pendingLog.capacity() * 2, pendingLog.position() + length));
+                pendingLog = larger.put(pendingLog.flip());
+            }
+            int position = pendingLog.position();
+            pendingLog.putInt(length)
+                    .putInt(0)
+                    .putInt(doc)
+                    .putLong(message.getId())
+                    .putLong(message.getSenderId())
+                    .putLong(message.getRecipientId())
+                    .putLong(message.getSeq())
+                    .putLong(message.getTimestamp() == null ? NO_TIMESTAMP : message.getTimestamp().getTime())
+                    .putInt(content.length)
+                    .put(content);
+            CRC32C crc = new CRC32C();
+            crc.update(pendingLog.array(), position + 8, length - 8);
+            pendingLog.putInt(position + 4, (int) crc.getValue());
+        }
+
+        /**
+         * Writes the buffered records to the log and forces them to disk. If that
+         * fails the log is cut back, since its records would otherwise be replayed
+         * under doc numbers the next messages are given.
+         */
+        void writeLog() throws IOException {
+            if (log == null) {
+                pendingLog.clear();
+                return;
+            }
+            long start = log.position();
+            pendingLog.flip();
+            try {
+                while (pendingLog.hasRemaining()) {
+                    log.write(pendingLog);
+                }
+                log.force(false);
+            } catch (IOException e) {
+                try {
+                    log.truncate(start);
+                    log.position(start);
+                } catch (IOException truncateFailure) {
+                    e.addSuppressed(truncateFailure);
+                }
+                throw e;
+            } finally {
+                pendingLog.clear();
+            }
+        }
+
+        void closeLog() throws IOException {
+            if (log != null) {
+                log.close();
+            }
+        }
+
+        void deleteLog() throws IOException {
+            closeLog();
+            if (logFile != null) {
+                Files.deleteIfExists(logFile);
+            }
+        }
+
+        @Override
+        public int docCount() {
+            return docs.size();
+        }
+
+        @Override
+        public long wordCount() {
+            return words;
+        }
+
+        @Override
+        public int docFrequency(Term term) {
+            Postings list = term.word() == null ? userPostings.get(term.userId()) : postings.get(term.word());
+            return list == null ? 0 : list.count;
+        }
+
+        @Override
+        public PostingCursor postings(Term term) {
+            Postings list = term.word() == null ? userPostings.get(term.userId()) : postings.get(term.word());
+            return list == null ? null : new MemoryCursor(list);
+        }
+
+        @Override
+        public int words(int doc) {
+            return docs.get(doc - docBase).words();
+        }
+
+        @Override
+        public long messageId(int doc) {
+            return docs.get(doc - docBase).messageId();
+        }
+
+        @Override
+        public long senderId(int doc) {
+            return docs.get(doc - docBase).senderId();
+        }
+
+        @Override
+        public long recipientId(int doc) {
+            return docs.get(doc - docBase).recipientId();
+        }
+
+        @Override
+        public SearchHit hit(int doc, double score) {
+            StoredDoc stored = docs.get(doc - docBase);
+            return new SearchHit(stored.messageId(), stored.senderId(), stored.recipientId(), stored.seq(),
+                    stored.timestamp() == NO_TIMESTAMP ? null : new Date(stored.timestamp()),
+                    new String(stored.content(), StandardCharsets.UTF_8), score);
+        }
+    }
+
+    /**
+     * Writes a segment file: the posting lists in term order, the dictionary,
+     * the doc table, the content, then the footer. The file is renamed into
+     * place on commit and deleted if the writer is closed before.
+     */
+    private final class SegmentWriter implements Closeable {
+        final long number;
+        final Path temporary;
+        final FileChannel channel;
+        final DataOutputStream out;
+        final IoThrottle throttle;
+        final int docBase;
+        final ByteArrayOutputStream dictionaryBytes = new ByteArrayOutputStream();
+        final DataOutputStream dictionary = new DataOutputStream(dictionaryBytes);
+        // the blocks of the posting list being written
+        byte[] blocks = new byte[1024];
+        int blocksLength;
+        int[] blockOffsets = new int[16];
+        int termCount;
+        int docCount;
+        long words;
+        long contentLength;
+        int dictionaryOffset;
+        int docTableOffset;
+        int contentOffset;
+        boolean done;
+
+        SegmentWriter(int docBase, IoThrottle throttle) throws IOException {
+            this.number = nextSegmentNumber.getAndIncrement();
+            this.temporary = directory.resolve(String.format("%020d%s%s", number, SEGMENT_SUFFIX, TEMPORARY_SUFFIX));
+            this.channel = FileChannel.open(temporary, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+            this.out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 64 * 1024));
+            this.throttle = throttle;
+            this.docBase = docBase;
+        }
+
+        /**
+         * Writes the posting list of the next term: its length, a skip table
+         * with the last doc and offset of each block, then the blocks, each doc
+         * as the varint gap from the one before and its frequency.
+         */
+        void writePostings(byte[] term, int[] docs, int[] frequencies, int count) throws IOException {
+            int blockCount = (count + BLOCK_SIZE - 1) / BLOCK_SIZE;
+            if (blockOffsets.length < blockCount) {
+                blockOffsets = new int[Math.max(blockCount, blockOffsets.length * 2)];
+            }
+            blocksLength = 0;
+            int previous = -1;
+            for (int i = 0; i < count; i++) {
+                if (i % BLOCK_SIZE == 0) {
+                    blockOffsets[i / BLOCK_SIZE] = blocksLength;
+                }
+                if (blocks.length - blocksLength < 10) {
+                    blocks = Arrays.copyOf(blocks, blocks.length * 2);
+                }
+                writeVarint(docs[i] - previous);
+                writeVarint(frequencies[i]);
+                previous = docs[i];
+            }
+            dictionary.writeShort(term.length);
+            dictionary.write(term);
+            dictionary.writeInt(count);
+            dictionary.writeInt(out.size());
+            out.writeInt(count);
+            out.writeInt(blockCount);
+            for (int b = 0; b < blockCount; b++) {
+                out.writeInt(docs[Math.min((b + 1) * BLOCK_SIZE, count) - 1]);
+                out.writeInt(blockOffsets[b]);
+            }
+            out.write(blocks, 0, blocksLength);
+            if (throttle != null) {
+                throttle.acquire(8L + blockCount * 8L + blocksLength);
+            }
+            termCount++;
+        }
+
+        private void writeVarint(int value) {
+            while ((value & ~0x7F) != 0) {
+                blocks[blocksLength++] = (byte) (value & 0x7F | 0x80);
+                value >>>= 7;
+            }
+            blocks[blocksLength++] = (byte) value;
+        }
+
+        void endPostings() throws IOException {
+            dictionaryOffset = out.size();
+            dictionaryBytes.writeTo(out);
+            docTableOffset = out.size();
+        }
+
+        void addDoc(long messageId, long senderId, long recipientId, long seq, long timestamp, int length, int docWords)
+                throws IOException {
+            out.writeLong(messageId);
+            out.writeLong(senderId);
+            out.writeLong(recipientId);
+            out.writeLong(seq);
+            out.writeLong(timestamp);
+            out.writeLong(contentLength);
+            out.writeInt(length);
+            out.writeInt(docWords);
+            contentLength += length;
+            words += docWords;
+            docCount++;
+        }
+
+        void endDocs() {
+            contentOffset = out.size();
+        }
+
+        DiskSegment commit() throws IOException {
+            CRC32C crc = new CRC32C();
+            crc.update(dictionaryBytes.toByteArray());
+            out.writeLong(dictionaryOffset);
+            out.writeLong(docTableOffset);
+            out.writeLong(contentOffset);
+            out.writeInt(termCount);
+            out.writeInt(docBase);
+            out.writeInt(docCount);
+            out.writeLong(words);
+            out.writeInt((int) crc.getValue());
+            out.writeInt(MAGIC);
+            out.flush();
+            if (out.size() == Integer.MAX_VALUE) {
+                throw new IOException("Search index segment is too large");
+            }
+            channel.force(true);
+            out.close();
+            done = true;
+            Path file = directory.resolve(String.format("%020d%s", number, SEGMENT_SUFFIX));
+            Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE);
+            return DiskSegment.open(file, number);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!done) {
+                done = true;
+                out.close();
+                Files.deleteIfExists(temporary);
+            }
+        }
+    }
+
+    /**
+     * A segment file, mapped in full; its dictionary is copied to the heap.
+     */
+    private static final class DiskSegment implements Segment {
+        final long number;
+        final Path file;
+        final FileChannel channel;
+        final MappedByteBuffer map;
+        final long size;
+        final int docBase;
+        final int docCount;
+        final long words;
+        final int docTableOffset;
+        final int contentOffset;
+        final int footerOffset;
+        // the terms' UTF-8 bytes end to end, term i from termStart[i] to termStart[i + 1]
+        final byte[] termBytes;
+        final int[] termStart;
+        final int[] docFrequency;
+        final int[] postingPosition;
+
+        private DiskSegment(long number, Path file, FileChannel channel, MappedByteBuffer map, int footerOffset)
+                throws IOException {
+            this.number = number;
+            this.file = file;
+            this.channel = channel;
+            this.map = map;
+            this.size = map.capacity();
+            this.footerOffset = footerOffset;
+            int dictionaryOffset = (int) map.getLong(footerOffset);
+            this.docTableOffset = (int) map.getLong(footerOffset + 8);
+            this.contentOffset = (int) map.getLong(footerOffset + 16);
+            int termCount = map.getInt(footerOffset + 24);
+            this.docBase = map.getInt(footerOffset + 28);
+            this.docCount = map.getInt(footerOffset + 32);
+            this.words = map.getLong(footerOffset + 36);
+            if (map.getInt(footerOffset + 48) != MAGIC || dictionaryOffset < 0 || dictionaryOffset > docTableOffset
+                    || docTableOffset + (long) docCount * DOC_BYTES != contentOffset || contentOffset > footerOffset) {
+                throw new IOException("Search index segment " + file + " is not valid");
+            }
+            byte[] dictionary = new byte[docTableOffset - dictionaryOffset];
+            map.get(dictionaryOffset, dictionary);
+            CRC32C crc = new CRC32C();
+            crc.update(dictionary);
+            if ((int) crc.getValue() != map.getInt(footerOffset + 44)) {
+                throw new IOException("Search index segment " + file + " has a corrupt dictionary");
+            }
+            ByteBuffer entries = ByteBuffer.wrap(dictionary);
+            ByteArrayOutputStream terms = new ByteArrayOutputStream();
+            this.termStart = new int[termCount + 1];
+            this.docFrequency = new int[termCount];
+            this.postingPosition = new int[termCount];
+            for (int i = 0; i < termCount; i++) {
+                int length = entries.getShort() & 0xFFFF;
+                termStart[i] = terms.size();
+                terms.write(dictionary, entries.position(), length);
+                entries.position(entries.position() + length);
+                docFrequency[i] = entries.getInt();
+                postingPosition[i] = entries.getInt();
+            }
+            termStart[termCount] = terms.size();
+            this.termBytes = terms.toByteArray();
+        }
+
+        static DiskSegment open(Path file, long number) throws IOException {
+            FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+            try {
+                long size = channel.size();
+                if (size < FOOTER_BYTES || size > Integer.MAX_VALUE) {
+                    throw new IOException("Search index segment " + file + " is not valid");
+                }
+                MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                return new DiskSegment(number, file, channel, map, (int) size - FOOTER_BYTES);
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        int termCount() {
+            return docFrequency.length;
+        }
+
+        byte[] term(int index) {
+            return Arrays.copyOfRange(termBytes, termStart[index], termStart[index + 1]);
+        }
+
+        int compareTerms(int index, DiskSegment other, int otherIndex) {
+            return Arrays.compareUnsigned(termBytes, termStart[index], termStart[index + 1],
+                    other.termBytes, other.termStart[otherIndex], other.termStart[otherIndex + 1]);
+        }
+
+        /**
+         * Returns the index of a term in the dictionary, or -1 if the segment does not hold it.
+         */
+        int find(byte[] term) {
+            int from = 0;
+            int to = docFrequency.length - 1;
+            while (from <= to) {
+                int middle = (from + to) >>> 1;
+                int order = Arrays.compareUnsigned(termBytes, termStart[middle], termStart[middle + 1], term, 0, term.length);
+                if (order < 0) {
+                    from = middle + 1;
+                } else if (order > 0) {
+                    to = middle - 1;
+                } else {
+                    return middle;
+                }
+            }
+            return -1;
+        }
+
+        int docPosition(int doc) {
+            return docTableOffset + (doc - docBase) * DOC_BYTES;
+        }
+
+        @Override
+        public int docCount() {
+            return docCount;
+        }
+
+        @Override
+        public long wordCount() {
+            return words;
+        }
+
+        @Override
+        public int docFrequency(Term term) {
+            int index = find(term.bytes());
+            return index < 0 ? 0 : docFrequency[index];
+        }
+
+        @Override
+        public PostingCursor postings(Term term) {
+            int index = find(term.bytes());
+            return index < 0 ? null : new DiskCursor(map, postingPosition[index]);
+        }
+
+        @Override
+        public int words(int doc) {
+            return map.getInt(docPosition(doc) + 52);
+        }
+
+        @Override
+        public long messageId(int doc) {
+            return map.getLong(docPosition(doc));
+        }
+
+        @Override
+        public long senderId(int doc) {
+            return map.getLong(docPosition(doc) + 8);
+        }
+
+        @Override
+        public long recipientId(int doc) {
+            return map.getLong(docPosition(doc) + 16);
+        }
+
+        @Override
+        public SearchHit hit(int doc, double score) {
+            int position = docPosition(doc);
+            long timestamp = map.getLong(position + 32);
+            byte[] content = new byte[map.getInt(position + 48)];
+            map.get(contentOffset + (int) map.getLong(position + 40), content);
+            return new SearchHit(map.getLong(position), map.getLong(position + 8), map.getLong(position + 16),
+                    map.getLong(position + 24), timestamp == NO_TIMESTAMP ? null : new Date(timestamp),
+                    new String(content, StandardCharsets.UTF_8), score);
+        }
+    }
+
+    /**
+     * Walks a posting list of a segment file, one decoded block at a time,
+     * skipping the blocks that end before a target.
+     */
+    private static final class DiskCursor extends PostingCursor {
+        final ByteBuffer map;
+        final int count;
+        final int blockCount;
+        final int skipTable;
+        final int data;
+        final int[] docs = new int[BLOCK_SIZE];
+        final int[] frequencies = new int[BLOCK_SIZE];
+        int block = -1;
+        int length;
+        int index;
+
+        DiskCursor(ByteBuffer map, int position) {
+            this.map = map;
+            this.count = map.getInt(position);
+            this.blockCount = map.getInt(position + 4);
+            this.skipTable = position + 8;
+            this.data = skipTable + blockCount * 8;
+        }
+
+        @Override
+        int count() {
+            return count;
+        }
+
+        @Override
+        int advance(int target) {
+            if (doc >= target) {
+                return doc;
+            }
+            if (block < 0 || docs[length - 1] < target) {
+                int from = block + 1;
+                int to = blockCount - 1;
+                if (from > to || lastDoc(to) < target) {
+                    return doc = END;
+                }
+                while (from < to) {
+                    int middle = (from + to) >>> 1;
+                    if (lastDoc(middle) < target) {
+                        from = middle + 1;
+                    } else {
+                        to = middle;
+                    }
+                }
+                decode(from);
+            }
+            while (docs[index] < target) {
+                index++;
+            }
+            return doc = docs[index];
+        }
+
+        @Override
+        int frequency() {
+            return frequencies[index];
+        }
+
+        private int lastDoc(int b) {
+            return map.getInt(skipTable + b * 8);
+        }
+
+        private void decode(int b) {
+            int position = data + map.getInt(skipTable + b * 8 + 4);
+            int previous = b == 0 ? -1 : lastDoc(b - 1);
+            length = Math.min(BLOCK_SIZE, count - b * BLOCK_SIZE);
+            for (int i = 0; i < length; i++) {
+                int value = 0;
+                int shift = 0;
+                byte next;
+                do {
+                    next = map.get(position++);
+                    value |= (next & 0x7F) << shift;
+                    shift += 7;
+                } while (next < 0);
+                previous += value;
+                docs[i] = previous;
+                value = 0;
+                shift = 0;
+                do {
+                    next = map.get(position++);
+                    value |= (next & 0x7F) << shift;
+                    shift += 7;
+                } while (next < 0);
+                frequencies[i] = value;
+            }
+            block = b;
+            index = 0;
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package org.example.persistence;
+
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * MessageStore keeps the history of the conversations between users. It names
+ * users by ID only and orders the messages of each conversation by their
+ * sequence number, so it can be served by the database or by files.
+ * The store in use is chosen by {@code chat.messageStore}, see {@link Repositories#messageStore()}.
+ */
+public interface MessageStore {
+
+    /**
+     * Appends messages, giving each the next sequence number of its conversation.
+     * The messages are saved when the method returns.
+     *
+     * @param messages the messages to be appended, in the order they were sent
+     * @return the messages as saved, with their IDs and sequence numbers
+     */
+    List<MessageView> append(List<NewMessage> messages);
+
+    /**
+     * Reads a range of a conversation: the newest messages before a sequence number, oldest first.
+     *
+     * @param userId    the ID of one user
+     * @param otherId   the ID of the other user
+     * @param beforeSeq the sequence number the range ends before, or {@link Long#MAX_VALUE} for the newest messages
+     * @param limit     the largest number of messages returned
+     * @return the messages of the range, oldest first
+     */
+    List<MessageView> read(long userId, long otherId, long beforeSeq, int limit);
+
+    /**
+     * Marks every message a user received in a conversation as read.
+     *
+     * @param readerId the ID of the user who read the messages
+     * @param otherId  the ID of the user who sent them
+     * @return the number of messages that were unread
+     */
+    int markRead(long readerId, long otherId);
+
+    /**
+     * Counts the unread messages a user received from another.
+     *
+     * @param senderId    the ID of the sender
+     * @param recipientId the ID of the recipient
+     * @return the number of unread messages
+     */
+    int countUnread(long senderId, long recipientId);
+
+    /**
+     * Counts the unread messages of a user in all of their conversations at once.
+     *
+     * @param recipientId the ID of the recipient
+     * @return the number of unread messages by sender ID; senders without unread messages are left out
+     */
+    Map<Long, Integer> countUnreadBySender(long recipientId);
+
+    /**
+     * Passes every message of the store to a consumer, in no particular order.
+     * Used to rebuild what is derived from the history, such as the search index.
+     *
+     * @param consumer the consumer receiving each message
+     */
+    void scan(Consumer<MessageView> consumer);
+
+    /**
+     * Releases the resources of the store. Appends are not accepted afterwards.
+     */
+    void close();
+}
@@ -0,0 +1,103 @@
+package org.example.persistence;
+
+import java.util.Date;
+
+/**
+ * MessageView is a read-only copy of a message for display. It names the
+ * sender and recipient by ID only, so reading history never loads users.
+ * Its sequence number is the cursor for fetching the page before it.
+ */
+public class MessageView {
+
+    private final long id;
+    private final long senderId;
+    private final long recipientId;
+    private final String content;
+    private final Date timestamp;
+    private final boolean read;
+    private final long seq;
+
+    /**
+     * Constructs a new MessageView.
+     *
+     * @param id          the ID of the message
+     * @param senderId    the ID of the sender
+     * @param recipientId the ID of the recipient
+     * @param content     the content of the message
+     * @param timestamp   the time the message was sent
+     * @param read        whether the recipient has read the message
+     * @param seq         the position of the message in its conversation
+     */
+    public MessageView(long id, long senderId, long recipientId, String content, Date timestamp, boolean read, long seq) {
+        this.id = id;
+        this.senderId = senderId;
+        this.recipientId = recipientId;
+        this.content = content;
+        this.timestamp = timestamp;
+        this.read = read;
+        this.seq = seq;
+    }
+
+    /**
+     * Returns the ID of the message.
+     *
+     * @return the ID of the message
+     */
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * Returns the ID of the sender.
+     *
+     * @return the ID of the sender
+     */
+    public long getSenderId() {
+        return senderId;
+    }
+
+    /**
+     * Returns the ID of the recipient.
+     *
+     * @return the ID of the recipient
+     */
+    public long getRecipientId() {
+        return recipientId;
+    }
+
+    /**
+     * Returns the content of the message.
+     *
+     * @return the content of the message
+     */
+    public String getContent() {
+        return content;
+    }
+
+    /**
+     * Returns the time the message was sent.
+     *
+     * @return the time the message was sent
+     */
+    public Date getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Returns whether the recipient has read the message.
+     *
+     * @return whether the recipient has read the message
+     */
+    public boolean isRead() {
+        return read;
+    }
+
+    /**
+     * Returns the position of the message in its conversation.
+     *
+     * @return the position of the message in its conversation
+     */
+    public long getSeq() {
+        return seq;
+    }
+}
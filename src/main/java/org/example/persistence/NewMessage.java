@@ -0,0 +1,46 @@
+package org.example.persistence;
+
+import java.util.Date;
+
+/**
+ * NewMessage is a message to be inserted, naming its sender and recipient by
+ * ID so that neither user has to be loaded to save it.
+ */
+public class NewMessage {
+
+    private final long senderId;
+    private final long recipientId;
+    private final String content;
+    private final Date timestamp;
+
+    /**
+     * Constructs a new NewMessage.
+     *
+     * @param senderId    the ID of the sender
+     * @param recipientId the ID of the recipient
+     * @param content     the content of the message
+     * @param timestamp   the time the message was sent
+     */
+    public NewMessage(long senderId, long recipientId, String content, Date timestamp) {
+        this.senderId = senderId;
+        this.recipientId = recipientId;
+        this.content = content;
+        this.timestamp = timestamp;
+    }
+
+    public long getSenderId() {
+        return senderId;
+    }
+
+    public long getRecipientId() {
+        return recipientId;
+    }
+
+    public String getContent() {
+        return content;
+    }
+
+    public Date getTimestamp() {
+        return timestamp;
+    }
+}
@@ -0,0 +1,86 @@
+package org.example.persistence;
+
+import com.zaxxer.hikari.metrics.IMetricsTracker;
+import com.zaxxer.hikari.metrics.MetricsTrackerFactory;
+import com.zaxxer.hikari.metrics.PoolStats;
+import org.example.server.LatencyHistogram;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * PoolMetrics receives the measurements of the JDBC connection pool: how
+ * long each connection took to acquire and was held, how many acquisitions
+ * timed out, and the active, idle and pending connection counts.
+ */
+public class PoolMetrics implements MetricsTrackerFactory {
+
+    private final LatencyHistogram acquire = new LatencyHistogram();
+    private final LatencyHistogram usage = new LatencyHistogram();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder created = new LongAdder();
+    private volatile PoolStats stats;
+
+    @Override
+    public IMetricsTracker create(String poolName, PoolStats poolStats) {
+        this.stats = poolStats;
+        return new IMetricsTracker() {
+            @Override
+            public void recordConnectionCreatedMillis(long connectionCreatedMillis) {
+                created.increment();
+            }
+
+            @Override
+            public void recordConnectionAcquiredNanos(long elapsedAcquiredNanos) {
+                acquire.record(elapsedAcquiredNanos);
+            }
+
+            @Override
+            public void recordConnectionUsageMillis(long elapsedBorrowedMillis) {
+                usage.record(elapsedBorrowedMillis * 1_000_000);
+            }
+
+            @Override
+            public void recordConnectionTimeout() {
+                timeouts.increment();
+            }
+        };
+    }
+
+    /**
+     * Returns the times taken to acquire a connection from the pool.
+     *
+     * @return the acquire-time histogram
+     */
+    public LatencyHistogram getAcquireTimes() {
+        return acquire;
+    }
+
+    /**
+     * Returns the times connections were held before being returned to the pool.
+     *
+     * @return the usage-time histogram
+     */
+    public LatencyHistogram getUsageTimes() {
+        return usage;
+    }
+
+    /**
+     * Returns a one-line summary of the pool.
+     *
+     * @return the summary
+     */
+    public String summary() {
+        PoolStats current = stats;
+        String connections = current == null ? "pool not started" :
+                "active=" + current.getActiveConnections() +
+                " idle=" + current.getIdleConnections() +
+                " pending=" + current.getPendingThreads() +
+                " total=" + current.getTotalConnections() +
+                " max=" + current.getMaxConnections();
+        return connections +
+                " created=" + created.sum() +
+                " timeouts=" + timeouts.sum() +
+                " acquire[" + acquire.summary() + "]" +
+                " usage[" + usage.summary() + "]";
+    }
+}
@@ -0,0 +1,209 @@
+package org.example.persistence;
+
+import org.example.server.ServerConfig;
+import org.example.util.HibernateUtil;
+import org.example.util.IoThrottle;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Repositories holds the repositories shared by the application,
+ * all backed by the session factory of {@link HibernateUtil}.
+ * The friend graph, the message archive, the search index and the message
+ * store are each opened on first use. The search index and the message log
+ * belong to the server, so a process opens them only after
+ * {@link #enableServerComponents()}; the desktop client reads the database.
+ */
+public class Repositories {
+
+    private static final TransactionTemplate template = new TransactionTemplate(HibernateUtil.getSessionFactory());
+    private static final UserRepository users = new HibernateUserRepository(template);
+    private static final MessageRepository messages = new HibernateMessageRepository(template);
+    private static final FriendRequestRepository friendRequests = new HibernateFriendRequestRepository(template);
+    private static final UserCache userCache = new UserCache(
+            ServerConfig.getInt("userCacheSize", 10_000),
+            ServerConfig.getInt("userCacheTtlSeconds", 300),
+            users::findByUsername);
+    private static volatile boolean serverComponents;
+
+    private static final class FriendGraphHolder {
+        static final FriendGraph friendGraph = new FriendGraph();
+    }
+
+    private static final class MessageArchiveHolder {
+        static final MessageArchive messageArchive = openMessageArchive();
+    }
+
+    private static final class SearchIndexHolder {
+        static final MessageSearchIndex searchIndex = serverComponents ? openSearchIndex() : null;
+    }
+
+    private static final class MessageStoreHolder {
+        static final MessageStore messageStore = SearchIndexHolder.searchIndex == null
+                ? openMessageStore() : new IndexedMessageStore(openMessageStore(), SearchIndexHolder.searchIndex);
+    }
+
+    /**
+     * Lets this process open the components only the server uses: the search
+     * index with {@code chat.searchIndex}, and the message log with
+     * {@code chat.messageStore=log}. Without it the search index is absent and
+     * the message store is the database. Call it before the first use of
+     * {@link #messageStore()} or {@link #searchIndex()}.
+     */
+    public static void enableServerComponents() {
+        serverComponents = true;
+    }
+
+    /**
+     * Returns the template running units of work against the shared session factory.
+     *
+     * @return the transaction template
+     */
+    public static TransactionTemplate transactions() {
+        return template;
+    }
+
+    /**
+     * Returns the user repository.
+     *
+     * @return the user repository
+     */
+    public static UserRepository users() {
+        return users;
+    }
+
+    /**
+     * Returns the message repository.
+     *
+     * @return the message repository
+     */
+    public static MessageRepository messages() {
+        return messages;
+    }
+
+    /**
+     * Returns the friend request repository.
+     *
+     * @return the friend request repository
+     */
+    public static FriendRequestRepository friendRequests() {
+        return friendRequests;
+    }
+
+    /**
+     * Returns the cache of users by username, configured by
+     * {@code chat.userCacheSize} and {@code chat.userCacheTtlSeconds}.
+     *
+     * @return the user cache
+     */
+    public static UserCache userCache() {
+        return userCache;
+    }
+
+    /**
+     * Returns the resident friend graph, empty until the server warms it.
+     *
+     * @return the friend graph
+     */
+    public static FriendGraph friendGraph() {
+        return FriendGraphHolder.friendGraph;
+    }
+
+    /**
+     * Returns the store holding the message history: the messages table by
+     * default, or in the server with {@code chat.messageStore=log} a memory-mapped log in
+     * {@code chat.messageLogDir}, with segments of {@code chat.messageLogSegmentMB}
+     * and, if {@code chat.messageLogFsync} is true, each append forced to disk.
+     * The database store reads through to the {@link #messageArchive()}, and
+     * every store feeds the {@link #searchIndex()} when there is one.
+     *
+     * @return the message store
+     */
+    public static MessageStore messageStore() {
+        return MessageStoreHolder.messageStore;
+    }
+
+    /**
+     * Returns the archive of the messages {@link MessageRetention} moved out of the
+     * messages table, kept in {@code chat.archiveDir}. The message log has none;
+     * with the database the server opens it for writing when {@code chat.messageRetentionDays}
+     * is set, and otherwise it is opened read-only when the directory exists. So turning retention
+     * off keeps the archived history readable, and the desktop client, which reads
+     * history from the database itself, reads the archive of a server on the same
+     * machine or share when {@code chat.archiveDir} points at it.
+     *
+     * @return the message archive, or null if there is none
+     */
+    public static MessageArchive messageArchive() {
+        return MessageArchiveHolder.messageArchive;
+    }
+
+    /**
+     * Returns the full-text index of the message history, kept in
+     * {@code chat.searchIndexDir} when {@code chat.searchIndex} is true in the server. It holds
+     * {@code chat.searchFlushDocs} messages in memory before writing them to a
+     * segment file, and merges segment files at {@code chat.searchMergeBytesPerSecond}.
+     * Build it for an existing history with {@link org.example.RebuildSearchIndex}.
+     *
+     * @return the search index, or null if there is none
+     */
+    public static MessageSearchIndex searchIndex() {
+        return SearchIndexHolder.searchIndex;
+    }
+
+    private static MessageArchive openMessageArchive() {
+        Path directory = Path.of(ServerConfig.get("archiveDir", "message-archive"));
+        boolean writes = serverComponents && ServerConfig.getInt("messageRetentionDays", 0) > 0;
+        if (usesMessageLog() || !writes && !Files.isDirectory(directory)) {
+            return null;
+        }
+        try {
+            return writes ? new MessageArchive(directory) : MessageArchive.openReadOnly(directory);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot open the message archive", e);
+        }
+    }
+
+    private static MessageStore openMessageStore() {
+        if (!usesMessageLog()) {
+            return new HibernateMessageStore(messages, MessageArchiveHolder.messageArchive);
+        }
+        try {
+            return new MappedLogMessageStore(
+                    Path.of(ServerConfig.get("messageLogDir", "message-log")),
+                    Math.max(1, ServerConfig.getInt("messageLogSegmentMB", 64)) * 1024 * 1024,
+                    Boolean.parseBoolean(ServerConfig.get("messageLogFsync", "false")));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot open the message log", e);
+        }
+    }
+
+    private static MessageSearchIndex openSearchIndex() {
+        if (!Boolean.parseBoolean(ServerConfig.get("searchIndex", "false"))) {
+            return null;
+        }
+        try {
+            return new MessageSearchIndex(searchIndexDirectory(),
+                    ServerConfig.getInt("searchFlushDocs", 100_000),
+                    new IoThrottle(ServerConfig.getInt("searchMergeBytesPerSecond", 16 * 1024 * 1024)));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot open the search index", e);
+        }
+    }
+
+    /**
+     * Returns the directory of the search index, {@code chat.searchIndexDir}.
+     *
+     * @return the directory
+     */
+    public static Path searchIndexDirectory() {
+        return Path.of(ServerConfig.get("searchIndexDir", "search-index"));
+    }
+
+    private static boolean usesMessageLog() {
+        return serverComponents && "log".equalsIgnoreCase(ServerConfig.get("messageStore", "database"));
+    }
+}
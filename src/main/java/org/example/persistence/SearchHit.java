@@ -0,0 +1,103 @@
+package org.example.persistence;
+
+import java.util.Date;
+
+/**
+ * SearchHit is a message found by the {@link MessageSearchIndex}, with its
+ * relevance to the query. It carries what the index keeps of the message:
+ * enough to show it, and its sequence number to open its conversation there.
+ */
+public class SearchHit {
+
+    private final long messageId;
+    private final long senderId;
+    private final long recipientId;
+    private final long seq;
+    private final Date timestamp;
+    private final String content;
+    private final double score;
+
+    /**
+     * Constructs a new SearchHit.
+     *
+     * @param messageId   the ID of the message
+     * @param senderId    the ID of the sender
+     * @param recipientId the ID of the recipient
+     * @param seq         the position of the message in its conversation
+     * @param timestamp   the time the message was sent
+     * @param content     the content of the message
+     * @param score       the relevance of the message, higher is better
+     */
+    public SearchHit(long messageId, long senderId, long recipientId, long seq, Date timestamp, String content, double score) {
+        this.messageId = messageId;
+        this.senderId = senderId;
+        this.recipientId = recipientId;
+        this.seq = seq;
+        this.timestamp = timestamp;
+        this.content = content;
+        this.score = score;
+    }
+
+    /**
+     * Returns the ID of the message.
+     *
+     * @return the ID of the message
+     */
+    public long getMessageId() {
+        return messageId;
+    }
+
+    /**
+     * Returns the ID of the sender.
+     *
+     * @return the ID of the sender
+     */
+    public long getSenderId() {
+        return senderId;
+    }
+
+    /**
+     * Returns the ID of the recipient.
+     *
+     * @return the ID of the recipient
+     */
+    public long getRecipientId() {
+        return recipientId;
+    }
+
+    /**
+     * Returns the position of the message in its conversation.
+     *
+     * @return the position of the message in its conversation
+     */
+    public long getSeq() {
+        return seq;
+    }
+
+    /**
+     * Returns the time the message was sent.
+     *
+     * @return the time the message was sent
+     */
+    public Date getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Returns the content of the message.
+     *
+     * @return the content of the message
+     */
+    public String getContent() {
+        return content;
+    }
+
+    /**
+     * Returns the relevance of the message, higher is better.
+     *
+     * @return the relevance of the message, higher is better
+     */
+    public double getScore() {
+        return score;
+    }
+}
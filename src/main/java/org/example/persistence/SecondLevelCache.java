@@ -0,0 +1,84 @@
+package org.example.persistence;
+
+import org.example.models.User;
+import org.example.util.HibernateUtil;
+import org.hibernate.Cache;
+import org.hibernate.stat.CacheRegionStatistics;
+import org.hibernate.stat.Statistics;
+
+import java.util.Collection;
+
+/**
+ * SecondLevelCache evicts the cached rows that native writes make stale,
+ * and reports the hit, miss and size counts of every cache region.
+ * Hibernate already updates the entries it writes itself. The cached query
+ * results need no eviction: every native write names the tables it changes,
+ * so Hibernate invalidates just the queries over those tables, and a cached
+ * query result holds only IDs, whose rows are read through the entity cache.
+ */
+public class SecondLevelCache {
+
+    private static final String FRIENDS_ROLE = User.class.getName() + ".friends";
+    private static final String MODELS_PACKAGE = User.class.getPackageName() + ".";
+
+    /**
+     * Evicts the cached friend lists of both users of a friendship. The users'
+     * own rows do not change.
+     *
+     * @param user   the first user
+     * @param friend the second user
+     */
+    public static void evictFriendship(User user, User friend) {
+        Cache cache = HibernateUtil.getSessionFactory().getCache();
+        for (User side : new User[]{user, friend}) {
+            if (side != null && side.getId() != null) {
+                cache.evictCollectionData(FRIENDS_ROLE, side.getId());
+            }
+        }
+    }
+
+    /**
+     * Evicts users whose rows were updated outside Hibernate.
+     *
+     * @param ids the IDs of the users
+     */
+    public static void evictUsers(Collection<Long> ids) {
+        if (ids.isEmpty()) {
+            return;
+        }
+        Cache cache = HibernateUtil.getSessionFactory().getCache();
+        for (Long id : ids) {
+            cache.evictEntityData(User.class, id);
+        }
+    }
+
+    /**
+     * Returns a one-line summary of the cache regions and the query cache.
+     * Region sizes are set in ehcache.xml.
+     *
+     * @return the summary
+     */
+    public static String summary() {
+        Statistics statistics = HibernateUtil.getSessionFactory().getStatistics();
+        StringBuilder summary = new StringBuilder()
+                .append("queries[hits=").append(statistics.getQueryCacheHitCount())
+                .append(" misses=").append(statistics.getQueryCacheMissCount())
+                .append(" puts=").append(statistics.getQueryCachePutCount()).append(']');
+        for (String region : statistics.getSecondLevelCacheRegionNames()) {
+            CacheRegionStatistics regionStatistics = statistics.getCacheRegionStatistics(region);
+            if (regionStatistics == null) {
+                continue;
+            }
+            summary.append(' ').append(region.startsWith(MODELS_PACKAGE) ? region.substring(MODELS_PACKAGE.length()) : region)
+                    .append("[hits=").append(regionStatistics.getHitCount())
+                    .append(" misses=").append(regionStatistics.getMissCount())
+                    .append(" puts=").append(regionStatistics.getPutCount());
+            // JCache regions cannot count their entries
+            if (regionStatistics.getElementCountInMemory() >= 0) {
+                summary.append(" size=").append(regionStatistics.getElementCountInMemory());
+            }
+            summary.append(']');
+        }
+        return summary.toString();
+    }
+}
@@ -0,0 +1,95 @@
+package org.example.persistence;
+
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.id.IdentifierGenerator;
+
+import java.time.Instant;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * SnowflakeIdGenerator hands out time-ordered 64-bit IDs without touching the database.
+ * An ID holds, from the highest bit down, 41 bits of milliseconds since
+ * {@link #EPOCH}, a 10-bit worker number and a 12-bit sequence, so IDs of one
+ * process always increase and IDs sort by creation time across processes.
+ * <p>
+ * Every process writing to the database needs its own worker number, set
+ * with the {@code chat.workerId} system property (0 to 1023). Without it a
+ * random worker number is used.
+ */
+public class SnowflakeIdGenerator implements IdentifierGenerator {
+
+    /**
+     * The start of the ID clock, 2024-01-01T00:00:00Z.
+     */
+    public static final long EPOCH = Instant.parse("2024-01-01T00:00:00Z").toEpochMilli();
+
+    private static final int WORKER_BITS = 10;
+    private static final int SEQUENCE_BITS = 12;
+    private static final long MAX_WORKER = (1L << WORKER_BITS) - 1;
+
+    private static final long worker = workerId();
+    // milliseconds since EPOCH shifted left by SEQUENCE_BITS, plus the sequence
+    private static final AtomicLong state = new AtomicLong();
+
+    /**
+     * Returns a new ID.
+     *
+     * @return an ID greater than every ID returned before by this process
+     */
+    public static long nextId() {
+        long last;
+        long next;
+        do {
+            last = state.get();
+            long now = System.currentTimeMillis() - EPOCH;
+            // when the sequence runs out or the clock goes back, the count
+            // carries on into the next millisecond instead of waiting
+            next = now > last >>> SEQUENCE_BITS ? now << SEQUENCE_BITS : last + 1;
+        } while (!state.compareAndSet(last, next));
+        return (next >>> SEQUENCE_BITS) << (WORKER_BITS + SEQUENCE_BITS)
+                | worker << SEQUENCE_BITS
+                | next & ((1L << SEQUENCE_BITS) - 1);
+    }
+
+    /**
+     * Returns the creation time encoded in an ID.
+     *
+     * @param id an ID returned by {@link #nextId()}
+     * @return the time the ID was created, in milliseconds since 1970
+     */
+    public static long timestampOf(long id) {
+        return (id >>> (WORKER_BITS + SEQUENCE_BITS)) + EPOCH;
+    }
+
+    /**
+     * Returns the smallest ID that can be created at a time, useful as a lower bound in queries.
+     *
+     * @param epochMillis the time in milliseconds since 1970
+     * @return the smallest ID of that millisecond
+     */
+    public static long firstIdAt(long epochMillis) {
+        return Math.max(0, epochMillis - EPOCH) << (WORKER_BITS + SEQUENCE_BITS);
+    }
+
+    private static long workerId() {
+        String value = System.getProperty("chat.workerId");
+        if (value != null) {
+            try {
+                long id = Long.parseLong(value.trim());
+                if (id >= 0 && id <= MAX_WORKER) {
+                    return id;
+                }
+            } catch (NumberFormatException e) {
+                // reported below
+            }
+            System.err.println("Invalid value for chat.workerId: " + value + ", using a random worker");
+        }
+        return ThreadLocalRandom.current().nextLong(MAX_WORKER + 1);
+    }
+
+    @Override
+    public Object generate(SharedSessionContractImplementor session, Object object) {
+        return nextId();
+    }
+}
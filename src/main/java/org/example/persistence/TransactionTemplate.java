@@ -0,0 +1,94 @@
+package org.example.persistence;
+
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+import org.hibernate.query.NativeQuery;
+
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * TransactionTemplate runs a unit of work in a session of its own.
+ * The session is opened for the work and closed after it; writes run in a
+ * transaction that commits when the work returns and rolls back when it throws.
+ * Sessions are never shared, so any number of threads can use one template.
+ */
+public class TransactionTemplate {
+
+    private final SessionFactory sessionFactory;
+
+    /**
+     * Constructs a new TransactionTemplate opening sessions from the specified factory.
+     *
+     * @param sessionFactory the factory of the sessions
+     */
+    public TransactionTemplate(SessionFactory sessionFactory) {
+        this.sessionFactory = sessionFactory;
+    }
+
+    /**
+     * Runs work in a transaction.
+     *
+     * @param work the work, given the session it runs in
+     * @param <T>  the type of the result
+     * @return the result of the work
+     * @throws RuntimeException whatever the work or the commit threw, after rolling back
+     */
+    public <T> T execute(Function<Session, T> work) {
+        try (Session session = sessionFactory.openSession()) {
+            Transaction transaction = session.beginTransaction();
+            try {
+                T result = work.apply(session);
+                transaction.commit();
+                return result;
+            } catch (RuntimeException | Error e) {
+                if (transaction.isActive()) {
+                    transaction.rollback();
+                }
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Runs work without a result in a transaction.
+     *
+     * @param work the work, given the session it runs in
+     * @throws RuntimeException whatever the work or the commit threw, after rolling back
+     */
+    public void executeWithoutResult(Consumer<Session> work) {
+        execute(session -> {
+            work.accept(session);
+            return null;
+        });
+    }
+
+    /**
+     * Runs read-only work outside a transaction. Entities loaded by the work
+     * are not tracked for changes, and lazy associations must be loaded inside it.
+     *
+     * @param work the work, given the session it runs in
+     * @param <T>  the type of the result
+     * @return the result of the work
+     */
+    public <T> T read(Function<Session, T> work) {
+        try (Session session = sessionFactory.openSession()) {
+            session.setDefaultReadOnly(true);
+            return work.apply(session);
+        }
+    }
+
+    /**
+     * Creates a native insert, update or delete. A {@code MutationQuery} cannot
+     * name the tables it changes, so without this every native write would
+     * invalidate the whole query cache; the native query behind it can.
+     *
+     * @param session the session the statement runs in
+     * @param sql     the SQL statement
+     * @return the statement, to name its query spaces on and execute
+     */
+    static NativeQuery<?> nativeMutation(Session session, String sql) {
+        return (NativeQuery<?>) session.createNativeMutationQuery(sql);
+    }
+}
@@ -0,0 +1,191 @@
+package org.example.persistence;
+
+import org.example.models.User;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+/**
+ * UserCache keeps recently used users by username, so hot paths such as
+ * saving a private message do not query the database for the same users
+ * over and over. It holds at most {@code maxSize} users, evicting the least
+ * recently used one, and reloads a user once it is older than the TTL.
+ * <p>
+ * Cached users are detached snapshots: their IDs and usernames are safe to
+ * use, while their active status may be stale until the entry is invalidated
+ * or expires. Their friend lists are not loaded; read friends through
+ * {@link UserRepository#findFriends(String)}.
+ */
+public class UserCache {
+
+    private final int maxSize;
+    private final long ttlNanos;
+    private final Function<String, User> loader;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LinkedHashMap<String, Entry> entries;
+    // the load under way per username; invalidating a user takes its load away,
+    // so a user read before the change is not cached after it
+    private final HashMap<String, Object> loads = new HashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    /**
+     * Constructs a new UserCache.
+     *
+     * @param maxSize    the largest number of users kept
+     * @param ttlSeconds how long a user is kept before being reloaded
+     * @param loader     loads a user by username, returning null if there is none
+     */
+    public UserCache(int maxSize, long ttlSeconds, Function<String, User> loader) {
+        this.maxSize = Math.max(1, maxSize);
+        this.ttlNanos = TimeUnit.SECONDS.toNanos(Math.max(1, ttlSeconds));
+        this.loader = loader;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                if (size() > UserCache.this.maxSize) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Returns a user, loading it if it is not cached or has expired.
+     * Missing users are not cached.
+     *
+     * @param username the username of the user
+     * @return the user, or null if there is none
+     */
+    public User get(String username) {
+        if (username == null) {
+            return null;
+        }
+        lock.lock();
+        try {
+            Entry entry = entries.get(username);
+            if (entry != null) {
+                if (System.nanoTime() - entry.loadedAt < ttlNanos) {
+                    hits.increment();
+                    return entry.user;
+                }
+                entries.remove(username);
+                expirations.increment();
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        misses.increment();
+        // load outside the lock, two threads missing the same user both query once
+        Object load = new Object();
+        lock.lock();
+        try {
+            loads.put(username, load);
+        } finally {
+            lock.unlock();
+        }
+        long loadedAt = System.nanoTime();
+        User user = null;
+        try {
+            user = loader.apply(username);
+        } finally {
+            lock.lock();
+            try {
+                if (loads.remove(username, load) && user != null) {
+                    entries.put(username, new Entry(user, loadedAt));
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+        return user;
+    }
+
+    /**
+     * Drops a user, so the next lookup reloads it. A load of the user already
+     * under way is returned to its caller but not cached.
+     *
+     * @param username the username of the user
+     */
+    public void invalidate(String username) {
+        if (username == null) {
+            return;
+        }
+        lock.lock();
+        try {
+            loads.remove(username);
+            if (entries.remove(username) != null) {
+                invalidations.increment();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Drops every user.
+     */
+    public void clear() {
+        lock.lock();
+        try {
+            invalidations.add(entries.size());
+            entries.clear();
+            loads.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of cached users.
+     *
+     * @return the size of the cache
+     */
+    public int size() {
+        lock.lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns a one-line summary of the cache.
+     *
+     * @return the summary
+     */
+    public String summary() {
+        long hitCount = hits.sum();
+        long lookups = hitCount + misses.sum();
+        return "size=" + size() + "/" + maxSize +
+                " hits=" + hitCount +
+                " misses=" + misses.sum() +
+                " hitRate=" + (lookups == 0 ? 0 : hitCount * 100 / lookups) + "%" +
+                " evictions=" + evictions.sum() +
+                " expirations=" + expirations.sum() +
+                " invalidations=" + invalidations.sum();
+    }
+
+    private static final class Entry {
+        final User user;
+        final long loadedAt;
+
+        Entry(User user, long loadedAt) {
+            this.user = user;
+            this.loadedAt = loadedAt;
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package org.example.persistence;
+
+import org.example.models.User;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * UserRepository stores users and their friendships.
+ */
+public interface UserRepository {
+
+    /**
+     * Inserts a new user.
+     *
+     * @param user the user to be inserted
+     */
+    void save(User user);
+
+    /**
+     * Writes the state of a user, including its friend list.
+     *
+     * @param user the user to be written
+     * @return the updated user
+     */
+    User update(User user);
+
+    /**
+     * Deletes a user together with its conversations and their messages.
+     *
+     * @param user the user to be deleted
+     */
+    void delete(User user);
+
+    /**
+     * Finds a user by username.
+     *
+     * @param username the username of the user
+     * @return the user, or null if there is none
+     */
+    User findByUsername(String username);
+
+    /**
+     * Finds a user by username and password.
+     *
+     * @param username the username of the user
+     * @param password the password of the user
+     * @return the user, or null if the credentials do not match
+     */
+    User findByCredentials(String username, String password);
+
+    /**
+     * Returns the usernames of users known by ID.
+     *
+     * @param ids the IDs of the users
+     * @return the username of each user by ID; missing users are left out
+     */
+    Map<Long, String> findUsernames(Collection<Long> ids);
+
+    /**
+     * Returns the friends of a user as views, in one query that loads no user entity.
+     *
+     * @param username the username of the user
+     * @return the friends of the user, or null if the user does not exist
+     */
+    List<FriendView> findFriends(String username);
+
+    /**
+     * Adds or removes a friendship on both sides in one transaction that writes
+     * only the two user_friends rows. Adding an existing friendship or removing
+     * a missing one changes nothing.
+     *
+     * @param userId   the ID of the first user
+     * @param friendId the ID of the second user
+     * @param friends  true to add the friendship, false to remove it
+     */
+    void setFriendship(long userId, long friendId, boolean friends);
+
+    /**
+     * Passes every row of the friend table to a consumer, streaming them from
+     * one query; each friendship appears once in each direction.
+     *
+     * @param consumer the consumer receiving each row
+     */
+    void forEachFriendEdge(FriendEdgeConsumer consumer);
+
+    /**
+     * Sets the active status of users.
+     *
+     * @param usernames the usernames of the users
+     * @param status    the active status to be set
+     * @return the number of users updated
+     */
+    int setStatus(Collection<String> usernames, boolean status);
+
+    /**
+     * Marks every active user as inactive.
+     *
+     * @return the number of users updated
+     */
+    int resetStatuses();
+
+    /**
+     * FriendEdgeConsumer receives the rows of the friend table without boxing their IDs.
+     */
+    @FunctionalInterface
+    interface FriendEdgeConsumer {
+
+        /**
+         * Receives one row.
+         *
+         * @param userId         the ID of the user
+         * @param friendId       the ID of the friend
+         * @param friendUsername the username of the friend
+         */
+        void accept(long userId, long friendId, String friendUsername);
+    }
+}
@@ -0,0 +1,162 @@
+package org.example.protocol;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * BinaryCodec maps frames to and from length-prefixed binary records.
+ * All numbers are big-endian:
+ * <pre>
+ * int   length   number of bytes that follow
+ * byte  opcode   {@link Opcode#getCode()}
+ * byte  flags    bit 0 is {@link Frame#getFlag()}
+ * short n        length of the target, or -1 if absent
+ * byte[n]        target in UTF-8
+ * int   m        length of the body, or -1 if absent
+ * byte[m]        body in UTF-8
+ * </pre>
+ */
+public class BinaryCodec {
+
+    /**
+     * The protocol version announced during the handshake.
+     */
+    public static final int VERSION = 2;
+
+    /**
+     * The largest accepted frame, excluding the length prefix.
+     */
+    public static final int MAX_FRAME_LENGTH = 1 << 20;
+
+    private static final int HEADER_LENGTH = 1 + 1 + 2 + 4;
+
+    /**
+     * Encodes a frame into a new buffer, ready to be read.
+     *
+     * @param frame the frame to be encoded
+     * @return the encoded frame, including its length prefix
+     * @throws IllegalArgumentException if the target is longer than {@link Short#MAX_VALUE}
+     *                                  bytes or the frame longer than {@link #MAX_FRAME_LENGTH}
+     */
+    public static ByteBuffer encode(Frame frame) {
+        byte[] target = frame.getTarget() == null ? null : frame.getTarget().getBytes(StandardCharsets.UTF_8);
+        byte[] body = frame.getBody() == null ? null : frame.getBody().getBytes(StandardCharsets.UTF_8);
+        if (target != null && target.length > Short.MAX_VALUE) {
+            throw new IllegalArgumentException("Frame target of " + target.length + " bytes is too long");
+        }
+        long length = (long) HEADER_LENGTH + (target == null ? 0 : target.length) + (body == null ? 0 : body.length);
+        if (length > MAX_FRAME_LENGTH) {
+            throw new IllegalArgumentException("Frame of " + length + " bytes is too long");
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(4 + (int) length);
+        buffer.putInt((int) length);
+        buffer.put(frame.getOpcode().getCode());
+        buffer.put((byte) (frame.getFlag() ? 1 : 0));
+        if (target == null) {
+            buffer.putShort((short) -1);
+        } else {
+            buffer.putShort((short) target.length);
+            buffer.put(target);
+        }
+        if (body == null) {
+            buffer.putInt(-1);
+        } else {
+            buffer.putInt(body.length);
+            buffer.put(body);
+        }
+        return buffer.flip();
+    }
+
+    /**
+     * Decodes one frame from a buffer if it holds a complete one.
+     * On success the buffer is positioned after the frame; otherwise
+     * its position is left unchanged.
+     *
+     * @param buffer the buffer to read from
+     * @return the decoded frame, or null if more bytes are needed
+     * @throws IOException if the frame is malformed
+     */
+    public static Frame decode(ByteBuffer buffer) throws IOException {
+        if (buffer.remaining() < 4) {
+            return null;
+        }
+        int length = buffer.getInt(buffer.position());
+        checkLength(length);
+        if (buffer.remaining() < 4 + length) {
+            return null;
+        }
+        buffer.position(buffer.position() + 4);
+        Opcode opcode = opcode(buffer.get());
+        boolean flag = (buffer.get() & 1) != 0;
+        String target = readString(buffer, buffer.getShort());
+        String body = readString(buffer, buffer.getInt());
+        return new Frame(opcode, flag, target, body);
+    }
+
+    /**
+     * Writes a frame to a stream. The caller is responsible for flushing.
+     *
+     * @param frame the frame to be written
+     * @param out   the stream to write to
+     * @throws IOException if the stream cannot be written
+     */
+    public static void write(Frame frame, DataOutputStream out) throws IOException {
+        ByteBuffer buffer = encode(frame);
+        out.write(buffer.array(), 0, buffer.limit());
+    }
+
+    /**
+     * Reads one frame from a stream, blocking until it is complete.
+     *
+     * @param in the stream to read from
+     * @return the decoded frame, or null at the end of the stream
+     * @throws IOException if the stream cannot be read or the frame is malformed
+     */
+    public static Frame read(DataInputStream in) throws IOException {
+        int first = in.read();
+        if (first == -1) {
+            return null;
+        }
+        int length = (first << 24) | (in.readUnsignedByte() << 16) | (in.readUnsignedByte() << 8) | in.readUnsignedByte();
+        checkLength(length);
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        Opcode opcode = opcode(buffer.get());
+        boolean flag = (buffer.get() & 1) != 0;
+        String target = readString(buffer, buffer.getShort());
+        String body = readString(buffer, buffer.getInt());
+        return new Frame(opcode, flag, target, body);
+    }
+
+    private static void checkLength(int length) throws IOException {
+        if (length < HEADER_LENGTH || length > MAX_FRAME_LENGTH) {
+            throw new IOException("Invalid frame length " + length);
+        }
+    }
+
+    private static Opcode opcode(byte code) throws IOException {
+        Opcode opcode = Opcode.fromCode(code);
+        if (opcode == null) {
+            throw new IOException("Unknown opcode " + code);
+        }
+        return opcode;
+    }
+
+    private static String readString(ByteBuffer buffer, int length) throws IOException {
+        if (length < 0) {
+            return null;
+        }
+        if (length > buffer.remaining()) {
+            throw new IOException("Field length " + length + " exceeds frame");
+        }
+        String value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+}
@@ -0,0 +1,284 @@
+package org.example.protocol;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * CommandParser reads a text command line in a single pass over its UTF-8
+ * bytes and records the opcode and the offsets of the target and body,
+ * without allocating. Strings are only created when {@link #toFrame(byte[])}
+ * is called. An instance is reusable but not thread-safe; keep one per
+ * connection.
+ * The rules match the original split-based parsing of {@link TextCodec}.
+ */
+public final class CommandParser {
+
+    private static final byte[] EXIT = ascii("exit");
+    private static final byte[] MSG = ascii("/msg ");
+    private static final byte[] FRIENDS = ascii("/friends");
+    private static final byte[] FRIEND_ACCEPTED = ascii("/friendAccepted");
+    private static final byte[] DELETE_FRIEND = ascii("/deleteFriend");
+    private static final byte[] PRIVATE = ascii("/private");
+    private static final byte[] ACTIVE = ascii("/active");
+    private static final byte[] EXIT_EVENT = ascii("/exit");
+    private static final byte[] TRUE = ascii("true");
+
+    private Opcode opcode;
+    private boolean flag;
+    private int targetStart;
+    private int targetEnd;
+    private int bodyStart;
+    private int bodyEnd;
+
+    /**
+     * Parses a command line sent by a logged-in client.
+     * A malformed private message is reported without target or body.
+     *
+     * @param line   the buffer holding the line
+     * @param offset the index of the first byte of the line
+     * @param length the length of the line, without the line terminator
+     * @return the opcode of the command
+     */
+    public Opcode parseFromClient(byte[] line, int offset, int length) {
+        reset();
+        int end = offset + length;
+        if (length == EXIT.length && equalsIgnoreCase(line, offset, EXIT)) {
+            return opcode = Opcode.QUIT;
+        }
+        if (startsWith(line, offset, end, MSG)) {
+            int start = offset + MSG.length;
+            int space = indexOf(line, start, end, (byte) ' ');
+            if (space >= 0) {
+                setTarget(start, space);
+                setBody(space + 1, end);
+            }
+            return opcode = Opcode.PRIVATE;
+        }
+        if (startsWith(line, offset, end, FRIENDS)) {
+            return opcode = Opcode.FRIENDS;
+        }
+        if (startsWith(line, offset, end, FRIEND_ACCEPTED)) {
+            afterColon(line, offset, end, false);
+            return opcode = Opcode.FRIEND_ACCEPTED;
+        }
+        if (startsWith(line, offset, end, DELETE_FRIEND)) {
+            afterColon(line, offset, end, false);
+            return opcode = Opcode.DELETE_FRIEND;
+        }
+        setBody(offset, end);
+        return opcode = Opcode.BROADCAST;
+    }
+
+    /**
+     * Parses a command line sent by the server.
+     *
+     * @param line   the buffer holding the line
+     * @param offset the index of the first byte of the line
+     * @param length the length of the line, without the line terminator
+     * @return the opcode of the command
+     */
+    public Opcode parseFromServer(byte[] line, int offset, int length) {
+        reset();
+        int end = offset + length;
+        if (startsWith(line, offset, end, FRIEND_ACCEPTED)) {
+            int space = indexOf(line, offset, end, (byte) ' ');
+            if (space >= 0) {
+                setTarget(space + 1, end);
+            }
+            return opcode = Opcode.FRIEND_ACCEPTED;
+        }
+        if (startsWith(line, offset, end, FRIENDS)) {
+            int first = indexOf(line, offset, end, (byte) ' ');
+            if (first >= 0) {
+                int second = indexOf(line, first + 1, end, (byte) ' ');
+                setTarget(first + 1, second < 0 ? end : second);
+                if (second >= 0) {
+                    int third = indexOf(line, second + 1, end, (byte) ' ');
+                    int flagEnd = third < 0 ? end : third;
+                    flag = flagEnd - second - 1 == TRUE.length && equalsIgnoreCase(line, second + 1, TRUE);
+                }
+            }
+            return opcode = Opcode.FRIENDS;
+        }
+        if (startsWith(line, offset, end, ACTIVE)) {
+            afterColon(line, offset, end, true);
+            return opcode = Opcode.ACTIVE;
+        }
+        if (startsWith(line, offset, end, EXIT_EVENT)) {
+            afterColon(line, offset, end, true);
+            return opcode = Opcode.EXIT;
+        }
+        if (startsWith(line, offset, end, PRIVATE)) {
+            int first = indexOf(line, offset, end, (byte) ' ');
+            int second = first < 0 ? -1 : indexOf(line, first + 1, end, (byte) ' ');
+            if (second >= 0) {
+                setTarget(first + 1, second);
+                setBody(second + 1, end);
+                return opcode = Opcode.PRIVATE;
+            }
+        }
+        if (startsWith(line, offset, end, DELETE_FRIEND)) {
+            afterColon(line, offset, end, true);
+            return opcode = Opcode.DELETE_FRIEND;
+        }
+        setBody(offset, end);
+        return opcode = Opcode.NOTICE;
+    }
+
+    /**
+     * Returns the opcode of the last parsed line.
+     *
+     * @return the opcode
+     */
+    public Opcode getOpcode() {
+        return opcode;
+    }
+
+    /**
+     * Returns the boolean attribute of the last parsed line.
+     *
+     * @return the flag, such as the online status of a friend
+     */
+    public boolean getFlag() {
+        return flag;
+    }
+
+    /**
+     * Returns whether the last parsed line has a target.
+     *
+     * @return true if a target was found
+     */
+    public boolean hasTarget() {
+        return targetStart >= 0;
+    }
+
+    /**
+     * Returns the index of the first byte of the target.
+     *
+     * @return the start of the target, or -1 if absent
+     */
+    public int getTargetStart() {
+        return targetStart;
+    }
+
+    /**
+     * Returns the index after the last byte of the target.
+     *
+     * @return the end of the target, or -1 if absent
+     */
+    public int getTargetEnd() {
+        return targetEnd;
+    }
+
+    /**
+     * Returns whether the last parsed line has a body.
+     *
+     * @return true if a body was found
+     */
+    public boolean hasBody() {
+        return bodyStart >= 0;
+    }
+
+    /**
+     * Returns the index of the first byte of the body.
+     *
+     * @return the start of the body, or -1 if absent
+     */
+    public int getBodyStart() {
+        return bodyStart;
+    }
+
+    /**
+     * Returns the index after the last byte of the body.
+     *
+     * @return the end of the body, or -1 if absent
+     */
+    public int getBodyEnd() {
+        return bodyEnd;
+    }
+
+    /**
+     * Builds a frame from the last parsed line.
+     *
+     * @param line the buffer the line was parsed from
+     * @return the frame
+     */
+    public Frame toFrame(byte[] line) {
+        String target = hasTarget() ? new String(line, targetStart, targetEnd - targetStart, StandardCharsets.UTF_8) : null;
+        String body = hasBody() ? new String(line, bodyStart, bodyEnd - bodyStart, StandardCharsets.UTF_8) : null;
+        return new Frame(opcode, flag, target, body);
+    }
+
+    private void reset() {
+        opcode = null;
+        flag = false;
+        targetStart = -1;
+        targetEnd = -1;
+        bodyStart = -1;
+        bodyEnd = -1;
+    }
+
+    private void setTarget(int start, int end) {
+        targetStart = start;
+        targetEnd = end;
+    }
+
+    private void setBody(int start, int end) {
+        bodyStart = start;
+        bodyEnd = end;
+    }
+
+    private void afterColon(byte[] line, int offset, int end, boolean trim) {
+        int colon = indexOf(line, offset, end, (byte) ':');
+        if (colon < 0) {
+            return;
+        }
+        int start = colon + 1;
+        if (trim) {
+            while (start < end && line[start] <= ' ') {
+                start++;
+            }
+            while (end > start && line[end - 1] <= ' ') {
+                end--;
+            }
+        }
+        setTarget(start, end);
+    }
+
+    private static int indexOf(byte[] line, int from, int end, byte b) {
+        for (int i = from; i < end; i++) {
+            if (line[i] == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean startsWith(byte[] line, int offset, int end, byte[] prefix) {
+        if (end - offset < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (line[offset + i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean equalsIgnoreCase(byte[] line, int offset, byte[] lowerCase) {
+        for (int i = 0; i < lowerCase.length; i++) {
+            int b = line[offset + i];
+            if (b >= 'A' && b <= 'Z') {
+                b += 'a' - 'A';
+            }
+            if (b != lowerCase[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte[] ascii(String value) {
+        return value.getBytes(StandardCharsets.US_ASCII);
+    }
+}
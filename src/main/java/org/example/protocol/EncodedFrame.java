@@ -0,0 +1,63 @@
+package org.example.protocol;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * EncodedFrame is a frame sent by the server, encoded at most once per wire
+ * format however many clients receive it. Every recipient gets its own
+ * duplicate of the shared buffer, so positions are independent while the
+ * bytes are shared; the bytes must never be modified.
+ */
+public final class EncodedFrame {
+
+    private final Frame frame;
+    private volatile ByteBuffer text;
+    private volatile ByteBuffer binary;
+
+    private EncodedFrame(Frame frame) {
+        this.frame = frame;
+    }
+
+    /**
+     * Wraps a frame sent by the server to clients.
+     *
+     * @param frame the frame to be sent
+     * @return the wrapper, encoding lazily
+     */
+    public static EncodedFrame of(Frame frame) {
+        return new EncodedFrame(frame);
+    }
+
+    /**
+     * Returns the frame itself.
+     *
+     * @return the frame
+     */
+    public Frame getFrame() {
+        return frame;
+    }
+
+    /**
+     * Returns the encoding of the frame for a client using the given format.
+     *
+     * @param format the wire format of the client
+     * @return a new view of the shared encoded bytes, ready to be read
+     * @throws IllegalArgumentException if the frame is too long for the binary format
+     */
+    public ByteBuffer forClient(WireFormat format) {
+        // racing threads may both encode, which is harmless since the result is the same
+        if (format == WireFormat.BINARY) {
+            ByteBuffer encoded = binary;
+            if (encoded == null) {
+                binary = encoded = BinaryCodec.encode(frame);
+            }
+            return encoded.duplicate();
+        }
+        ByteBuffer encoded = text;
+        if (encoded == null) {
+            text = encoded = ByteBuffer.wrap((TextCodec.encodeForClient(frame) + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+        return encoded.duplicate();
+    }
+}
@@ -0,0 +1,123 @@
+package org.example.protocol;
+
+/**
+ * Frame is one protocol unit exchanged between a chat client and the server,
+ * independent of the wire format it is carried in.
+ */
+public final class Frame {
+
+    private final Opcode opcode;
+    private final boolean flag;
+    private final String target;
+    private final String body;
+
+    /**
+     * Constructs a new Frame.
+     *
+     * @param opcode the kind of the frame
+     * @param flag   a boolean attribute, such as the online status of a friend
+     * @param target the user the frame refers to, or null
+     * @param body   the text carried by the frame, or null
+     */
+    public Frame(Opcode opcode, boolean flag, String target, String body) {
+        this.opcode = opcode;
+        this.flag = flag;
+        this.target = target;
+        this.body = body;
+    }
+
+    /**
+     * Creates a frame without target or body.
+     *
+     * @param opcode the kind of the frame
+     * @return the new frame
+     */
+    public static Frame of(Opcode opcode) {
+        return new Frame(opcode, false, null, null);
+    }
+
+    /**
+     * Creates a frame referring to a user.
+     *
+     * @param opcode the kind of the frame
+     * @param target the user the frame refers to
+     * @return the new frame
+     */
+    public static Frame of(Opcode opcode, String target) {
+        return new Frame(opcode, false, target, null);
+    }
+
+    /**
+     * Creates a frame referring to a user and carrying text.
+     *
+     * @param opcode the kind of the frame
+     * @param target the user the frame refers to
+     * @param body   the text carried by the frame
+     * @return the new frame
+     */
+    public static Frame of(Opcode opcode, String target, String body) {
+        return new Frame(opcode, false, target, body);
+    }
+
+    /**
+     * Creates a friend list entry.
+     *
+     * @param friend the username of the friend
+     * @param online whether the friend is online
+     * @return the new frame
+     */
+    public static Frame friend(String friend, boolean online) {
+        return new Frame(Opcode.FRIENDS, online, friend, null);
+    }
+
+    /**
+     * Returns the kind of the frame.
+     *
+     * @return the opcode of the frame
+     */
+    public Opcode getOpcode() {
+        return opcode;
+    }
+
+    /**
+     * Returns the boolean attribute of the frame.
+     *
+     * @return the flag of the frame
+     */
+    public boolean getFlag() {
+        return flag;
+    }
+
+    /**
+     * Returns the user the frame refers to.
+     *
+     * @return the target of the frame, or null
+     */
+    public String getTarget() {
+        return target;
+    }
+
+    /**
+     * Returns the text carried by the frame.
+     *
+     * @return the body of the frame, or null
+     */
+    public String getBody() {
+        return body;
+    }
+
+    /**
+     * Returns a string representation of the frame.
+     *
+     * @return a string representation of the frame
+     */
+    @Override
+    public String toString() {
+        return "Frame{" +
+                "opcode=" + opcode +
+                ", flag=" + flag +
+                ", target='" + target + '\'' +
+                ", body='" + body + '\'' +
+                '}';
+    }
+}
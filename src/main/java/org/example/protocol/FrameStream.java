@@ -0,0 +1,219 @@
+package org.example.protocol;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * FrameStream reads and writes frames over a blocking socket in the format
+ * negotiated by the {@link Handshake}. It is used on both ends: by the server's
+ * thread-per-client handler and by the chat clients.
+ * Writes are guarded by a ReentrantLock so several threads may send frames,
+ * and so a virtual thread blocked on a write does not pin its carrier.
+ */
+public class FrameStream implements Closeable {
+
+    private final Socket socket;
+    private final boolean serverSide;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private volatile WireFormat format = WireFormat.TEXT;
+    private boolean firstRead = true;
+    private final CommandParser parser = new CommandParser();
+    private byte[] line = new byte[256];
+
+    private FrameStream(Socket socket, boolean serverSide) throws IOException {
+        this.socket = socket;
+        this.serverSide = serverSide;
+        this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 64 * 1024));
+    }
+
+    /**
+     * Opens the server end of a connection. The format is negotiated
+     * when the first frame is read.
+     *
+     * @param socket the accepted client socket
+     * @return the frame stream
+     * @throws IOException if the socket streams cannot be opened
+     */
+    public static FrameStream accept(Socket socket) throws IOException {
+        return new FrameStream(socket, true);
+    }
+
+    /**
+     * Opens the client end of a connection and negotiates the format.
+     *
+     * @param socket       the socket connected to the server
+     * @param preferBinary whether to ask the server for binary frames
+     * @return the frame stream
+     * @throws IOException if the handshake fails
+     */
+    public static FrameStream connect(Socket socket, boolean preferBinary) throws IOException {
+        FrameStream stream = new FrameStream(socket, false);
+        if (preferBinary) {
+            stream.writeLine(Handshake.clientHello());
+            stream.format = Handshake.fromReply(TextCodec.readLine(stream.in));
+        }
+        return stream;
+    }
+
+    /**
+     * Returns the format used by the connection.
+     *
+     * @return the negotiated wire format
+     */
+    public WireFormat getFormat() {
+        return format;
+    }
+
+    /**
+     * Reads the next frame. On the server end the first frame read is always
+     * the client's {@link Opcode#LOGIN}.
+     *
+     * @return the frame, or null at the end of the stream
+     * @throws IOException if the stream cannot be read or a frame is malformed
+     */
+    public Frame read() throws IOException {
+        if (serverSide && firstRead) {
+            firstRead = false;
+            String line = TextCodec.readLine(in);
+            if (!Handshake.isHello(line)) {
+                return line == null ? null : Frame.of(Opcode.LOGIN, line);
+            }
+            format = Handshake.select(line);
+            writeLine(Handshake.reply(format));
+            if (format == WireFormat.TEXT) {
+                line = TextCodec.readLine(in);
+                return line == null ? null : Frame.of(Opcode.LOGIN, line);
+            }
+        }
+
+        if (format == WireFormat.BINARY) {
+            return BinaryCodec.read(in);
+        }
+        int length = readLineBytes();
+        if (length < 0) {
+            return null;
+        }
+        if (serverSide) {
+            parser.parseFromClient(line, 0, length);
+        } else {
+            parser.parseFromServer(line, 0, length);
+        }
+        return parser.toFrame(line);
+    }
+
+    /**
+     * Reads one line into the reusable line buffer.
+     *
+     * @return the length of the line without its terminator, or -1 at the end of the stream
+     * @throws IOException if the stream cannot be read
+     */
+    private int readLineBytes() throws IOException {
+        int length = 0;
+        int b;
+        while ((b = in.read()) != -1 && b != '\n') {
+            if (length == line.length) {
+                line = Arrays.copyOf(line, line.length * 2);
+            }
+            line[length++] = (byte) b;
+        }
+        if (b == -1 && length == 0) {
+            return -1;
+        }
+        return length > 0 && line[length - 1] == '\r' ? length - 1 : length;
+    }
+
+    /**
+     * Writes a frame and flushes it.
+     *
+     * @param frame the frame to be written
+     * @throws IOException if the stream cannot be written
+     * @throws IllegalArgumentException if the frame is too long for the binary format
+     */
+    public void write(Frame frame) throws IOException {
+        writeEncoded(encode(frame));
+    }
+
+    /**
+     * Encodes a frame in the format of this connection, so it can be queued
+     * and written later by {@link #writeEncoded(ByteBuffer)}.
+     *
+     * @param frame the frame to be encoded
+     * @return the encoded frame, ready to be read
+     * @throws IllegalArgumentException if the frame is too long for the binary format
+     */
+    public ByteBuffer encode(Frame frame) {
+        if (format == WireFormat.BINARY) {
+            return BinaryCodec.encode(frame);
+        }
+        String line = serverSide ? TextCodec.encodeForClient(frame) : TextCodec.encodeForServer(frame);
+        return ByteBuffer.wrap((line + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Writes an encoded frame and flushes it. The buffer itself is not modified.
+     *
+     * @param frame the encoded frame
+     * @throws IOException if the stream cannot be written
+     */
+    public void writeEncoded(ByteBuffer frame) throws IOException {
+        writeLock.lock();
+        try {
+            out.write(frame.array(), frame.arrayOffset() + frame.position(), frame.remaining());
+            out.flush();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Writes several encoded frames and flushes them once.
+     * The buffers themselves are not modified.
+     *
+     * @param frames the encoded frames
+     * @throws IOException if the stream cannot be written
+     */
+    public void writeEncoded(List<ByteBuffer> frames) throws IOException {
+        writeLock.lock();
+        try {
+            for (ByteBuffer frame : frames) {
+                out.write(frame.array(), frame.arrayOffset() + frame.position(), frame.remaining());
+            }
+            out.flush();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private void writeLine(String line) throws IOException {
+        writeLock.lock();
+        try {
+            out.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+            out.flush();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Closes the underlying socket.
+     *
+     * @throws IOException if the socket cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+}
@@ -0,0 +1,66 @@
+package org.example.protocol;
+
+/**
+ * Handshake negotiates the wire format when a client connects.
+ * A client that supports binary frames first sends the text line
+ * {@code /hello binary <version>}; the server answers with the same line if it
+ * accepts, or with {@code /hello text} to keep the text protocol. A client that
+ * skips the hello and sends its username right away is served in text.
+ */
+public class Handshake {
+
+    private static final String HELLO = "/hello";
+
+    /**
+     * Returns the hello line sent by a client that prefers binary frames.
+     *
+     * @return the client hello line
+     */
+    public static String clientHello() {
+        return HELLO + " binary " + BinaryCodec.VERSION;
+    }
+
+    /**
+     * Returns whether the first line from a client is a hello rather than a username.
+     *
+     * @param line the first line sent by the client
+     * @return true if the line is a hello
+     */
+    public static boolean isHello(String line) {
+        return line != null && line.startsWith(HELLO + " ");
+    }
+
+    /**
+     * Chooses the wire format for a client hello.
+     *
+     * @param hello the hello line sent by the client
+     * @return the format the server will use
+     */
+    public static WireFormat select(String hello) {
+        String[] parts = hello.split(" ");
+        if (parts.length >= 3 && parts[1].equals("binary") && parts[2].equals(String.valueOf(BinaryCodec.VERSION))) {
+            return WireFormat.BINARY;
+        }
+        return WireFormat.TEXT;
+    }
+
+    /**
+     * Returns the line the server answers a hello with.
+     *
+     * @param format the format the server chose
+     * @return the server reply line
+     */
+    public static String reply(WireFormat format) {
+        return format == WireFormat.BINARY ? clientHello() : HELLO + " text";
+    }
+
+    /**
+     * Reads the format chosen by the server from its reply.
+     *
+     * @param reply the reply line sent by the server
+     * @return the format to use for the rest of the connection
+     */
+    public static WireFormat fromReply(String reply) {
+        return reply != null && reply.equals(clientHello()) ? WireFormat.BINARY : WireFormat.TEXT;
+    }
+}
@@ -0,0 +1,93 @@
+package org.example.protocol;
+
+/**
+ * Opcode identifies the kind of a {@link Frame}. The numeric code is what
+ * goes on the wire in the binary protocol and must never be reused.
+ */
+public enum Opcode {
+    /**
+     * First frame from a client, carrying its username as target.
+     */
+    LOGIN(1),
+
+    /**
+     * A private message. The target is the recipient when sent by a client,
+     * and the sender when delivered by the server.
+     */
+    PRIVATE(2),
+
+    /**
+     * A message for every online user. The target is empty when sent by a
+     * client, and the sender when delivered by the server.
+     */
+    BROADCAST(3),
+
+    /**
+     * A request for the friend list when sent by a client, and one friend
+     * entry with its online status when sent by the server.
+     */
+    FRIENDS(4),
+
+    /**
+     * The user named by the target came online.
+     */
+    ACTIVE(5),
+
+    /**
+     * The user named by the target went offline.
+     */
+    EXIT(6),
+
+    /**
+     * The user named by the target accepted a friend request.
+     */
+    FRIEND_ACCEPTED(7),
+
+    /**
+     * The user named by the target ended a friendship.
+     */
+    DELETE_FRIEND(8),
+
+    /**
+     * The client is leaving.
+     */
+    QUIT(9),
+
+    /**
+     * A plain text notice from the server, such as an error.
+     */
+    NOTICE(10);
+
+    private static final Opcode[] BY_CODE = new Opcode[16];
+
+    static {
+        for (Opcode opcode : values()) {
+            BY_CODE[opcode.code] = opcode;
+        }
+    }
+
+    private final byte code;
+
+    Opcode(int code) {
+        this.code = (byte) code;
+    }
+
+    /**
+     * Returns the wire code of the opcode.
+     *
+     * @return the wire code
+     */
+    public byte getCode() {
+        return code;
+    }
+
+    /**
+     * Returns the opcode with the given wire code.
+     *
+     * @param code the wire code
+     * @return the matching opcode, or null if the code is unknown
+     */
+    public static Opcode fromCode(int code) {
+        return code >= 0 && code < BY_CODE.length ? BY_CODE[code] : null;
+    }
+}
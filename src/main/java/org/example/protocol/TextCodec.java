@@ -0,0 +1,121 @@
+package org.example.protocol;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * TextCodec maps frames to and from the original line-based text commands.
+ * The commands are not symmetric, so each direction has its own methods.
+ * A body containing a newline cannot be carried by this format.
+ */
+public class TextCodec {
+
+    /**
+     * Encodes a frame sent by a client to the server.
+     *
+     * @param frame the frame to be encoded
+     * @return the command line, without the line terminator
+     */
+    public static String encodeForServer(Frame frame) {
+        switch (frame.getOpcode()) {
+            case LOGIN:
+                return frame.getTarget();
+            case PRIVATE:
+                return "/msg " + frame.getTarget() + " " + frame.getBody();
+            case FRIENDS:
+                return "/friends";
+            case FRIEND_ACCEPTED:
+                return "/friendAccepted :" + frame.getTarget();
+            case DELETE_FRIEND:
+                return "/deleteFriend:" + frame.getTarget();
+            case QUIT:
+                return "exit";
+            case BROADCAST:
+            default:
+                return frame.getBody();
+        }
+    }
+
+    /**
+     * Encodes a frame sent by the server to a client.
+     *
+     * @param frame the frame to be encoded
+     * @return the command line, without the line terminator
+     */
+    public static String encodeForClient(Frame frame) {
+        switch (frame.getOpcode()) {
+            case PRIVATE:
+                return "/private " + frame.getTarget() + " " + frame.getBody();
+            case BROADCAST:
+                return frame.getTarget() + ": " + frame.getBody();
+            case FRIENDS:
+                return "/friends " + frame.getTarget() + " " + frame.getFlag();
+            case ACTIVE:
+                return "/active : " + frame.getTarget();
+            case EXIT:
+                return "/exit : " + frame.getTarget();
+            case FRIEND_ACCEPTED:
+                return "/friendAccepted " + frame.getTarget();
+            case DELETE_FRIEND:
+                return "/deleteFriend:" + frame.getTarget();
+            case NOTICE:
+            default:
+                return frame.getBody();
+        }
+    }
+
+    /**
+     * Decodes a command line sent by a logged-in client.
+     * A malformed private message is returned without target or body.
+     *
+     * @param line the command line, without the line terminator
+     * @return the decoded frame
+     */
+    public static Frame decodeFromClient(String line) {
+        byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+        CommandParser parser = new CommandParser();
+        parser.parseFromClient(bytes, 0, bytes.length);
+        return parser.toFrame(bytes);
+    }
+
+    /**
+     * Decodes a command line sent by the server.
+     *
+     * @param line the command line, without the line terminator
+     * @return the decoded frame
+     */
+    public static Frame decodeFromServer(String line) {
+        byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+        CommandParser parser = new CommandParser();
+        parser.parseFromServer(bytes, 0, bytes.length);
+        return parser.toFrame(bytes);
+    }
+
+    /**
+     * Reads one UTF-8 line from a stream, without the line terminator.
+     * Reads byte by byte so that nothing past the line is consumed,
+     * which lets the caller switch to binary frames afterwards.
+     *
+     * @param in the stream to read from, ideally buffered
+     * @return the line, or null at the end of the stream
+     * @throws IOException if the stream cannot be read
+     */
+    public static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream(128);
+        int b;
+        while ((b = in.read()) != -1) {
+            if (b == '\n') {
+                break;
+            }
+            line.write(b);
+        }
+        if (b == -1 && line.size() == 0) {
+            return null;
+        }
+        byte[] bytes = line.toByteArray();
+        int length = bytes.length > 0 && bytes[bytes.length - 1] == '\r' ? bytes.length - 1 : bytes.length;
+        return new String(bytes, 0, length, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,16 @@
+package org.example.protocol;
+
+/**
+ * WireFormat lists the encodings a connection can use once connected.
+ */
+public enum WireFormat {
+    /**
+     * The original newline-delimited text commands, see {@link TextCodec}.
+     */
+    TEXT,
+
+    /**
+     * Length-prefixed binary frames, see {@link BinaryCodec}.
+     */
+    BINARY
+}
@@ -0,0 +1,128 @@
+package org.example.server;
+
+import org.example.protocol.EncodedFrame;
+import org.example.protocol.Frame;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * BroadcastFanout delivers one frame to many clients. The frame is encoded once
+ * per wire format into a shared buffer, and the recipients are queued in
+ * parallel by a small set of workers. Each client is always queued by the same
+ * single-threaded worker, chosen by its identity, so the broadcasts reach a
+ * client in the order they were fanned out and one sender's messages are never
+ * reordered. Queueing never blocks on a recipient, so a broadcast costs the
+ * sender only the time to hand the recipients over.
+ */
+public class BroadcastFanout {
+
+    private static final ExecutorService[] workers = createWorkers(
+            Math.max(1, ServerConfig.getInt("fanoutWorkers", Runtime.getRuntime().availableProcessors())));
+
+    private static final LongAdder broadcasts = new LongAdder();
+    private static final LongAdder recipients = new LongAdder();
+    private static final LongAdder totalNanos = new LongAdder();
+    private static final AtomicLong maxNanos = new AtomicLong();
+
+    private static ExecutorService[] createWorkers(int threads) {
+        ExecutorService[] executors = new ExecutorService[threads];
+        for (int i = 0; i < threads; i++) {
+            String name = "chat-fanout-" + i;
+            executors[i] = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, name);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return executors;
+    }
+
+    /**
+     * Sends a frame to every client in a collection except one.
+     *
+     * @param clients the clients to send to
+     * @param exclude the client to skip, usually the sender, or null
+     * @param frame   the frame to be sent
+     */
+    public static void fanOut(Collection<? extends ClientConnection> clients, ClientConnection exclude, Frame frame) {
+        long start = System.nanoTime();
+        EncodedFrame encoded = EncodedFrame.of(frame);
+        List<List<ClientConnection>> partitions = new ArrayList<>(workers.length);
+        for (int i = 0; i < workers.length; i++) {
+            partitions.add(new ArrayList<>());
+        }
+        int count = 0;
+        for (ClientConnection client : clients) {
+            if (client != exclude) {
+                partitions.get(workerOf(client)).add(client);
+                count++;
+            }
+        }
+        if (count == 0) {
+            record(start, 0);
+            return;
+        }
+
+        int recipientCount = count;
+        AtomicInteger remaining = new AtomicInteger();
+        for (List<ClientConnection> partition : partitions) {
+            if (!partition.isEmpty()) {
+                remaining.incrementAndGet();
+            }
+        }
+        for (int i = 0; i < workers.length; i++) {
+            List<ClientConnection> partition = partitions.get(i);
+            if (partition.isEmpty()) {
+                continue;
+            }
+            workers[i].execute(() -> {
+                for (ClientConnection client : partition) {
+                    client.send(encoded);
+                }
+                if (remaining.decrementAndGet() == 0) {
+                    record(start, recipientCount);
+                }
+            });
+        }
+    }
+
+    private static int workerOf(ClientConnection client) {
+        // spreads the identity hashes, whose low bits are not uniform
+        int hash = System.identityHashCode(client) * 0x9E3779B9;
+        return Math.floorMod(hash ^ (hash >>> 16), workers.length);
+    }
+
+    private static void record(long start, int count) {
+        long elapsed = System.nanoTime() - start;
+        broadcasts.increment();
+        recipients.add(count);
+        totalNanos.add(elapsed);
+        long max;
+        while (elapsed > (max = maxNanos.get())) {
+            if (maxNanos.compareAndSet(max, elapsed)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Returns a one-line summary of the broadcasts since startup, with the time
+     * from the start of a broadcast until its last recipient was queued.
+     *
+     * @return the summary
+     */
+    public static String summary() {
+        long count = broadcasts.sum();
+        return "broadcasts=" + count +
+                " recipients=" + recipients.sum() +
+                " avgFanoutMicros=" + totalNanos.sum() / Math.max(1, count) / 1000 +
+                " maxFanoutMicros=" + maxNanos.get() / 1000;
+    }
+}
@@ -0,0 +1,35 @@
+package org.example.server;
+
+import org.example.protocol.EncodedFrame;
+import org.example.protocol.Frame;
+
+/**
+ * ClientConnection is a connected chat client as seen by the server,
+ * independent of the engine that serves its socket.
+ */
+public interface ClientConnection {
+
+    /**
+     * Returns the name the client logged in with.
+     *
+     * @return the name of the client, or null before login
+     */
+    String getClientName();
+
+    /**
+     * Sends a frame to the client, encoded in the client's wire format.
+     *
+     * @param frame the frame to be sent
+     */
+    default void send(Frame frame) {
+        send(EncodedFrame.of(frame));
+    }
+
+    /**
+     * Sends a frame that may be shared with other recipients, reusing its
+     * encoding if another client with the same wire format already caused it.
+     *
+     * @param frame the frame to be sent
+     */
+    void send(EncodedFrame frame);
+}
@@ -0,0 +1,82 @@
+package org.example.server;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CoalescingWriter gathers the frames waiting in an {@link OutboundQueue} into
+ * batches that are written with a single flush. After the first frame of a batch
+ * arrives it keeps collecting for up to {@code chat.flushDelayMicros}, or until
+ * {@code chat.flushBatchBytes} are gathered, whichever comes first.
+ */
+public class CoalescingWriter {
+
+    private final OutboundQueue queue;
+    private final long maxDelayNanos;
+    private final int maxBatchBytes;
+
+    /**
+     * Constructs a new CoalescingWriter.
+     *
+     * @param queue         the queue to drain
+     * @param maxDelayNanos how long a frame may wait for others to join its batch
+     * @param maxBatchBytes the size at which a batch is written without waiting further
+     */
+    public CoalescingWriter(OutboundQueue queue, long maxDelayNanos, int maxBatchBytes) {
+        this.queue = queue;
+        this.maxDelayNanos = maxDelayNanos;
+        this.maxBatchBytes = maxBatchBytes;
+    }
+
+    /**
+     * Constructs a new CoalescingWriter from the server configuration.
+     *
+     * @param queue the queue to drain
+     * @return the new writer
+     */
+    public static CoalescingWriter fromConfig(OutboundQueue queue) {
+        return new CoalescingWriter(queue, ServerConfig.flushDelayNanos(), ServerConfig.flushBatchBytes());
+    }
+
+    /**
+     * Waits for the next batch of frames.
+     *
+     * @return the frames to write with one flush, or null once the queue is closed
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public List<ByteBuffer> nextBatch() throws InterruptedException {
+        ByteBuffer first = queue.take();
+        if (first == null) {
+            return null;
+        }
+        List<ByteBuffer> batch = new ArrayList<>();
+        batch.add(first);
+        int bytes = first.remaining();
+
+        long deadline = System.nanoTime() + maxDelayNanos;
+        while (bytes < maxBatchBytes) {
+            ByteBuffer next = queue.poll();
+            if (next == null) {
+                long wait = deadline - System.nanoTime();
+                if (wait <= 0 || (next = queue.poll(wait, TimeUnit.NANOSECONDS)) == null) {
+                    break;
+                }
+            }
+            batch.add(next);
+            bytes += next.remaining();
+        }
+        OutboundStats.onFlushed(batch.size(), bytes);
+        return batch;
+    }
+
+    /**
+     * Returns the number of bytes at which a batch stops growing.
+     *
+     * @return the batch byte budget
+     */
+    public int getMaxBatchBytes() {
+        return maxBatchBytes;
+    }
+}
@@ -0,0 +1,328 @@
+package org.example.server;
+
+import org.example.ChatServer;
+import org.example.protocol.BinaryCodec;
+import org.example.protocol.CommandParser;
+import org.example.protocol.EncodedFrame;
+import org.example.protocol.Frame;
+import org.example.protocol.Handshake;
+import org.example.protocol.Opcode;
+import org.example.protocol.WireFormat;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * NioClientConnection is a client served by a {@link NioEventLoop}.
+ * Socket reads, writes and frame decoding happen on the loop thread; decoded
+ * frames are handed to a worker, one at a time and in order, where the chat
+ * commands run.
+ */
+class NioClientConnection implements ClientConnection {
+
+    // marks the end of the input in the inbound queue
+    private static final Frame END_OF_INPUT = Frame.of(Opcode.QUIT);
+    // the longest binary frame with its length prefix; a text line may be as long
+    private static final int MAX_INPUT = 4 + BinaryCodec.MAX_FRAME_LENGTH;
+
+    private final SocketChannel channel;
+    private final NioEventLoop loop;
+    private final Executor workers;
+    private SelectionKey key;
+
+    // only touched by the loop thread, always in write mode between reads
+    private ByteBuffer input = ByteBuffer.allocate(8192);
+    private boolean greeted;
+    private boolean loggedIn;
+    private final CommandParser parser = new CommandParser();
+    private volatile WireFormat format = WireFormat.TEXT;
+
+    private final Queue<Frame> inbound = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean processing = new AtomicBoolean();
+    private final OutboundQueue outbound = OutboundQueue.fromConfig();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private final long flushDelayNanos = ServerConfig.flushDelayNanos();
+    private final int flushBatchBytes = ServerConfig.flushBatchBytes();
+    // frames of the batch being written, from batchStart to batchEnd, loop thread only
+    private ByteBuffer[] batch = new ByteBuffer[16];
+    private int batchStart;
+    private int batchEnd;
+
+    private volatile String clientName;
+    private volatile boolean closed;
+    private boolean finished;
+
+    /**
+     * Constructs a new NioClientConnection for the specified channel.
+     *
+     * @param channel the non-blocking client channel
+     * @param loop    the loop serving the channel
+     * @param workers the executor that runs the client's commands
+     */
+    NioClientConnection(SocketChannel channel, NioEventLoop loop, Executor workers) {
+        this.channel = channel;
+        this.loop = loop;
+        this.workers = workers;
+    }
+
+    void setKey(SelectionKey key) {
+        this.key = key;
+    }
+
+    @Override
+    public String getClientName() {
+        return clientName;
+    }
+
+    @Override
+    public void send(EncodedFrame frame) {
+        if (closed) {
+            return;
+        }
+        ByteBuffer encoded;
+        try {
+            encoded = frame.forClient(format);
+        } catch (IllegalArgumentException e) {
+            System.err.println("Frame to " + clientName + " not sent: " + e.getMessage());
+            return;
+        }
+        if (!outbound.offer(encoded)) {
+            System.err.println("Outbound queue of " + clientName + " overflowed, disconnecting.");
+            loop.execute(this::endOfInput);
+            return;
+        }
+        if (flushScheduled.compareAndSet(false, true)) {
+            // wait a little so frames sent close together share one write
+            loop.schedule(this::flushOutbound, flushDelayNanos);
+        }
+    }
+
+    private static ByteBuffer encodeLine(String line) {
+        return ByteBuffer.wrap((line + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Reads the available bytes and queues every complete frame. Called on the loop thread.
+     */
+    void onReadable() {
+        try {
+            if (!input.hasRemaining()) {
+                if (input.capacity() >= MAX_INPUT) {
+                    throw new IOException("Frame longer than " + MAX_INPUT + " bytes");
+                }
+                ByteBuffer larger = ByteBuffer.allocate(Math.min(input.capacity() * 2, MAX_INPUT));
+                input.flip();
+                larger.put(input);
+                input = larger;
+            }
+            if (channel.read(input) < 0) {
+                endOfInput();
+                return;
+            }
+            input.flip();
+            decodeFrames();
+            input.compact();
+        } catch (IOException e) {
+            System.err.println("Error handling client: " + e.getMessage());
+            endOfInput();
+        }
+    }
+
+    private void decodeFrames() throws IOException {
+        while (input.hasRemaining()) {
+            if (format == WireFormat.BINARY) {
+                Frame frame = BinaryCodec.decode(input);
+                if (frame == null) {
+                    return;
+                }
+                enqueue(frame);
+                continue;
+            }
+
+            int end = indexOfNewline(input);
+            if (end < 0) {
+                return;
+            }
+            int start = input.arrayOffset() + input.position();
+            int length = end - input.position();
+            if (length > 0 && input.get(end - 1) == '\r') {
+                length--;
+            }
+            input.position(end + 1);
+            if (loggedIn) {
+                // the common case: parse in place, only the target and body become strings
+                parser.parseFromClient(input.array(), start, length);
+                enqueue(parser.toFrame(input.array()));
+                continue;
+            }
+
+            String line = new String(input.array(), start, length, StandardCharsets.UTF_8);
+            if (!greeted) {
+                greeted = true;
+                if (Handshake.isHello(line)) {
+                    // answer right away: the client waits for it before sending binary frames
+                    format = Handshake.select(line);
+                    outbound.offer(encodeLine(Handshake.reply(format)));
+                    flushOutbound();
+                    continue;
+                }
+            }
+            loggedIn = true;
+            enqueue(Frame.of(Opcode.LOGIN, line));
+        }
+    }
+
+    private static int indexOfNewline(ByteBuffer buffer) {
+        for (int i = buffer.position(); i < buffer.limit(); i++) {
+            if (buffer.get(i) == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Continues a write that did not fit in the socket buffer. Called on the loop thread.
+     */
+    void onWritable() {
+        flushOutbound();
+    }
+
+    /**
+     * Writes the queued frames, gathering up to the batch byte budget into each
+     * socket write. Called on the loop thread.
+     */
+    private void flushOutbound() {
+        flushScheduled.set(false);
+        if (!channel.isOpen() || !key.isValid()) {
+            outbound.close();
+            return;
+        }
+        try {
+            while (true) {
+                if (batchStart == batchEnd && !fillBatch()) {
+                    key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+                    return;
+                }
+                channel.write(batch, batchStart, batchEnd - batchStart);
+                while (batchStart < batchEnd && !batch[batchStart].hasRemaining()) {
+                    batch[batchStart++] = null;
+                }
+                if (batchStart < batchEnd) {
+                    // socket buffer is full, wait until the selector reports it writable
+                    key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Error writing to client: " + e.getMessage());
+            endOfInput();
+        }
+    }
+
+    private boolean fillBatch() {
+        batchStart = 0;
+        batchEnd = 0;
+        int bytes = 0;
+        ByteBuffer frame;
+        while (bytes < flushBatchBytes && (frame = outbound.poll()) != null) {
+            if (batchEnd == batch.length) {
+                batch = Arrays.copyOf(batch, batch.length * 2);
+            }
+            batch[batchEnd++] = frame;
+            bytes += frame.remaining();
+        }
+        if (batchEnd == 0) {
+            return false;
+        }
+        OutboundStats.onFlushed(batchEnd, bytes);
+        return true;
+    }
+
+    private void endOfInput() {
+        if (!key.isValid()) {
+            return;
+        }
+        key.cancel();
+        enqueue(END_OF_INPUT);
+    }
+
+    private void enqueue(Frame frame) {
+        inbound.add(frame);
+        if (processing.compareAndSet(false, true)) {
+            workers.execute(this::processInbound);
+        }
+    }
+
+    /**
+     * Runs the queued frames as chat commands. Called on a worker thread,
+     * never by two workers at once for the same connection.
+     */
+    private void processInbound() {
+        while (true) {
+            Frame frame;
+            while ((frame = inbound.poll()) != null) {
+                if (finished) {
+                    continue;
+                }
+                try {
+                    if (frame == END_OF_INPUT) {
+                        finish();
+                    } else if (clientName == null) {
+                        clientName = frame.getTarget();
+                        ChatServer.clientJoined(this);
+                    } else if (!ChatServer.handleCommand(this, frame)) {
+                        finish();
+                    }
+                } catch (RuntimeException e) {
+                    // the command left the connection in an unknown state, so it is closed
+                    e.printStackTrace();
+                    failed();
+                }
+            }
+            processing.set(false);
+            if (inbound.isEmpty() || !processing.compareAndSet(false, true)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Closes the connection after a command failed, even if finishing fails as well.
+     */
+    private void failed() {
+        if (finished) {
+            return;
+        }
+        try {
+            finish();
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void finish() {
+        finished = true;
+        closed = true;
+        if (clientName != null) {
+            ChatServer.clientLeft(this);
+        }
+        loop.execute(() -> {
+            key.cancel();
+            NioEventLoop.closeQuietly(channel);
+            outbound.close();
+            Arrays.fill(batch, null);
+            batchStart = 0;
+            batchEnd = 0;
+        });
+        System.out.println(clientName + " disconnected.");
+    }
+}
@@ -0,0 +1,194 @@
+package org.example.server;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * NioEventLoop is a single selector thread serving many client channels.
+ * Other threads interact with it only through {@link #execute(Runnable)}.
+ */
+class NioEventLoop implements Runnable {
+
+    private final Selector selector;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    // delayed tasks ordered by deadline, loop thread only
+    private final PriorityQueue<DelayedTask> delayedTasks = new PriorityQueue<>();
+    private final Thread thread;
+
+    /**
+     * Constructs a new NioEventLoop with its own selector.
+     *
+     * @param name the name of the loop thread
+     * @throws IOException if the selector cannot be opened
+     */
+    NioEventLoop(String name) throws IOException {
+        this.selector = Selector.open();
+        this.thread = new Thread(this, name);
+        this.thread.setDaemon(true);
+    }
+
+    /**
+     * Starts the loop thread.
+     */
+    void start() {
+        thread.start();
+    }
+
+    /**
+     * Returns whether the caller is running on this loop's thread.
+     *
+     * @return true if called from the loop thread
+     */
+    boolean inLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    /**
+     * Runs a task on the loop thread.
+     *
+     * @param task the task to be run
+     */
+    void execute(Runnable task) {
+        tasks.add(task);
+        if (!inLoop()) {
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * Runs a task on the loop thread after a delay. The selector wakes up with
+     * millisecond precision, so short delays are rounded up to one millisecond.
+     *
+     * @param task        the task to be run
+     * @param delayNanos  the delay in nanoseconds; 0 runs the task as soon as possible
+     */
+    void schedule(Runnable task, long delayNanos) {
+        if (delayNanos <= 0) {
+            execute(task);
+        } else {
+            long deadline = System.nanoTime() + delayNanos;
+            execute(() -> delayedTasks.add(new DelayedTask(deadline, task)));
+        }
+    }
+
+    /**
+     * Registers an accepted channel with this loop.
+     *
+     * @param channel the accepted client channel
+     * @param workers the executor that runs the client's commands
+     */
+    void register(SocketChannel channel, Executor workers) {
+        execute(() -> {
+            try {
+                channel.configureBlocking(false);
+                NioClientConnection connection = new NioClientConnection(channel, this, workers);
+                SelectionKey key = channel.register(selector, SelectionKey.OP_READ, connection);
+                connection.setKey(key);
+            } catch (IOException e) {
+                System.err.println("Error registering client: " + e.getMessage());
+                closeQuietly(channel);
+            }
+        });
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            try {
+                long timeout = runDelayedTasks();
+                if (!tasks.isEmpty()) {
+                    selector.selectNow();
+                } else if (timeout > 0) {
+                    selector.select(timeout);
+                } else {
+                    selector.select();
+                }
+                runTasks();
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    NioClientConnection connection = (NioClientConnection) key.attachment();
+                    if (key.isValid() && key.isReadable()) {
+                        connection.onReadable();
+                    }
+                    if (key.isValid() && key.isWritable()) {
+                        connection.onWritable();
+                    }
+                }
+            } catch (ClosedChannelException e) {
+                // the channel was closed by its connection while being selected
+            } catch (IOException e) {
+                System.err.println("Error in event loop " + thread.getName() + ": " + e.getMessage());
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Runs the delayed tasks that are due.
+     *
+     * @return milliseconds until the next delayed task, or 0 if there is none
+     */
+    private long runDelayedTasks() {
+        DelayedTask next;
+        while ((next = delayedTasks.peek()) != null) {
+            long remaining = next.deadline - System.nanoTime();
+            if (remaining > 0) {
+                return Math.max(1, TimeUnit.NANOSECONDS.toMillis(remaining));
+            }
+            delayedTasks.poll();
+            try {
+                next.task.run();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+        return 0;
+    }
+
+    private static final class DelayedTask implements Comparable<DelayedTask> {
+        final long deadline;
+        final Runnable task;
+
+        DelayedTask(long deadline, Runnable task) {
+            this.deadline = deadline;
+            this.task = task;
+        }
+
+        @Override
+        public int compareTo(DelayedTask other) {
+            return Long.compare(deadline - other.deadline, 0);
+        }
+    }
+
+    static void closeQuietly(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            System.err.println("Error closing client channel: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package org.example.server;
+
+import java.io.IOException;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * NioEventLoopGroup is the NIO server engine. It owns a fixed set of selector
+ * loops that perform all socket I/O, and a worker pool that runs client commands,
+ * since those make blocking database calls that must not stall a selector.
+ */
+public class NioEventLoopGroup {
+
+    private final NioEventLoop[] loops;
+    private final ExecutorService workers;
+    private final AtomicInteger next = new AtomicInteger();
+
+    /**
+     * Constructs a new NioEventLoopGroup and starts its loops.
+     *
+     * @param ioThreads     the number of selector loops
+     * @param workerThreads the number of threads running client commands,
+     *                      or 0 to run each command on a new virtual thread
+     * @throws IOException if a selector cannot be opened
+     */
+    public NioEventLoopGroup(int ioThreads, int workerThreads) throws IOException {
+        loops = new NioEventLoop[ioThreads];
+        for (int i = 0; i < ioThreads; i++) {
+            loops[i] = new NioEventLoop("chat-io-" + i);
+            loops[i].start();
+        }
+        if (workerThreads == 0) {
+            workers = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("chat-worker-", 0).factory());
+        } else {
+            AtomicInteger workerIndex = new AtomicInteger();
+            workers = Executors.newFixedThreadPool(workerThreads, runnable -> {
+                Thread thread = new Thread(runnable, "chat-worker-" + workerIndex.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /**
+     * Hands an accepted client channel to one of the loops, in round-robin order.
+     *
+     * @param channel the accepted client channel
+     */
+    public void register(SocketChannel channel) {
+        NioEventLoop loop = loops[Math.floorMod(next.getAndIncrement(), loops.length)];
+        loop.register(channel, workers);
+    }
+}
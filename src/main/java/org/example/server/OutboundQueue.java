@@ -0,0 +1,239 @@
+package org.example.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * OutboundQueue holds the encoded frames waiting to be written to one client.
+ * Any thread may offer frames without blocking; a single writer drains them.
+ * When the queue is full the configured {@link OverflowPolicy} applies; under
+ * SPILL the frames past capacity wait in a {@link SpillFile} until the ones in
+ * memory are written.
+ */
+public class OutboundQueue {
+
+    private final ArrayDeque<ByteBuffer> frames = new ArrayDeque<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final int capacity;
+    private final int spillLimit;
+    private final Path spillDirectory;
+    private final OverflowPolicy policy;
+    // created at the first spilled frame
+    private SpillFile spill;
+    private boolean closed;
+    private boolean failed;
+
+    /**
+     * Constructs a new OutboundQueue.
+     *
+     * @param capacity   the number of frames the queue holds before overflowing
+     * @param policy     what to do with frames offered to a full queue
+     * @param spillLimit     the number of frames the SPILL policy keeps on disk past capacity
+     * @param spillDirectory the directory the SPILL policy keeps them in
+     */
+    public OutboundQueue(int capacity, OverflowPolicy policy, int spillLimit, Path spillDirectory) {
+        this.capacity = capacity;
+        this.policy = policy;
+        this.spillLimit = spillLimit;
+        this.spillDirectory = spillDirectory;
+    }
+
+    /**
+     * Constructs a new OutboundQueue from the server configuration.
+     *
+     * @return the new queue
+     */
+    public static OutboundQueue fromConfig() {
+        return new OutboundQueue(ServerConfig.outboundCapacity(), ServerConfig.overflowPolicy(),
+                ServerConfig.spillLimit(), ServerConfig.spillDirectory());
+    }
+
+    /**
+     * Adds a frame to the queue without blocking.
+     *
+     * @param frame the encoded frame
+     * @return false if the client must be disconnected, true otherwise
+     */
+    public boolean offer(ByteBuffer frame) {
+        lock.lock();
+        try {
+            if (closed) {
+                return !failed;
+            }
+            int spilled = spilled();
+            int depth = frames.size() + spilled;
+            // once frames are spilled the newer ones follow them, to keep the order
+            if (spilled > 0 || depth >= capacity) {
+                switch (policy) {
+                    case DROP:
+                        OutboundStats.onDropped();
+                        return true;
+                    case SPILL:
+                        if (spilled < spillLimit && spill(frame)) {
+                            OutboundStats.onSpilled();
+                            OutboundStats.onQueued(depth + 1);
+                            notEmpty.signal();
+                            return true;
+                        }
+                        OutboundStats.onDisconnected();
+                        return false;
+                    case DISCONNECT:
+                    default:
+                        OutboundStats.onDisconnected();
+                        return false;
+                }
+            }
+            frames.addLast(frame);
+            OutboundStats.onQueued(depth + 1);
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes the oldest frame without blocking.
+     *
+     * @return the oldest frame, or null if the queue is empty
+     */
+    public ByteBuffer poll() {
+        lock.lock();
+        try {
+            return next();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes the oldest frame, waiting until one is available.
+     *
+     * @return the oldest frame, or null once the queue is closed
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public ByteBuffer take() throws InterruptedException {
+        return poll(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Removes the oldest frame, waiting until one is available.
+     *
+     * @param timeout how long to wait
+     * @param unit    the unit of the timeout
+     * @return the oldest frame, or null if the wait timed out or the queue was closed
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public ByteBuffer poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lock();
+        try {
+            while (frames.isEmpty() && spilled() == 0 && !closed) {
+                if (nanos <= 0) {
+                    return null;
+                }
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            return next();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of frames waiting in the queue.
+     *
+     * @return the queue depth
+     */
+    public int size() {
+        lock.lock();
+        try {
+            return frames.size() + spilled();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns whether the queue has been closed.
+     *
+     * @return true once {@link #close()} was called
+     */
+    public boolean isClosed() {
+        lock.lock();
+        try {
+            return closed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Discards the waiting frames, rejects new ones, and wakes up the writer.
+     */
+    public void close() {
+        lock.lock();
+        try {
+            closeLocked();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes the oldest frame, from memory and then from the spill file. A
+     * spill file that cannot be read fails the queue, so the next offer
+     * disconnects the client rather than leave it missing frames.
+     */
+    private ByteBuffer next() {
+        ByteBuffer frame = frames.pollFirst();
+        if (frame == null && spilled() > 0) {
+            try {
+                frame = spill.poll();
+            } catch (IOException e) {
+                e.printStackTrace();
+                failed = true;
+                closeLocked();
+                return null;
+            }
+        }
+        if (frame != null) {
+            OutboundStats.onDequeued(1);
+        }
+        return frame;
+    }
+
+    private boolean spill(ByteBuffer frame) {
+        try {
+            if (spill == null) {
+                spill = new SpillFile(spillDirectory);
+            }
+            spill.append(frame);
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    private int spilled() {
+        return spill == null ? 0 : spill.size();
+    }
+
+    private void closeLocked() {
+        closed = true;
+        OutboundStats.onDequeued(frames.size() + spilled());
+        frames.clear();
+        if (spill != null) {
+            spill.close();
+            spill = null;
+        }
+        notEmpty.signalAll();
+    }
+}
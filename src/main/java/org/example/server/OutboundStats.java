@@ -0,0 +1,140 @@
+package org.example.server;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * OutboundStats aggregates the state of every outbound queue on the server,
+ * so that backpressure from slow clients can be seen building up.
+ */
+public class OutboundStats {
+
+    private static final LongAdder queued = new LongAdder();
+    private static final AtomicInteger highWaterMark = new AtomicInteger();
+    private static final LongAdder dropped = new LongAdder();
+    private static final LongAdder spilled = new LongAdder();
+    private static final LongAdder disconnected = new LongAdder();
+    private static final LongAdder flushes = new LongAdder();
+    private static final LongAdder flushedFrames = new LongAdder();
+    private static final LongAdder flushedBytes = new LongAdder();
+
+    static void onQueued(int depth) {
+        queued.increment();
+        int mark;
+        while (depth > (mark = highWaterMark.get())) {
+            if (highWaterMark.compareAndSet(mark, depth)) {
+                break;
+            }
+        }
+    }
+
+    static void onDequeued(int count) {
+        queued.add(-count);
+    }
+
+    static void onDropped() {
+        dropped.increment();
+    }
+
+    static void onSpilled() {
+        spilled.increment();
+    }
+
+    static void onDisconnected() {
+        disconnected.increment();
+    }
+
+    static void onFlushed(int frames, int bytes) {
+        flushes.increment();
+        flushedFrames.add(frames);
+        flushedBytes.add(bytes);
+    }
+
+    /**
+     * Returns the number of flushes, each a single socket write of one or more frames.
+     *
+     * @return the number of flushes
+     */
+    public static long getFlushes() {
+        return flushes.sum();
+    }
+
+    /**
+     * Returns the number of frames written by all flushes.
+     *
+     * @return the number of flushed frames
+     */
+    public static long getFlushedFrames() {
+        return flushedFrames.sum();
+    }
+
+    /**
+     * Returns the number of bytes written by all flushes.
+     *
+     * @return the number of flushed bytes
+     */
+    public static long getFlushedBytes() {
+        return flushedBytes.sum();
+    }
+
+    /**
+     * Returns the number of frames waiting in all outbound queues.
+     *
+     * @return the total queue depth
+     */
+    public static long getQueuedFrames() {
+        return queued.sum();
+    }
+
+    /**
+     * Returns the deepest any single outbound queue has been since startup.
+     *
+     * @return the high-water mark of a single queue
+     */
+    public static int getHighWaterMark() {
+        return highWaterMark.get();
+    }
+
+    /**
+     * Returns the number of frames discarded by the DROP policy.
+     *
+     * @return the number of dropped frames
+     */
+    public static long getDroppedFrames() {
+        return dropped.sum();
+    }
+
+    /**
+     * Returns the number of frames the SPILL policy wrote to disk past capacity.
+     *
+     * @return the number of spilled frames
+     */
+    public static long getSpilledFrames() {
+        return spilled.sum();
+    }
+
+    /**
+     * Returns the number of clients disconnected because their queue overflowed.
+     *
+     * @return the number of disconnected clients
+     */
+    public static long getDisconnectedClients() {
+        return disconnected.sum();
+    }
+
+    /**
+     * Returns a one-line summary of the outbound queues.
+     *
+     * @return the summary
+     */
+    public static String summary() {
+        return "queued=" + getQueuedFrames() +
+                " highWater=" + getHighWaterMark() +
+                " dropped=" + getDroppedFrames() +
+                " spilled=" + getSpilledFrames() +
+                " disconnected=" + getDisconnectedClients() +
+                " flushes=" + getFlushes() +
+                " framesPerFlush=" + String.format("%.2f", (double) getFlushedFrames() / Math.max(1, getFlushes())) +
+                " bytesPerFlush=" + getFlushedBytes() / Math.max(1, getFlushes());
+    }
+}
@@ -0,0 +1,40 @@
+package org.example.server;
+
+/**
+ * OverflowPolicy decides what happens when a frame is sent to a client
+ * whose outbound queue is full.
+ */
+public enum OverflowPolicy {
+    /**
+     * Discard the new frame and keep the connection.
+     */
+    DROP,
+
+    /**
+     * Close the connection of the slow client.
+     */
+    DISCONNECT,
+
+    /**
+     * Keep queueing past the capacity in a file on disk, up to the spill
+     * limit, and only then close the connection.
+     */
+    SPILL;
+
+    /**
+     * Returns the policy with the given name, ignoring case.
+     * Unknown names fall back to {@link #DISCONNECT}.
+     *
+     * @param name the name of the policy
+     * @return the matching policy
+     */
+    public static OverflowPolicy fromName(String name) {
+        for (OverflowPolicy policy : values()) {
+            if (policy.name().equalsIgnoreCase(name.trim())) {
+                return policy;
+            }
+        }
+        System.err.println("Unknown overflow policy " + name + ", using " + DISCONNECT);
+        return DISCONNECT;
+    }
+}
@@ -0,0 +1,175 @@
+package org.example.server;
+
+import org.example.controller.UserController;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * PresenceService is the authoritative record of which users are online.
+ * Logins and logouts only update memory; when write-behind is enabled the
+ * latest status of each changed user is written to {@code users.isOnline}
+ * in one batched transaction every {@code chat.presenceFlushMillis}.
+ * A batch that fails to be written is queued again for the next flush,
+ * except for the users whose status changed in the meantime.
+ */
+public class PresenceService {
+
+    private static final Set<String> online = ConcurrentHashMap.newKeySet();
+    // latest unwritten status per user; a reconnect overwrites the logout
+    private static final Map<String, Boolean> pending = new ConcurrentHashMap<>();
+    private static final LongAdder changes = new LongAdder();
+    private static final LongAdder flushes = new LongAdder();
+    private static final LongAdder failures = new LongAdder();
+    private static final LongAdder writtenRows = new LongAdder();
+    private static final AtomicReference<ScheduledExecutorService> flusher = new AtomicReference<>();
+
+    private static volatile boolean writeBehind;
+
+    /**
+     * Resets the stale active flags left in the database and, if enabled,
+     * starts the write-behind flusher.
+     */
+    public static void start() {
+        int reset = UserController.resetUserStatuses();
+        System.out.println("Reset " + reset + " stale online flags.");
+
+        writeBehind = Boolean.parseBoolean(ServerConfig.get("presenceWriteBehind", "true"));
+        if (writeBehind && flusher.get() == null) {
+            ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "chat-presence");
+                thread.setDaemon(true);
+                return thread;
+            });
+            if (!flusher.compareAndSet(null, executor)) {
+                // another start won
+                executor.shutdown();
+                return;
+            }
+            long interval = Math.max(10, ServerConfig.getInt("presenceFlushMillis", 1000));
+            executor.scheduleWithFixedDelay(PresenceService::flush, interval, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Records that a user came online or went offline.
+     *
+     * @param username the username of the user
+     * @param status   true if the user is now online
+     */
+    public static void setOnline(String username, boolean status) {
+        if (username == null) {
+            return;
+        }
+        if (status) {
+            online.add(username);
+        } else {
+            online.remove(username);
+        }
+        changes.increment();
+        if (writeBehind) {
+            pending.put(username, status);
+        } else {
+            UserController.setUserStatus(username, status);
+        }
+    }
+
+    /**
+     * Returns whether a user is online on this server.
+     *
+     * @param username the username of the user
+     * @return true if the user is online
+     */
+    public static boolean isOnline(String username) {
+        return username != null && online.contains(username);
+    }
+
+    /**
+     * Returns the number of users online.
+     *
+     * @return the number of online users
+     */
+    public static int getOnlineCount() {
+        return online.size();
+    }
+
+    /**
+     * Writes the pending status changes to the database, one statement per status.
+     * The changes of a status that fails to be written are put back unless the
+     * user has a newer one pending.
+     */
+    public static void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        List<String> cameOnline = new ArrayList<>();
+        List<String> wentOffline = new ArrayList<>();
+        for (String username : pending.keySet()) {
+            Boolean status = pending.remove(username);
+            if (status == null) {
+                continue;
+            }
+            (status ? cameOnline : wentOffline).add(username);
+        }
+        boolean written = write(cameOnline, true);
+        written &= write(wentOffline, false);
+        if (written) {
+            flushes.increment();
+        } else {
+            failures.increment();
+        }
+    }
+
+    private static boolean write(List<String> usernames, boolean status) {
+        if (usernames.isEmpty()) {
+            return true;
+        }
+        if (UserController.setUsersStatus(usernames, status)) {
+            writtenRows.add(usernames.size());
+            return true;
+        }
+        for (String username : usernames) {
+            pending.putIfAbsent(username, status);
+        }
+        return false;
+    }
+
+    /**
+     * Stops the flusher and writes the remaining changes.
+     */
+    public static void shutdown() {
+        ScheduledExecutorService executor = flusher.getAndSet(null);
+        if (executor != null) {
+            executor.shutdown();
+            try {
+                // a flush under way finishes before the last one starts
+                executor.awaitTermination(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        flush();
+    }
+
+    /**
+     * Returns a one-line summary of the presence service.
+     *
+     * @return the summary
+     */
+    public static String summary() {
+        return "online=" + online.size() +
+                " changes=" + changes.sum() +
+                " pending=" + pending.size() +
+                " flushes=" + flushes.sum() +
+                " failures=" + failures.sum() +
+                " writtenRows=" + writtenRows.sum();
+    }
+}
@@ -0,0 +1,153 @@
+package org.example.server;
+
+import java.nio.file.Path;
+
+/**
+ * ServerConfig holds the tunable settings of the chat server.
+ * Every setting is read from a system property prefixed with {@code chat.},
+ * and can also be passed to {@code ChatServer.main} as {@code --key=value}.
+ */
+public class ServerConfig {
+
+    private static final String PREFIX = "chat.";
+
+    /**
+     * Applies {@code --key=value} command-line arguments as settings.
+     * Arguments that do not have this form are ignored.
+     *
+     * @param args command-line arguments
+     */
+    public static void applyArgs(String[] args) {
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                continue;
+            }
+            int separator = arg.indexOf('=');
+            if (separator > 2) {
+                System.setProperty(PREFIX + arg.substring(2, separator), arg.substring(separator + 1));
+            }
+        }
+    }
+
+    /**
+     * Returns a string setting.
+     *
+     * @param key          the setting name without the {@code chat.} prefix
+     * @param defaultValue the value used when the setting is missing
+     * @return the value of the setting
+     */
+    public static String get(String key, String defaultValue) {
+        return System.getProperty(PREFIX + key, defaultValue);
+    }
+
+    /**
+     * Returns an integer setting.
+     *
+     * @param key          the setting name without the {@code chat.} prefix
+     * @param defaultValue the value used when the setting is missing or invalid
+     * @return the value of the setting
+     */
+    public static int getInt(String key, int defaultValue) {
+        String value = get(key, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            System.err.println("Invalid value for " + PREFIX + key + ": " + value);
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Returns the engine used to serve client connections.
+     *
+     * @return the configured server engine
+     */
+    public static ServerEngine engine() {
+        return ServerEngine.fromName(get("engine", ServerEngine.THREADS.name()));
+    }
+
+    /**
+     * Returns the number of selector loops used by the NIO engine.
+     *
+     * @return the number of I/O threads
+     */
+    public static int ioThreads() {
+        return Math.max(1, getInt("ioThreads", Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * Returns whether the NIO engine runs client commands on virtual threads
+     * instead of a fixed pool of platform threads.
+     *
+     * @return true if commands run on virtual threads
+     */
+    public static boolean virtualWorkers() {
+        return Boolean.parseBoolean(get("virtualWorkers", "false"));
+    }
+
+    /**
+     * Returns the number of threads that run client commands for the NIO engine.
+     *
+     * @return the number of worker threads
+     */
+    public static int workerThreads() {
+        return Math.max(1, getInt("workerThreads", 4 * Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * Returns the number of frames a client's outbound queue holds before overflowing.
+     *
+     * @return the outbound queue capacity
+     */
+    public static int outboundCapacity() {
+        return Math.max(1, getInt("outboundCapacity", 1024));
+    }
+
+    /**
+     * Returns what happens to frames sent to a client whose outbound queue is full.
+     *
+     * @return the overflow policy
+     */
+    public static OverflowPolicy overflowPolicy() {
+        return OverflowPolicy.fromName(get("overflowPolicy", OverflowPolicy.DISCONNECT.name()));
+    }
+
+    /**
+     * Returns the number of frames the SPILL policy keeps on disk past capacity.
+     *
+     * @return the spill limit
+     */
+    public static int spillLimit() {
+        return Math.max(0, getInt("spillLimit", 8192));
+    }
+
+    /**
+     * Returns the directory the SPILL policy keeps its frames in.
+     *
+     * @return the spill directory, the system temporary directory by default
+     */
+    public static Path spillDirectory() {
+        return Path.of(get("spillDir", System.getProperty("java.io.tmpdir")));
+    }
+
+    /**
+     * Returns how long a queued frame may wait for others to join its flush.
+     *
+     * @return the coalescing window in nanoseconds
+     */
+    public static long flushDelayNanos() {
+        return Math.max(0, getInt("flushDelayMicros", 200)) * 1000L;
+    }
+
+    /**
+     * Returns the number of bytes at which a batch is flushed without waiting further.
+     *
+     * @return the batch byte budget
+     */
+    public static int flushBatchBytes() {
+        return Math.max(1, getInt("flushBatchBytes", 16 * 1024));
+    }
+}
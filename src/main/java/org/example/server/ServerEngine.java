@@ -0,0 +1,40 @@
+package org.example.server;
+
+/**
+ * ServerEngine lists the ways the chat server can serve client connections.
+ */
+public enum ServerEngine {
+    /**
+     * One platform thread per client, blocking on the socket streams.
+     */
+    THREADS,
+
+    /**
+     * One virtual thread per client, blocking on the socket streams.
+     * Idle clients cost only heap, and the blocking database calls made
+     * by their commands park the virtual thread instead of a carrier.
+     */
+    VIRTUAL,
+
+    /**
+     * A small fixed set of selector loops multiplexing non-blocking channels.
+     */
+    NIO;
+
+    /**
+     * Returns the engine with the given name, ignoring case.
+     * Unknown names fall back to {@link #THREADS}.
+     *
+     * @param name the name of the engine
+     * @return the matching engine
+     */
+    public static ServerEngine fromName(String name) {
+        for (ServerEngine engine : values()) {
+            if (engine.name().equalsIgnoreCase(name.trim())) {
+                return engine;
+            }
+        }
+        System.err.println("Unknown server engine " + name + ", using " + THREADS);
+        return THREADS;
+    }
+}
@@ -0,0 +1,61 @@
+package org.example.server;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * ServerMetrics collects named metric sections and prints them periodically.
+ * Each subsystem registers a supplier returning a one-line summary of itself.
+ */
+public class ServerMetrics {
+
+    private static final Map<String, Supplier<String>> sections = new ConcurrentSkipListMap<>();
+
+    static {
+        register("outbound", OutboundStats::summary);
+    }
+
+    /**
+     * Registers a metric section, replacing any section with the same name.
+     *
+     * @param name    the name of the section
+     * @param summary returns a one-line summary of the section
+     */
+    public static void register(String name, Supplier<String> summary) {
+        sections.put(name, summary);
+    }
+
+    /**
+     * Returns the current value of every section, one per line.
+     *
+     * @return the metrics report
+     */
+    public static String report() {
+        StringBuilder report = new StringBuilder();
+        for (Map.Entry<String, Supplier<String>> section : sections.entrySet()) {
+            report.append('[').append(section.getKey()).append("] ").append(section.getValue().get()).append('\n');
+        }
+        return report.toString();
+    }
+
+    /**
+     * Starts printing the report every {@code chat.statsInterval} seconds.
+     * Does nothing if the interval is 0, the default.
+     */
+    public static void startReporter() {
+        int interval = ServerConfig.getInt("statsInterval", 0);
+        if (interval <= 0) {
+            return;
+        }
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "chat-metrics");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reporter.scheduleAtFixedRate(() -> System.out.print(report()), interval, interval, TimeUnit.SECONDS);
+    }
+}
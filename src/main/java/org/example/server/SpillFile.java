@@ -0,0 +1,112 @@
+package org.example.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * SpillFile holds the frames an {@link OutboundQueue} takes past its capacity
+ * under the SPILL policy, in a temporary file, first in first out. Each frame is
+ * stored as its length followed by its bytes. The file is emptied whenever the
+ * last frame is read back, so it only grows as far as the client falls behind,
+ * and it is deleted when closed. Not thread-safe; the queue's lock guards it.
+ */
+final class SpillFile {
+
+    private final FileChannel channel;
+    private final ByteBuffer length = ByteBuffer.allocate(4);
+    private long readPosition;
+    private long writePosition;
+    private int count;
+
+    /**
+     * Creates an empty spill file in a directory.
+     *
+     * @param directory the directory the file is created in
+     * @throws IOException if the file cannot be created
+     */
+    SpillFile(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        Path file = Files.createTempFile(directory, "chat-spill-", ".frames");
+        this.channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                StandardOpenOption.DELETE_ON_CLOSE);
+    }
+
+    /**
+     * Appends a frame after the others. The frame's position is left unchanged.
+     *
+     * @param frame the encoded frame
+     * @throws IOException if the frame cannot be written
+     */
+    void append(ByteBuffer frame) throws IOException {
+        length.clear();
+        length.putInt(frame.remaining()).flip();
+        writeFully(length, writePosition);
+        writeFully(frame.duplicate(), writePosition + 4);
+        writePosition += 4 + frame.remaining();
+        count++;
+    }
+
+    /**
+     * Removes the oldest frame.
+     *
+     * @return the oldest frame, or null if the file holds none
+     * @throws IOException if the frame cannot be read
+     */
+    ByteBuffer poll() throws IOException {
+        if (count == 0) {
+            return null;
+        }
+        length.clear();
+        readFully(length, readPosition);
+        ByteBuffer frame = ByteBuffer.allocate(length.flip().getInt());
+        readFully(frame, readPosition + 4);
+        readPosition += 4 + frame.capacity();
+        if (--count == 0) {
+            channel.truncate(0);
+            readPosition = 0;
+            writePosition = 0;
+        }
+        return frame.flip();
+    }
+
+    /**
+     * Returns the number of frames in the file.
+     *
+     * @return the number of spilled frames
+     */
+    int size() {
+        return count;
+    }
+
+    /**
+     * Deletes the file and the frames in it.
+     */
+    void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        count = 0;
+    }
+
+    private void writeFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("Spill file ends before its frame");
+            }
+            position += read;
+        }
+    }
+}
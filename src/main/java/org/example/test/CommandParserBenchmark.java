@@ -0,0 +1,105 @@
+package org.example.test;
+
+import org.example.protocol.CommandParser;
+import org.example.protocol.Opcode;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the allocation-free CommandParser with the split-based parsing
+ * that ClientHandler used before, on a mix of typical client commands.
+ * Run with:
+ * <pre>
+ * mvn compile exec:java -Dexec.mainClass=org.example.test.CommandParserBenchmark -Dexec.classpathScope=compile
+ * </pre>
+ * Add {@code -prof gc} to the options below to see the allocation rate of each side.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CommandParserBenchmark {
+
+    private static final String[] LINES = {
+            "/msg alice hey, are you coming to the meeting later today?",
+            "/msg bob ok",
+            "/friends",
+            "/friendAccepted :carol",
+            "/deleteFriend:dave",
+            "hello everyone",
+            "exit"
+    };
+
+    private byte[][] lineBytes;
+    private final CommandParser parser = new CommandParser();
+
+    @Setup
+    public void setup() {
+        lineBytes = new byte[LINES.length][];
+        for (int i = 0; i < LINES.length; i++) {
+            lineBytes[i] = LINES[i].getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    @Benchmark
+    public void splitParsing(Blackhole blackhole) {
+        for (String message : LINES) {
+            if (message.equalsIgnoreCase("exit")) {
+                blackhole.consume(Opcode.QUIT);
+            } else if (message.startsWith("/msg ")) {
+                String[] parts = message.split(" ", 3);
+                if (parts.length >= 3) {
+                    blackhole.consume(parts[1]);
+                    blackhole.consume(parts[2]);
+                }
+            } else if (message.startsWith("/friends")) {
+                blackhole.consume(Opcode.FRIENDS);
+            } else if (message.startsWith("/friendAccepted")) {
+                String[] parts = message.split(":", 2);
+                if (parts.length >= 2) {
+                    blackhole.consume(parts[1]);
+                }
+            } else if (message.startsWith("/deleteFriend")) {
+                String[] parts = message.split(":", 2);
+                if (parts.length >= 2) {
+                    blackhole.consume(parts[1]);
+                }
+            } else {
+                blackhole.consume(message);
+            }
+        }
+    }
+
+    @Benchmark
+    public void commandParser(Blackhole blackhole) {
+        for (byte[] line : lineBytes) {
+            blackhole.consume(parser.parseFromClient(line, 0, line.length));
+            blackhole.consume(parser.getTargetStart());
+            blackhole.consume(parser.getBodyStart());
+        }
+    }
+
+    @Benchmark
+    public void commandParserToFrame(Blackhole blackhole) {
+        for (byte[] line : lineBytes) {
+            parser.parseFromClient(line, 0, line.length);
+            blackhole.consume(parser.toFrame(line));
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(CommandParserBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
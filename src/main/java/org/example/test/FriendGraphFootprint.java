@@ -0,0 +1,76 @@
+package org.example.test;
+
+import org.example.persistence.FriendGraph;
+
+import java.util.SplittableRandom;
+
+/**
+ * Builds a FriendGraph of random friendships without the database, then
+ * reports its heap footprint, estimated and measured, and the time of
+ * friendship checks and presence fan-out lookups. Run with:
+ * <pre>
+ * mvn compile exec:java -Dexec.mainClass=org.example.test.FriendGraphFootprint -Dexec.args="1000000 100000"
+ * </pre>
+ * The arguments are the number of friendships and the number of users.
+ */
+public class FriendGraphFootprint {
+
+    public static void main(String[] args) {
+        int friendships = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int users = args.length > 1 ? Integer.parseInt(args[1]) : 100_000;
+        // IDs shaped like Snowflake IDs: a timestamp in the high bits, a sequence in the low ones
+        long firstId = 1L << 40;
+
+        long heapBefore = usedHeap();
+        FriendGraph graph = new FriendGraph();
+        long start = System.nanoTime();
+        graph.warm(edges -> {
+            SplittableRandom random = new SplittableRandom(42);
+            for (int i = 0; i < friendships; i++) {
+                long user = firstId + random.nextInt(users);
+                long friend = firstId + random.nextInt(users);
+                if (user != friend) {
+                    edges.accept(user, friend, "user" + (friend - firstId));
+                    edges.accept(friend, user, "user" + (user - firstId));
+                }
+            }
+        });
+        long buildMillis = (System.nanoTime() - start) / 1_000_000;
+        long measured = usedHeap() - heapBefore;
+
+        System.out.printf("friendships=%d users=%d build=%dms%n", graph.friendshipCount(), users, buildMillis);
+        System.out.printf("footprint estimated=%.1fMB measured=%.1fMB bytes/friendship=%.1f%n",
+                graph.footprintBytes() / 1e6, measured / 1e6, (double) graph.footprintBytes() / graph.friendshipCount());
+
+        int lookups = 5_000_000;
+        SplittableRandom random = new SplittableRandom(7);
+        long found = 0;
+        for (int round = 0; round < 2; round++) {
+            start = System.nanoTime();
+            for (int i = 0; i < lookups; i++) {
+                if (graph.areFriends(firstId + random.nextInt(users), firstId + random.nextInt(users))) {
+                    found++;
+                }
+            }
+            long checkNanos = (System.nanoTime() - start) / lookups;
+
+            int fanOuts = 1_000_000;
+            start = System.nanoTime();
+            for (int i = 0; i < fanOuts; i++) {
+                found += graph.friendNamesOf(firstId + random.nextInt(users)).size();
+            }
+            long fanOutNanos = (System.nanoTime() - start) / fanOuts;
+            System.out.printf("round %d: areFriends=%dns friendNamesOf=%dns%n", round + 1, checkNanos, fanOutNanos);
+        }
+        // keeps the lookups from being optimized away
+        System.out.println("(" + found + ")");
+    }
+
+    private static long usedHeap() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
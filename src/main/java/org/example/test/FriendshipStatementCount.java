@@ -0,0 +1,109 @@
+package org.example.test;
+
+import org.example.controller.FriendController;
+import org.example.controller.FriendRequestController;
+import org.example.controller.UserController;
+import org.example.models.FriendRequest;
+import org.example.models.User;
+import org.example.util.HibernateUtil;
+import org.hibernate.stat.Statistics;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Counts the SQL statements, transactions and entity loads of the friendship
+ * mutations: accepting a friend request, removing and adding a friendship,
+ * and accepting requests in bulk. Each accept used to take four transactions
+ * merging both users with their friend lists; it is now one transaction of
+ * two statements. Each count is checked against what the operation should
+ * take, and the program exits with status 1 if any differs. Needs the
+ * configured database. Run with:
+ * <pre>
+ * mvn compile exec:java -Dexec.mainClass=org.example.test.FriendshipStatementCount -Dexec.args="200"
+ * </pre>
+ * The argument is the number of user pairs, each doing every mutation once.
+ */
+public class FriendshipStatementCount {
+
+    public static void main(String[] args) {
+        int pairs = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        System.setProperty("hibernate.generate_statistics", "true");
+
+        List<User> senders = new ArrayList<>();
+        List<User> recipients = new ArrayList<>();
+        for (int i = 0; i < pairs; i++) {
+            senders.add(user("friendship-sender-" + i));
+            recipients.add(user("friendship-recipient-" + i));
+            FriendController.deleteFriend(senders.get(i), recipients.get(i));
+        }
+        Statistics statistics = HibernateUtil.getSessionFactory().getStatistics();
+        System.out.printf("%-20s %6s %14s %16s %16s%n", "operation", "ops", "statements/op", "transactions/op", "entityLoads/op");
+        boolean passed = true;
+
+        List<FriendRequest> requests = sendRequests(senders, recipients);
+        statistics.clear();
+        for (FriendRequest request : requests) {
+            FriendRequestController.acceptFriendRequest(request);
+        }
+        // the friendship insert and the request delete
+        passed &= check("accept", pairs, statistics, 2L * pairs, pairs);
+
+        statistics.clear();
+        for (int i = 0; i < pairs; i++) {
+            FriendController.deleteFriend(senders.get(i), recipients.get(i));
+        }
+        passed &= check("deleteFriend", pairs, statistics, pairs, pairs);
+
+        statistics.clear();
+        for (int i = 0; i < pairs; i++) {
+            FriendController.addFriend(senders.get(i), recipients.get(i));
+        }
+        passed &= check("addFriend", pairs, statistics, pairs, pairs);
+
+        for (int i = 0; i < pairs; i++) {
+            FriendController.deleteFriend(senders.get(i), recipients.get(i));
+        }
+        requests = sendRequests(senders, recipients);
+        statistics.clear();
+        FriendRequestController.acceptFriendRequests(requests);
+        // 500 friendships per insert and 1000 requests per delete, all in one transaction
+        passed &= check("acceptFriendRequests", pairs, statistics, (pairs + 499) / 500 + (pairs + 999) / 1000, 1);
+        System.out.println(passed ? "PASSED" : "FAILED");
+        System.exit(passed ? 0 : 1);
+    }
+
+    private static List<FriendRequest> sendRequests(List<User> senders, List<User> recipients) {
+        List<FriendRequest> requests = new ArrayList<>();
+        for (int i = 0; i < senders.size(); i++) {
+            FriendRequestController.sendFriendRequest(senders.get(i).getId(), recipients.get(i).getId());
+            requests.add(FriendRequestController.getFriendRequest(senders.get(i), recipients.get(i)));
+        }
+        return requests;
+    }
+
+    /**
+     * Prints the counts of an operation and checks them against the expected
+     * totals. No friendship mutation loads an entity.
+     */
+    private static boolean check(String operation, int ops, Statistics statistics,
+                                 long expectedStatements, long expectedTransactions) {
+        long statements = statistics.getPrepareStatementCount();
+        long transactions = statistics.getTransactionCount();
+        long entityLoads = statistics.getEntityLoadCount();
+        boolean passed = statements == expectedStatements && transactions == expectedTransactions && entityLoads == 0;
+        System.out.printf("%-20s %6d %14.2f %16.2f %16.2f %s%n", operation, ops,
+                (double) statements / ops, (double) transactions / ops, (double) entityLoads / ops,
+                passed ? "ok" : "expected " + expectedStatements + " statements, " + expectedTransactions
+                        + " transactions and no entity loads, got " + statements + ", " + transactions
+                        + " and " + entityLoads);
+        return passed;
+    }
+
+    private static User user(String name) {
+        if (UserController.getUserByUsername(name) == null) {
+            UserController.signup(new User(name, "friendship"));
+        }
+        return UserController.getUserByUsername(name);
+    }
+}
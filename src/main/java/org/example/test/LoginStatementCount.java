@@ -0,0 +1,100 @@
+package org.example.test;
+
+import org.example.controller.FriendController;
+import org.example.controller.UserController;
+import org.example.models.User;
+import org.example.persistence.Repositories;
+import org.example.util.HibernateUtil;
+import org.hibernate.Hibernate;
+import org.hibernate.stat.Statistics;
+
+/**
+ * Counts the SQL statements and entity loads of one login: checking the
+ * credentials, then reading the friend list with active statuses, as the
+ * login window and the server do. The second-level cache is emptied before
+ * each login, so every login is a cold one. A last phase walks the friends
+ * of the user and of each friend as entities, the path served by batch fetching.
+ * Needs the configured database. Run with:
+ * <pre>
+ * mvn compile exec:java -Dexec.mainClass=org.example.test.LoginStatementCount -Dexec.args="20 100"
+ * </pre>
+ * The arguments are the number of friends of the user logging in, each of
+ * them also given that many friends, and the number of logins. The login
+ * phase uses only {@code UserController.Loing} and {@code getFriends}, so the
+ * class can be copied onto an older tree to measure the EAGER friend mapping.
+ * <p>
+ * A login should take two statements, the credentials and the friend list,
+ * and load only the user; the walk one statement for the user, one for its
+ * friends, and one per 50 friends for theirs, loading each user it reaches
+ * once. The program exits with status 1 if a phase takes more.
+ */
+public class LoginStatementCount {
+
+    public static void main(String[] args) {
+        int friends = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+        int logins = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        System.setProperty("hibernate.generate_statistics", "true");
+
+        User user = user("login-user");
+        for (int i = 0; i < friends; i++) {
+            User friend = user("login-friend-" + i);
+            FriendController.addFriend(user, friend);
+            for (int j = 0; j < friends; j++) {
+                FriendController.addFriend(friend, user("login-friend-" + i + "-" + j));
+            }
+        }
+        Statistics statistics = HibernateUtil.getSessionFactory().getStatistics();
+        System.out.printf("%-24s %8s %14s %16s%n", "phase", "logins", "statements/op", "entityLoads/op");
+        boolean passed = true;
+
+        statistics.clear();
+        for (int i = 0; i < logins; i++) {
+            HibernateUtil.getSessionFactory().getCache().evictAllRegions();
+            User loggedIn = UserController.Loing(user.getUsername(), "login");
+            try {
+                UserController.getFriends(loggedIn.getUsername());
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+        passed &= check("login + friends", logins, statistics, 2L * logins, logins);
+
+        statistics.clear();
+        for (int i = 0; i < logins; i++) {
+            HibernateUtil.getSessionFactory().getCache().evictAllRegions();
+            Repositories.transactions().read(session -> {
+                User managed = session.get(User.class, user.getId());
+                for (User friend : managed.getFriends()) {
+                    Hibernate.initialize(friend.getFriends());
+                }
+                return managed;
+            });
+        }
+        // the user, its friends, and each friend's own friends
+        long walked = 1L + friends + (long) friends * friends;
+        passed &= check("friends of friends", logins, statistics, (2L + (friends + 49) / 50) * logins, walked * logins);
+        System.out.println(passed ? "PASSED" : "FAILED");
+        System.exit(passed ? 0 : 1);
+    }
+
+    /**
+     * Prints the counts of a phase and checks them against the most it should take in total.
+     */
+    private static boolean check(String phase, int logins, Statistics statistics, long maxStatements, long maxEntityLoads) {
+        long statements = statistics.getPrepareStatementCount();
+        long entityLoads = statistics.getEntityLoadCount();
+        boolean passed = statements <= maxStatements && entityLoads <= maxEntityLoads;
+        System.out.printf("%-24s %8d %14.2f %16.2f %s%n", phase, logins,
+                (double) statements / logins, (double) entityLoads / logins,
+                passed ? "ok" : "expected at most " + maxStatements + " statements and "
+                        + maxEntityLoads + " entity loads, got " + statements + " and " + entityLoads);
+        return passed;
+    }
+
+    private static User user(String name) {
+        if (UserController.getUserByUsername(name) == null) {
+            UserController.signup(new User(name, "login"));
+        }
+        return UserController.getUserByUsername(name);
+    }
+}
@@ -0,0 +1,146 @@
+package org.example.test;
+
+import org.example.persistence.MessageArchive;
+import org.example.persistence.MessageView;
+import org.example.util.IoThrottle;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.stream.Stream;
+
+/**
+ * Measures the message archive without a database: the rate segments are
+ * written at and how well they compress, the latency of reading pages of an
+ * archived conversation, and the time to merge the segments, leaving out the
+ * conversations of one user in ten as if deleted. Runs offline in a temporary
+ * directory, unthrottled. Run with:
+ * <pre>
+ * mvn compile exec:java -Dexec.mainClass=org.example.test.MessageArchiveBenchmark -Dexec.args="2000000 20000 4"
+ * </pre>
+ * The arguments are the number of messages, the number of conversations, and
+ * the number of segments they are archived in, as by that many retention runs.
+ */
+public class MessageArchiveBenchmark {
+
+    private static final int PAGE_SIZE = 50;
+    private static final String[] WORDS = {"hey", "are", "you", "coming", "tonight", "sure", "see", "at", "eight",
+            "the", "meeting", "moved", "to", "tomorrow", "thanks", "ok", "lol", "sounds", "good", "where"};
+
+    public static void main(String[] args) throws IOException {
+        int messages = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+        int conversations = args.length > 1 ? Integer.parseInt(args[1]) : 20_000;
+        int segmentCount = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+        int perConversation = messages / conversations / segmentCount;
+        Path directory = Files.createTempDirectory("message-archive-bench");
+        IoThrottle unthrottled = new IoThrottle(0);
+        SplittableRandom random = new SplittableRandom(42);
+
+        MessageArchive archive = new MessageArchive(directory);
+        long contentBytes = 0;
+        long start = System.nanoTime();
+        for (int segment = 0; segment < segmentCount; segment++) {
+            try (MessageArchive.Writer writer = archive.newSegment(unthrottled)) {
+                // users 2c + 1 and 2c + 2 make conversation c; segments continue each other's seqs
+                for (int c = 0; c < conversations; c++) {
+                    for (int i = 1; i <= perConversation; i++) {
+                        long seq = (long) segment * perConversation + i;
+                        boolean reply = random.nextBoolean();
+                        String content = sentence(random);
+                        contentBytes += content.length();
+                        writer.add(new MessageView(seq << 20 | c, reply ? 2L * c + 2 : 2L * c + 1,
+                                reply ? 2L * c + 1 : 2L * c + 2, content, new Date(), true, seq));
+                    }
+                }
+                writer.commit();
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        long written = (long) perConversation * conversations * segmentCount;
+        System.out.printf("write: %d messages in %d segments in %.2fs, %.0f msg/s, %.1f MB, %.1f bytes/message, content %.1f MB%n",
+                written, segmentCount, seconds, written / seconds, archive.sizeBytes() / 1e6,
+                (double) archive.sizeBytes() / written, contentBytes / 1e6);
+
+        long total = (long) perConversation * segmentCount;
+        long found = 0;
+        int reads = 20_000;
+        for (int round = 0; round < 2; round++) {
+            start = System.nanoTime();
+            for (int i = 0; i < reads; i++) {
+                long user = 2L * random.nextInt(conversations) + 1;
+                found += check(archive.read(user, user + 1, Long.MAX_VALUE, PAGE_SIZE), total + 1, PAGE_SIZE);
+            }
+            System.out.printf("read newest %d: %.1f us/page%n", PAGE_SIZE, (System.nanoTime() - start) / 1e3 / reads);
+        }
+        start = System.nanoTime();
+        for (int i = 0; i < reads; i++) {
+            long user = 2L * random.nextInt(conversations) + 1;
+            long before = 1 + PAGE_SIZE + random.nextLong(total - PAGE_SIZE);
+            found += check(archive.read(user, user + 1, before, PAGE_SIZE), before, PAGE_SIZE);
+        }
+        System.out.printf("read random page %d: %.1f us/page%n", PAGE_SIZE, (System.nanoTime() - start) / 1e3 / reads);
+
+        start = System.nanoTime();
+        int merged = archive.compact(1, MessageArchiveBenchmark::withoutOneInTen, unthrottled);
+        System.out.printf("compact: %d segments into %d in %.0f ms, %.1f MB left%n", merged, archive.segmentCount(),
+                (System.nanoTime() - start) / 1e6, archive.sizeBytes() / 1e6);
+        found += check(archive.read(3, 4, Long.MAX_VALUE, Integer.MAX_VALUE), total + 1, (int) total);
+        if (!archive.read(21, 22, Long.MAX_VALUE, PAGE_SIZE).isEmpty()) {
+            throw new IllegalStateException("The conversations of deleted user 21 were kept");
+        }
+        archive.close();
+
+        start = System.nanoTime();
+        MessageArchive reopened = new MessageArchive(directory);
+        found += check(reopened.read(3, 4, Long.MAX_VALUE, PAGE_SIZE), total + 1, PAGE_SIZE);
+        System.out.printf("reopen: %.1f ms%n", (System.nanoTime() - start) / 1e6);
+        reopened.close();
+        // keeps the reads from being optimized away
+        System.out.println("(" + found + ")");
+
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    /**
+     * Checks that a page holds the messages right before a seq, oldest first.
+     */
+    private static int check(List<MessageView> page, long beforeSeq, int limit) {
+        long expected = Math.max(1, beforeSeq - limit);
+        for (MessageView message : page) {
+            if (message.getSeq() != expected++) {
+                throw new IllegalStateException("Expected seq " + (expected - 1) + " but read " + message.getSeq());
+            }
+        }
+        if (expected != beforeSeq) {
+            throw new IllegalStateException("Page ends at " + expected + " instead of " + beforeSeq);
+        }
+        return page.size();
+    }
+
+    private static Collection<Long> withoutOneInTen(Collection<Long> ids) {
+        List<Long> existing = new ArrayList<>();
+        for (long id : ids) {
+            if (id % 10 != 1) {
+                existing.add(id);
+            }
+        }
+        return existing;
+    }
+
+    private static String sentence(SplittableRandom random) {
+        StringBuilder sentence = new StringBuilder();
+        int words = 3 + random.nextInt(10);
+        for (int i = 0; i < words; i++) {
+            sentence.append(i == 0 ? "" : " ").append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return sentence.toString();
+    }
+}
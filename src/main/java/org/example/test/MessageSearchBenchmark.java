@@ -0,0 +1,256 @@
+package org.example.test;
+
+import org.example.persistence.MessageSearchIndex;
+import org.example.persistence.MessageView;
+import org.example.persistence.SearchHit;
+import org.example.util.IoThrottle;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.stream.Stream;
+
+/**
+ * Measures the message search index without a database: the rate messages
+ * are indexed at, in batches the size of the message pipeline's and with
+ * segment files flushed and merged in the background, then the latency of
+ * queries of one and two words scoped to a user and to a conversation, and
+ * the time to reopen the index. The words of the messages follow a Zipf
+ * distribution, like those of real chat. Runs offline in a temporary
+ * directory, with unthrottled merges. Run with:
+ * <pre>
+ * mvn compile exec:java -Dexec.mainClass=org.example.test.MessageSearchBenchmark -Dexec.args="10000000 100000 100000"
+ * </pre>
+ * The arguments are the number of messages, the number of users, and the
+ * number of messages held in memory before a segment file is written.
+ */
+public class MessageSearchBenchmark {
+
+    private static final int BATCH_SIZE = 200;
+    private static final int VOCABULARY = 50_000;
+    private static final int CONVERSATIONS_PER_USER = 5;
+    private static final int LIMIT = 20;
+    private static final int QUERIES = 5_000;
+
+    public static void main(String[] args) throws IOException {
+        int messages = args.length > 0 ? Integer.parseInt(args[0]) : 10_000_000;
+        int users = args.length > 1 ? Integer.parseInt(args[1]) : 100_000;
+        int flushDocs = args.length > 2 ? Integer.parseInt(args[2]) : 100_000;
+        Path directory = Files.createTempDirectory("message-search-bench");
+        SplittableRandom random = new SplittableRandom(42);
+        String[] words = vocabulary(random);
+        double[] cumulative = zipf();
+
+        int conversations = users * CONVERSATIONS_PER_USER / 2;
+        long[] low = new long[conversations];
+        long[] high = new long[conversations];
+        long[] seqs = new long[conversations];
+        for (int c = 0; c < conversations; c++) {
+            long a = 1 + random.nextInt(users);
+            long b = 1 + random.nextInt(users - 1);
+            b = b >= a ? b + 1 : b;
+            low[c] = Math.min(a, b);
+            high[c] = Math.max(a, b);
+        }
+
+        MessageSearchIndex index = new MessageSearchIndex(directory, flushDocs, new IoThrottle(0));
+        List<MessageView> batch = new ArrayList<>(BATCH_SIZE);
+        long contentBytes = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < messages; i++) {
+            int c = random.nextInt(conversations);
+            boolean reply = random.nextBoolean();
+            String content = sentence(random, words, cumulative);
+            contentBytes += content.length();
+            batch.add(new MessageView(i + 1, reply ? high[c] : low[c], reply ? low[c] : high[c], content,
+                    new Date(), false, ++seqs[c]));
+            if (batch.size() == BATCH_SIZE || i == messages - 1) {
+                index.add(batch);
+                batch.clear();
+            }
+        }
+        double addSeconds = (System.nanoTime() - start) / 1e9;
+        index.flush();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("index: %d messages, %.1f MB of content, added in %.1fs (%.0f msg/s), "
+                        + "flushed and merged in %.1fs (%.0f msg/s)%n",
+                messages, contentBytes / 1e6, addSeconds, messages / addSeconds, seconds, messages / seconds);
+        System.out.println("index: " + index.summary());
+
+        // a message no other holds a word of, between users 1 and 2
+        long plantedId = messages + 1L;
+        index.add(List.of(new MessageView(plantedId, 1, 2, "Quokka sighting at the harbour", new Date(), false, 1)));
+        check(index.search(1, "quokka", LIMIT), plantedId);
+        check(index.searchConversation(2, 1, "QUOKKA harbour", LIMIT), plantedId);
+        if (!index.search(3, "quokka", LIMIT).isEmpty()) {
+            throw new IllegalStateException("User 3 found a message of users 1 and 2");
+        }
+
+        long found = 0;
+        for (int round = 0; round < 2; round++) {
+            found += measure("user, 1 word", QUERIES, () -> {
+                long user = 1 + random.nextInt(users);
+                String word = words[10 + random.nextInt(1_000)];
+                return checkScope(index.search(user, word, LIMIT), user, -1, word);
+            });
+            found += measure("user, 2 words", QUERIES, () -> {
+                long user = 1 + random.nextInt(users);
+                String first = words[random.nextInt(100)];
+                String second = words[random.nextInt(100)];
+                return checkScope(index.search(user, first + " " + second, LIMIT), user, -1, first, second);
+            });
+            found += measure("user, rare word", QUERIES, () -> {
+                long user = 1 + random.nextInt(users);
+                String word = words[10_000 + random.nextInt(VOCABULARY - 10_000)];
+                return checkScope(index.search(user, word, LIMIT), user, -1, word);
+            });
+            found += measure("conversation, 1 word", QUERIES, () -> {
+                int c = random.nextInt(conversations);
+                String word = words[random.nextInt(100)];
+                return checkScope(index.searchConversation(low[c], high[c], word, LIMIT), low[c], high[c], word);
+            });
+            found += measure("conversation, 2 words", QUERIES, () -> {
+                int c = random.nextInt(conversations);
+                String first = words[random.nextInt(100)];
+                String second = words[random.nextInt(100)];
+                return checkScope(index.searchConversation(high[c], low[c], first + " " + second, LIMIT),
+                        low[c], high[c], first, second);
+            });
+        }
+
+        index.removeUser(2);
+        if (!index.search(1, "quokka", LIMIT).isEmpty()) {
+            throw new IllegalStateException("The message of deleted user 2 was found");
+        }
+        index.close();
+
+        start = System.nanoTime();
+        MessageSearchIndex reopened = new MessageSearchIndex(directory, flushDocs, new IoThrottle(0));
+        System.out.printf("reopen: %.0f ms, %d messages%n", (System.nanoTime() - start) / 1e6, reopened.docCount());
+        if (reopened.docCount() != messages + 1 || !reopened.search(1, "quokka", LIMIT).isEmpty()) {
+            throw new IllegalStateException("The reopened index lost messages or the deleted user");
+        }
+        found += reopened.search(3, words[0], LIMIT).size();
+        reopened.close();
+        // keeps the searches from being optimized away
+        System.out.println("(" + found + ")");
+
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    private interface Query {
+        int run();
+    }
+
+    private static long measure(String name, int count, Query query) {
+        long found = 0;
+        long[] nanos = new long[count];
+        for (int i = 0; i < count; i++) {
+            long start = System.nanoTime();
+            found += query.run();
+            nanos[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(nanos);
+        long total = 0;
+        for (long n : nanos) {
+            total += n;
+        }
+        System.out.printf(Locale.ROOT, "search %-22s avg %7.1f us, p50 %7.1f us, p99 %7.1f us, %.1f hits/query%n",
+                name + ":", total / 1e3 / count, nanos[count / 2] / 1e3, nanos[count * 99 / 100] / 1e3,
+                (double) found / count);
+        return found;
+    }
+
+    private static void check(List<SearchHit> hits, long messageId) {
+        if (hits.size() != 1 || hits.get(0).getMessageId() != messageId) {
+            throw new IllegalStateException("Expected message " + messageId + " but found " + hits.size() + " hits");
+        }
+    }
+
+    /**
+     * Checks that the hits are in the scope, hold the words, and come best first.
+     */
+    private static int checkScope(List<SearchHit> hits, long userId, long otherId, String... words) {
+        double previous = Double.MAX_VALUE;
+        for (SearchHit hit : hits) {
+            boolean inScope = otherId < 0
+                    ? hit.getSenderId() == userId || hit.getRecipientId() == userId
+                    : Math.min(hit.getSenderId(), hit.getRecipientId()) == Math.min(userId, otherId)
+                    && Math.max(hit.getSenderId(), hit.getRecipientId()) == Math.max(userId, otherId);
+            if (!inScope) {
+                throw new IllegalStateException("Message " + hit.getMessageId() + " is out of scope");
+            }
+            List<String> contentWords = List.of(hit.getContent().split(" "));
+            for (String word : words) {
+                if (!contentWords.contains(word)) {
+                    throw new IllegalStateException("Message " + hit.getMessageId() + " does not hold " + word);
+                }
+            }
+            if (hit.getScore() > previous) {
+                throw new IllegalStateException("Hits are not ordered by score");
+            }
+            previous = hit.getScore();
+        }
+        if (hits.size() > LIMIT) {
+            throw new IllegalStateException("More than " + LIMIT + " hits");
+        }
+        return hits.size();
+    }
+
+    /**
+     * Returns the cumulative probabilities of the ranks of the vocabulary under Zipf's law.
+     */
+    private static double[] zipf() {
+        double[] cumulative = new double[VOCABULARY];
+        double sum = 0;
+        for (int rank = 0; rank < VOCABULARY; rank++) {
+            sum += 1.0 / (rank + 1);
+            cumulative[rank] = sum;
+        }
+        for (int rank = 0; rank < VOCABULARY; rank++) {
+            cumulative[rank] /= sum;
+        }
+        return cumulative;
+    }
+
+    private static String[] vocabulary(SplittableRandom random) {
+        String letters = "abcdefghijklmnopqrstuvwxyz";
+        String[] words = new String[VOCABULARY];
+        Set<String> seen = new HashSet<>();
+        for (int i = 0; i < VOCABULARY; i++) {
+            String word;
+            do {
+                StringBuilder builder = new StringBuilder();
+                int length = 2 + Math.min(i, 9_999) / 1_000 + random.nextInt(4);
+                for (int j = 0; j < length; j++) {
+                    builder.append(letters.charAt(random.nextInt(letters.length())));
+                }
+                word = builder.toString();
+            } while (!seen.add(word) || word.equals("quokka") || word.equals("harbour"));
+            words[i] = word;
+        }
+        return words;
+    }
+
+    private static String sentence(SplittableRandom random, String[] words, double[] cumulative) {
+        StringBuilder sentence = new StringBuilder();
+        int count = 3 + random.nextInt(12);
+        for (int i = 0; i < count; i++) {
+            int rank = Arrays.binarySearch(cumulative, random.nextDouble());
+            rank = rank < 0 ? Math.min(-rank - 1, VOCABULARY - 1) : rank;
+            sentence.append(i == 0 ? "" : " ").append(words[rank]);
+        }
+        return sentence.toString();
+    }
+}
@@ -0,0 +1,89 @@
+package org.example.test;
+
+import org.example.persistence.MappedLogMessageStore;
+import org.example.persistence.MessageView;
+import org.example.persistence.NewMessage;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.stream.Stream;
+
+/**
+ * Measures the memory-mapped message log without a database: append
+ * throughput in batches the size of the message pipeline's, the latency of
+ * reading the newest page of a conversation, and the time to reopen the log
+ * and rebuild its index. Runs offline in a temporary directory. Run with:
+ * <pre>
+ * mvn compile exec:java -Dexec.mainClass=org.example.test.MessageStoreBenchmark -Dexec.args="2000000 10000 200 false"
+ * </pre>
+ * The arguments are the number of messages, the number of conversations,
+ * the batch size, and whether each batch is forced to disk.
+ */
+public class MessageStoreBenchmark {
+
+    private static final int PAGE_SIZE = 50;
+
+    public static void main(String[] args) throws IOException {
+        int messages = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+        int conversations = args.length > 1 ? Integer.parseInt(args[1]) : 10_000;
+        int batchSize = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+        boolean fsync = args.length > 3 && Boolean.parseBoolean(args[3]);
+        Path directory = Files.createTempDirectory("message-log-bench");
+        String content = "a typical chat message of about sixty bytes, give or take";
+
+        MappedLogMessageStore store = new MappedLogMessageStore(directory, 64 * 1024 * 1024, fsync);
+        SplittableRandom random = new SplittableRandom(42);
+        List<NewMessage> batch = new ArrayList<>(batchSize);
+        long start = System.nanoTime();
+        for (int i = 0; i < messages; i++) {
+            // users 2c + 1 and 2c + 2 make conversation c
+            long user = 2L * random.nextInt(conversations) + 1;
+            boolean reply = random.nextBoolean();
+            batch.add(new NewMessage(reply ? user + 1 : user, reply ? user : user + 1, content, new Date()));
+            if (batch.size() == batchSize || i == messages - 1) {
+                store.append(batch);
+                batch.clear();
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("append: %d messages in %.2fs, %.0f msg/s, %.1f MB of log%n",
+                messages, seconds, messages / seconds, store.sizeBytes() / 1e6);
+
+        int pageReads = 200_000;
+        long found = 0;
+        for (int round = 0; round < 2; round++) {
+            start = System.nanoTime();
+            for (int i = 0; i < pageReads; i++) {
+                long user = 2L * random.nextInt(conversations) + 1;
+                List<MessageView> page = store.read(user, user + 1, Long.MAX_VALUE, PAGE_SIZE);
+                found += page.size();
+            }
+            System.out.printf("read newest %d: %.1f us/page%n", PAGE_SIZE, (System.nanoTime() - start) / 1e3 / pageReads);
+        }
+
+        start = System.nanoTime();
+        for (int c = 0; c < conversations; c++) {
+            found += store.markRead(2L * c + 1, 2L * c + 2);
+        }
+        System.out.printf("markRead: %.1f us/conversation%n", (System.nanoTime() - start) / 1e3 / conversations);
+        store.close();
+
+        start = System.nanoTime();
+        MappedLogMessageStore reopened = new MappedLogMessageStore(directory, 64 * 1024 * 1024, fsync);
+        System.out.printf("reopen and rebuild index: %.0f ms, unread of user 1 after reopen: %d%n",
+                (System.nanoTime() - start) / 1e6, reopened.countUnread(2, 1));
+        reopened.close();
+        // keeps the reads from being optimized away
+        System.out.println("(" + found + ")");
+
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+}
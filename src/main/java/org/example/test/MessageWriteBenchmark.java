@@ -0,0 +1,112 @@
+package org.example.test;
+
+import org.example.controller.FriendController;
+import org.example.controller.MessageController;
+import org.example.controller.UserController;
+import org.example.models.Message;
+import org.example.models.User;
+import org.example.persistence.Repositories;
+import org.example.util.HibernateUtil;
+import org.hibernate.stat.Statistics;
+
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Counts the SQL statements and entity loads it takes to save one private
+ * message, comparing the old /msg path (load both users, then persist a
+ * Message holding them) with saving by user ID, alone and from concurrent
+ * senders whose messages share JDBC batches. Needs the configured database. Run with:
+ * <pre>
+ * mvn compile exec:java -Dexec.mainClass=org.example.test.MessageWriteBenchmark -Dexec.args="500 10 16"
+ * </pre>
+ * The arguments are the messages per phase, the number of friends given to
+ * each user (their lists were loaded with every lookup), and the number of concurrent senders.
+ */
+public class MessageWriteBenchmark {
+
+    public static void main(String[] args) throws InterruptedException {
+        int messages = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+        int friends = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        int senders = args.length > 2 ? Integer.parseInt(args[2]) : 16;
+        System.setProperty("hibernate.generate_statistics", "true");
+
+        User sender = user("bench-sender");
+        User recipient = user("bench-recipient");
+        for (int i = 0; i < friends; i++) {
+            User friend = user("bench-friend-" + i);
+            // adding an existing friendship changes nothing
+            FriendController.addFriend(sender, friend);
+            FriendController.addFriend(recipient, friend);
+        }
+        String senderName = sender.getUsername();
+        String recipientName = recipient.getUsername();
+        Statistics statistics = HibernateUtil.getSessionFactory().getStatistics();
+        System.out.printf("%-28s %10s %14s %14s %10s%n", "path", "messages", "statements/msg", "entityLoads/msg", "msg/s");
+
+        deleteMessages(sender);
+        statistics.clear();
+        long start = System.nanoTime();
+        for (int i = 0; i < messages; i++) {
+            Message message = new Message();
+            message.setContent("bench " + i);
+            message.setSender(UserController.getUserByUsername(senderName));
+            message.setRecipient(UserController.getUserByUsername(recipientName));
+            MessageController.saveMessage(message);
+        }
+        print("load users + persist", messages, statistics, start);
+
+        deleteMessages(sender);
+        Repositories.userCache().clear();
+        statistics.clear();
+        start = System.nanoTime();
+        for (int i = 0; i < messages; i++) {
+            long senderId = Repositories.userCache().get(senderName).getId();
+            long recipientId = Repositories.userCache().get(recipientName).getId();
+            MessageController.saveMessage(senderId, recipientId, "bench " + i).join();
+        }
+        print("by ID, one sender", messages, statistics, start);
+
+        deleteMessages(sender);
+        statistics.clear();
+        CountDownLatch done = new CountDownLatch(senders);
+        start = System.nanoTime();
+        for (int s = 0; s < senders; s++) {
+            int first = s;
+            Thread.ofPlatform().start(() -> {
+                for (int i = first; i < messages; i += senders) {
+                    long senderId = Repositories.userCache().get(senderName).getId();
+                    long recipientId = Repositories.userCache().get(recipientName).getId();
+                    MessageController.saveMessage(senderId, recipientId, "bench " + i).join();
+                }
+                done.countDown();
+            });
+        }
+        done.await();
+        print("by ID, " + senders + " senders", messages, statistics, start);
+
+        deleteMessages(sender);
+        System.exit(0);
+    }
+
+    private static void print(String path, int messages, Statistics statistics, long start) {
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%-28s %10d %14.2f %14.2f %10.0f%n", path, messages,
+                (double) statistics.getPrepareStatementCount() / messages,
+                (double) statistics.getEntityLoadCount() / messages,
+                messages / seconds);
+    }
+
+    private static User user(String name) {
+        if (UserController.getUserByUsername(name) == null) {
+            UserController.signup(new User(name, "bench"));
+        }
+        return UserController.getUserByUsername(name);
+    }
+
+    private static void deleteMessages(User sender) {
+        Repositories.transactions().executeWithoutResult(session -> session.createMutationQuery(
+                        "delete from Message where sender.id = :sender")
+                .setParameter("sender", sender.getId())
+                .executeUpdate());
+    }
+}
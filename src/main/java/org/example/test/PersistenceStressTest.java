@@ -0,0 +1,120 @@
+package org.example.test;
+
+import org.example.controller.MessageController;
+import org.example.controller.UserController;
+import org.example.models.Message;
+import org.example.models.User;
+import org.example.persistence.Repositories;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Calls saveMessage, getUserByUsername and setUserStatus from many threads at
+ * once against the configured database, checks that every thread saw its own
+ * data, and prints the throughput at each thread count. Run with:
+ * <pre>
+ * mvn compile exec:java -Dexec.mainClass=org.example.test.PersistenceStressTest -Dexec.args="1,2,4,8,16,32 200"
+ * </pre>
+ * The first argument lists the thread counts, the second the rounds per thread.
+ * Users named {@code stress-N} are created when missing; their messages are deleted afterwards.
+ */
+public class PersistenceStressTest {
+
+    public static void main(String[] args) throws InterruptedException {
+        String[] levels = (args.length > 0 ? args[0] : "1,2,4,8,16,32").split(",");
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        int maxThreads = 0;
+        for (String level : levels) {
+            maxThreads = Math.max(maxThreads, Integer.parseInt(level.trim()));
+        }
+
+        List<User> users = new ArrayList<>();
+        for (int i = 0; i < maxThreads + 1; i++) {
+            String name = "stress-" + i;
+            if (UserController.getUserByUsername(name) == null) {
+                UserController.signup(new User(name, "stress"));
+            }
+            users.add(UserController.getUserByUsername(name));
+        }
+
+        double baseline = 0;
+        boolean passed = true;
+        System.out.printf("%8s %10s %12s %8s %s%n", "threads", "ops", "ops/s", "speedup", "result");
+        for (String level : levels) {
+            int threads = Integer.parseInt(level.trim());
+            deleteMessages(users);
+            AtomicInteger failures = new AtomicInteger();
+            CountDownLatch start = new CountDownLatch(1);
+            CountDownLatch done = new CountDownLatch(threads);
+            for (int t = 0; t < threads; t++) {
+                User self = users.get(t);
+                User peer = users.get(t + 1);
+                Thread.ofPlatform().start(() -> {
+                    try {
+                        start.await();
+                        for (int round = 0; round < rounds; round++) {
+                            User found = UserController.getUserByUsername(self.getUsername());
+                            if (found == null || !found.getId().equals(self.getId())) {
+                                failures.incrementAndGet();
+                            }
+                            UserController.setUserStatus(self.getUsername(), round % 2 == 0);
+                            MessageController.saveMessage(new Message(self, peer, "stress " + round));
+                        }
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                        failures.incrementAndGet();
+                    } finally {
+                        done.countDown();
+                    }
+                });
+            }
+
+            long begin = System.nanoTime();
+            start.countDown();
+            done.await();
+            double seconds = (System.nanoTime() - begin) / 1e9;
+
+            for (int t = 0; t < threads; t++) {
+                User self = users.get(t);
+                long saved = countMessagesFrom(self);
+                boolean lastStatus = (rounds - 1) % 2 == 0;
+                User found = UserController.getUserByUsername(self.getUsername());
+                if (saved != rounds || found == null || (rounds > 0 && found.isActive() != lastStatus)) {
+                    failures.incrementAndGet();
+                }
+            }
+
+            double opsPerSecond = threads * rounds * 3 / seconds;
+            if (baseline == 0) {
+                baseline = opsPerSecond / threads;
+            }
+            passed &= failures.get() == 0;
+            System.out.printf("%8d %10d %12.0f %7.2fx %s%n", threads, threads * rounds * 3, opsPerSecond,
+                    opsPerSecond / baseline, failures.get() == 0 ? "ok" : failures.get() + " failures");
+        }
+        deleteMessages(users);
+        for (User user : users) {
+            UserController.setUserStatus(user.getUsername(), false);
+        }
+        System.out.println(passed ? "PASSED" : "FAILED");
+        System.exit(passed ? 0 : 1);
+    }
+
+    private static long countMessagesFrom(User sender) {
+        return Repositories.transactions().read(session -> session.createQuery(
+                        "select count(*) from Message where sender.id = :sender", Long.class)
+                .setParameter("sender", sender.getId())
+                .uniqueResult());
+    }
+
+    private static void deleteMessages(List<User> users) {
+        List<Long> ids = users.stream().map(User::getId).toList();
+        Repositories.transactions().executeWithoutResult(session -> session.createMutationQuery(
+                        "delete from Message where sender.id in (:ids)")
+                .setParameterList("ids", ids)
+                .executeUpdate());
+    }
+}
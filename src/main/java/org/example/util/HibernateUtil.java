@@ -1,16 +1,63 @@
 // HibernateUtil.java
 package org.example.util;
 
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import org.example.persistence.PoolMetrics;
 import org.hibernate.SessionFactory;
+import org.hibernate.cfg.AvailableSettings;
 import org.hibernate.cfg.Configuration;
 
+import java.util.Properties;
+
 public class HibernateUtil {
+    private static final String POOL_PREFIX = "hibernate.hikari.";
+
+    private static final PoolMetrics poolMetrics = new PoolMetrics();
+    private static HikariDataSource dataSource;
     private static final SessionFactory sessionFactory = buildSessionFactory();
 
+    /**
+     * Builds the session factory from hibernate.cfg.xml, with connections from a
+     * HikariCP pool configured by the {@code hibernate.hikari.*} properties.
+     * A system property starting with {@code hibernate.} overrides the property of the same name.
+     */
     private static SessionFactory buildSessionFactory() {
         try {
-            return new Configuration().configure("hibernate.cfg.xml").buildSessionFactory();
+            Configuration configuration = new Configuration().configure("hibernate.cfg.xml");
+            Properties settings = configuration.getProperties();
+
+            for (String name : System.getProperties().stringPropertyNames()) {
+                if (name.startsWith("hibernate.")) {
+                    settings.setProperty(name, System.getProperty(name));
+                }
+            }
+
+            Properties poolSettings = new Properties();
+            for (String name : settings.stringPropertyNames()) {
+                if (name.startsWith(POOL_PREFIX)) {
+                    poolSettings.setProperty(name.substring(POOL_PREFIX.length()), settings.getProperty(name));
+                    settings.remove(name);
+                }
+            }
+            HikariConfig poolConfig = new HikariConfig(poolSettings);
+            poolConfig.setDriverClassName(settings.getProperty(AvailableSettings.DRIVER));
+            poolConfig.setJdbcUrl(settings.getProperty(AvailableSettings.URL));
+            poolConfig.setUsername(settings.getProperty(AvailableSettings.USER));
+            poolConfig.setPassword(settings.getProperty(AvailableSettings.PASS));
+            poolConfig.setMetricsTrackerFactory(poolMetrics);
+            dataSource = new HikariDataSource(poolConfig);
+
+            // Hibernate would ask the DataSource for connections with these credentials, which Hikari refuses
+            for (String name : new String[]{AvailableSettings.DRIVER, AvailableSettings.URL, AvailableSettings.USER, AvailableSettings.PASS}) {
+                settings.remove(name);
+            }
+            settings.put(AvailableSettings.DATASOURCE, dataSource);
+            return configuration.buildSessionFactory();
         } catch (Throwable ex) {
+            if (dataSource != null) {
+                dataSource.close();
+            }
             throw new ExceptionInInitializerError(ex);
         }
     }
@@ -19,7 +66,17 @@ public class HibernateUtil {
         return sessionFactory;
     }
 
+    /**
+     * Returns the measurements of the connection pool.
+     *
+     * @return the pool metrics
+     */
+    public static PoolMetrics getPoolMetrics() {
+        return poolMetrics;
+    }
+
     public static void shutdown() {
         getSessionFactory().close();
+        dataSource.close();
     }
-}
\ No newline at end of file
+}
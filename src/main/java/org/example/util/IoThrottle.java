@@ -0,0 +1,79 @@
+package org.example.util;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * IoThrottle holds background I/O to a number of bytes per second, so
+ * housekeeping work does not compete with serving clients. A caller asks
+ * for its bytes before moving them and sleeps while it is ahead of the rate.
+ * Time spent idle is not saved up: after a pause the rate starts over.
+ */
+public class IoThrottle {
+
+    private static final long SECOND = 1_000_000_000L;
+
+    private final long bytesPerSecond;
+    private final ReentrantLock lock = new ReentrantLock();
+    private long start = System.nanoTime();
+    private long bytes;
+    private long sleptNanos;
+
+    /**
+     * Constructs a new IoThrottle.
+     *
+     * @param bytesPerSecond the rate to hold to; zero or less leaves I/O unthrottled
+     */
+    public IoThrottle(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    /**
+     * Accounts for bytes about to be read or written, sleeping until they fit in
+     * the rate. An interrupted caller returns at once with its interrupt flag set.
+     *
+     * @param count the number of bytes
+     */
+    public void acquire(long count) {
+        if (bytesPerSecond <= 0) {
+            return;
+        }
+        long delay;
+        lock.lock();
+        try {
+            long now = System.nanoTime();
+            long due = start + bytes * SECOND / bytesPerSecond;
+            if (now - due > SECOND) {
+                start = now;
+                bytes = 0;
+            }
+            bytes += count;
+            delay = start + bytes * SECOND / bytesPerSecond - now;
+            if (delay > 0) {
+                sleptNanos += delay;
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (delay > 0) {
+            try {
+                Thread.sleep(delay / 1_000_000, (int) (delay % 1_000_000));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Returns the total time callers were made to sleep.
+     *
+     * @return the time slept, in milliseconds
+     */
+    public long sleptMillis() {
+        lock.lock();
+        try {
+            return sleptNanos / 1_000_000;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package org.example.util;
+
+import java.util.Arrays;
+
+/**
+ * LongHashSet is a set of primitive longs with open addressing and linear
+ * probing, so it stores neither boxed keys nor entry objects. The value 0
+ * marks a free slot and cannot be stored; entity IDs never take it.
+ * It is not thread-safe.
+ */
+public class LongHashSet {
+
+    private static final int MIN_CAPACITY = 4;
+
+    private long[] keys;
+    private int size;
+
+    /**
+     * Constructs a new LongHashSet sized for the specified number of values.
+     *
+     * @param expectedSize the number of values expected
+     */
+    public LongHashSet(int expectedSize) {
+        keys = new long[capacityFor(expectedSize)];
+    }
+
+    /**
+     * Constructs a new empty LongHashSet.
+     */
+    public LongHashSet() {
+        this(MIN_CAPACITY);
+    }
+
+    /**
+     * Adds a value.
+     *
+     * @param value the value, not 0
+     * @return true if the value was not in the set
+     */
+    public boolean add(long value) {
+        if (value == 0) {
+            throw new IllegalArgumentException("0 cannot be stored");
+        }
+        int mask = keys.length - 1;
+        int slot = LongHashSet.slot(value, mask);
+        while (keys[slot] != 0) {
+            if (keys[slot] == value) {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = value;
+        if (++size > keys.length * 3 / 4) {
+            rehash(keys.length * 2);
+        }
+        return true;
+    }
+
+    /**
+     * Returns whether a value is in the set.
+     *
+     * @param value the value
+     * @return true if the set holds the value
+     */
+    public boolean contains(long value) {
+        if (value == 0) {
+            return false;
+        }
+        int mask = keys.length - 1;
+        int slot = LongHashSet.slot(value, mask);
+        while (keys[slot] != 0) {
+            if (keys[slot] == value) {
+                return true;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return false;
+    }
+
+    /**
+     * Removes a value.
+     *
+     * @param value the value
+     * @return true if the value was in the set
+     */
+    public boolean remove(long value) {
+        if (value == 0) {
+            return false;
+        }
+        int mask = keys.length - 1;
+        int slot = LongHashSet.slot(value, mask);
+        while (keys[slot] != value) {
+            if (keys[slot] == 0) {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = 0;
+        size--;
+        // shift back the values of the same probe chain, so lookups never stop at the hole
+        int hole = slot;
+        slot = (slot + 1) & mask;
+        while (keys[slot] != 0) {
+            int home = LongHashSet.slot(keys[slot], mask);
+            if (((slot - home) & mask) >= ((slot - hole) & mask)) {
+                keys[hole] = keys[slot];
+                keys[slot] = 0;
+                hole = slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the number of values.
+     *
+     * @return the size of the set
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the values in no particular order.
+     *
+     * @return a new array holding the values
+     */
+    public long[] toArray() {
+        long[] values = new long[size];
+        int i = 0;
+        for (long key : keys) {
+            if (key != 0) {
+                values[i++] = key;
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Returns the bytes taken by the set on a 64-bit JVM with compressed references.
+     *
+     * @return the estimated heap footprint
+     */
+    public long footprintBytes() {
+        // object header and fields, then the array header and slots
+        return 24 + 16 + 8L * keys.length;
+    }
+
+    private void rehash(int capacity) {
+        long[] old = keys;
+        keys = new long[capacity];
+        int mask = capacity - 1;
+        for (long key : old) {
+            if (key != 0) {
+                int slot = LongHashSet.slot(key, mask);
+                while (keys[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = key;
+            }
+        }
+    }
+
+    static int capacityFor(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity * 3 / 4 < Math.max(1, expectedSize)) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    /**
+     * Spreads the bits of a key over the table; Snowflake IDs differ mostly in their low bits.
+     */
+    static int slot(long key, int mask) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(toArray());
+    }
+}
@@ -0,0 +1,45 @@
+-- Moves users, messages and friend_requests from IDENTITY keys to IDs assigned
+-- by SnowflakeIdGenerator. SQL Server cannot drop the IDENTITY property of a
+-- column, so each table is copied into a new one without it and renamed.
+--
+-- Existing rows keep their IDs. They are far below the smallest Snowflake ID,
+-- so ordering by ID still follows creation order across the migration.
+-- Run it with the server stopped; the foreign keys and unique constraints it
+-- drops are recreated by hbm2ddl on the next start.
+
+SET XACT_ABORT ON;
+BEGIN TRANSACTION;
+
+DECLARE @sql NVARCHAR(MAX) = N'';
+SELECT @sql += N'ALTER TABLE ' + QUOTENAME(OBJECT_SCHEMA_NAME(parent_object_id)) + N'.'
+        + QUOTENAME(OBJECT_NAME(parent_object_id)) + N' DROP CONSTRAINT ' + QUOTENAME(name) + N';'
+FROM sys.foreign_keys
+WHERE referenced_object_id IN (OBJECT_ID(N'users'), OBJECT_ID(N'messages'), OBJECT_ID(N'friend_requests'))
+   OR parent_object_id IN (OBJECT_ID(N'users'), OBJECT_ID(N'messages'), OBJECT_ID(N'friend_requests'));
+EXEC sp_executesql @sql;
+
+-- an expression in SELECT INTO does not carry the IDENTITY property over
+SELECT CAST(id AS BIGINT) AS id, isOnline, password, username
+INTO users_v10 FROM users WITH (TABLOCKX);
+ALTER TABLE users_v10 ALTER COLUMN id BIGINT NOT NULL;
+DROP TABLE users;
+EXEC sp_rename N'users_v10', N'users';
+ALTER TABLE users ADD CONSTRAINT PK_users PRIMARY KEY (id);
+ALTER TABLE users ADD CONSTRAINT DF_users_isOnline DEFAULT 0 FOR isOnline;
+ALTER TABLE users ADD CONSTRAINT UK_users_username UNIQUE (username);
+
+SELECT CAST(id AS BIGINT) AS id, content, isRead, recipient_id, sender_id, timestamp
+INTO messages_v10 FROM messages WITH (TABLOCKX);
+ALTER TABLE messages_v10 ALTER COLUMN id BIGINT NOT NULL;
+DROP TABLE messages;
+EXEC sp_rename N'messages_v10', N'messages';
+ALTER TABLE messages ADD CONSTRAINT PK_messages PRIMARY KEY (id);
+
+SELECT CAST(id AS BIGINT) AS id, isAccepted, recipient_id, sender_id
+INTO friend_requests_v10 FROM friend_requests WITH (TABLOCKX);
+ALTER TABLE friend_requests_v10 ALTER COLUMN id BIGINT NOT NULL;
+DROP TABLE friend_requests;
+EXEC sp_rename N'friend_requests_v10', N'friend_requests';
+ALTER TABLE friend_requests ADD CONSTRAINT PK_friend_requests PRIMARY KEY (id);
+
+COMMIT TRANSACTION;
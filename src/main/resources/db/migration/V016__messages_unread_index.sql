@@ -0,0 +1,6 @@
+-- Serves the grouped unread counts of MessageRepository.countUnreadBySender,
+-- which filter on the recipient and the read flag. hbm2ddl creates the same
+-- index on start when it is missing.
+
+IF NOT EXISTS (SELECT 1 FROM sys.indexes WHERE name = N'idx_messages_recipient_unread' AND object_id = OBJECT_ID(N'messages'))
+    CREATE INDEX idx_messages_recipient_unread ON messages (recipient_id, isRead);
@@ -0,0 +1,8 @@
+-- Serves the keyset-paginated history of MessageRepository.findConversationPage:
+-- each direction of a conversation is a seek on (sender_id, recipient_id) and a
+-- backward range scan on timestamp. The clustered key (id) is part of every
+-- index entry, so ties on timestamp are ordered without a lookup.
+-- hbm2ddl creates the same index on start when it is missing.
+
+IF NOT EXISTS (SELECT 1 FROM sys.indexes WHERE name = N'idx_messages_pair_time' AND object_id = OBJECT_ID(N'messages'))
+    CREATE INDEX idx_messages_pair_time ON messages (sender_id, recipient_id, timestamp);
@@ -0,0 +1,67 @@
+-- Groups messages into conversations keyed by the canonical pair of user IDs,
+-- the lower ID first, and numbers the messages of each conversation with seq.
+-- History reads become range scans on (conversation_id, seq) instead of two
+-- seeks on (sender_id, recipient_id, timestamp), one per direction.
+--
+-- Existing messages are numbered by (timestamp, id), the order the history
+-- was shown in before. Backfilled conversations get small IDs from ROW_NUMBER,
+-- far below the smallest Snowflake ID, like the rows kept by V010.
+-- Run it with the server stopped; the foreign keys of the new columns are
+-- created by hbm2ddl on the next start. Statements referring to the new
+-- columns run through EXEC, so the batch compiles before they exist.
+
+SET XACT_ABORT ON;
+BEGIN TRANSACTION;
+
+IF OBJECT_ID(N'conversations') IS NULL
+    CREATE TABLE conversations (
+        id BIGINT NOT NULL CONSTRAINT PK_conversations PRIMARY KEY,
+        user_low_id BIGINT NOT NULL,
+        user_high_id BIGINT NOT NULL,
+        last_seq BIGINT NOT NULL,
+        CONSTRAINT uk_conversations_pair UNIQUE (user_low_id, user_high_id)
+    );
+
+IF COL_LENGTH(N'messages', N'conversation_id') IS NULL
+    ALTER TABLE messages ADD conversation_id BIGINT NULL;
+IF COL_LENGTH(N'messages', N'seq') IS NULL
+    ALTER TABLE messages ADD seq BIGINT NULL;
+
+EXEC (N'
+INSERT INTO conversations (id, user_low_id, user_high_id, last_seq)
+SELECT ROW_NUMBER() OVER (ORDER BY p.user_low_id, p.user_high_id), p.user_low_id, p.user_high_id, 0
+FROM (SELECT DISTINCT
+             CASE WHEN sender_id < recipient_id THEN sender_id ELSE recipient_id END AS user_low_id,
+             CASE WHEN sender_id < recipient_id THEN recipient_id ELSE sender_id END AS user_high_id
+      FROM messages WITH (TABLOCKX)
+      WHERE conversation_id IS NULL) p
+WHERE NOT EXISTS (SELECT 1 FROM conversations c
+                  WHERE c.user_low_id = p.user_low_id AND c.user_high_id = p.user_high_id);
+
+UPDATE m SET conversation_id = c.id
+FROM messages m
+JOIN conversations c
+  ON c.user_low_id = CASE WHEN m.sender_id < m.recipient_id THEN m.sender_id ELSE m.recipient_id END
+ AND c.user_high_id = CASE WHEN m.sender_id < m.recipient_id THEN m.recipient_id ELSE m.sender_id END
+WHERE m.conversation_id IS NULL;
+
+WITH numbered AS (
+    SELECT seq, ROW_NUMBER() OVER (PARTITION BY conversation_id ORDER BY timestamp, id) AS new_seq
+    FROM messages
+)
+UPDATE numbered SET seq = new_seq;
+
+UPDATE c SET last_seq = ISNULL((SELECT MAX(m.seq) FROM messages m WHERE m.conversation_id = c.id), 0)
+FROM conversations c;
+');
+
+IF EXISTS (SELECT 1 FROM sys.indexes WHERE name = N'idx_messages_pair_time' AND object_id = OBJECT_ID(N'messages'))
+    DROP INDEX idx_messages_pair_time ON messages;
+IF EXISTS (SELECT 1 FROM sys.indexes WHERE name = N'idx_messages_conversation_seq' AND object_id = OBJECT_ID(N'messages'))
+    DROP INDEX idx_messages_conversation_seq ON messages;
+
+ALTER TABLE messages ALTER COLUMN conversation_id BIGINT NOT NULL;
+ALTER TABLE messages ALTER COLUMN seq BIGINT NOT NULL;
+EXEC (N'CREATE UNIQUE INDEX idx_messages_conversation_seq ON messages (conversation_id, seq);');
+
+COMMIT TRANSACTION;
@@ -0,0 +1,22 @@
+-- Lets FriendRequestRepository.saveIfAbsent insert a request in one statement:
+-- the insert skips pairs that already have a request, and the unique
+-- (sender_id, recipient_id) constraint rejects the pair sent by two
+-- concurrent requests, which the repository reports as ALREADY_SENT.
+--
+-- Duplicates left by the old count-then-insert path are removed first,
+-- keeping the oldest request of each pair.
+-- hbm2ddl creates the same constraint on start when it is missing.
+
+SET XACT_ABORT ON;
+BEGIN TRANSACTION;
+
+WITH ranked AS (
+    SELECT ROW_NUMBER() OVER (PARTITION BY sender_id, recipient_id ORDER BY id) AS position
+    FROM friend_requests WITH (TABLOCKX)
+)
+DELETE FROM ranked WHERE position > 1;
+
+IF NOT EXISTS (SELECT 1 FROM sys.key_constraints WHERE name = N'uk_friend_requests_pair' AND parent_object_id = OBJECT_ID(N'friend_requests'))
+    ALTER TABLE friend_requests ADD CONSTRAINT uk_friend_requests_pair UNIQUE (sender_id, recipient_id);
+
+COMMIT TRANSACTION;